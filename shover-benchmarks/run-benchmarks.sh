@@ -0,0 +1,28 @@
+#!/bin/bash
+# Build the benchmarks and run them with the allocation profiler, then compare the result with the baseline.
+#   ./run-benchmarks.sh [jmh options]     ex) ./run-benchmarks.sh ShoverSendBenchmark -p width=16
+#   ./run-benchmarks.sh --baseline        record the result as results/baseline.json
+set -e
+cd "$(dirname "$0")"
+
+BASELINE=results/baseline.json
+RESULT=results/current.json
+THRESHOLD=${THRESHOLD:-0.1}
+
+if [ "$1" == "--baseline" ]; then
+	shift
+	RESULT=$BASELINE
+elif [ ! -s "$BASELINE" ] || [ "$(tr -d '[:space:]' < "$BASELINE")" == "[]" ]; then
+	echo "no baseline in $BASELINE, record it first with $0 --baseline" >&2
+	exit 2
+fi
+
+(cd .. && mvn -B -q install -DskipTests)
+mvn -B -q package
+
+mkdir -p results
+java -jar target/benchmarks.jar -prof gc -rf json -rff "$RESULT" "$@"
+
+if [ "$RESULT" != "$BASELINE" ]; then
+	java -cp target/benchmarks.jar org.conquernos.shover.benchmarks.CompareResults "$BASELINE" "$RESULT" "$THRESHOLD"
+fi
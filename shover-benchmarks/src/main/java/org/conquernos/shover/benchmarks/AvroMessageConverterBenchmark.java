@@ -0,0 +1,61 @@
+package org.conquernos.shover.benchmarks;
+
+
+import org.apache.avro.Schema;
+import org.conquernos.shover.AvroMessageConverter;
+import org.conquernos.shover.harness.SyntheticMessages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link AvroMessageConverter#jsonToAvro} and {@link AvroMessageConverter#mapToAvro} across schema widths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvroMessageConverterBenchmark {
+
+	@Param({"4", "16", "64"})
+	public int width;
+
+	private Schema schema;
+
+	private String json;
+
+	private Map<String, Object> map;
+
+
+	@Setup
+	public void setup() {
+		schema = SyntheticMessages.schema("width" + width, width);
+		json = SyntheticMessages.json(width, 1);
+		map = SyntheticMessages.map(width, 1);
+	}
+
+	@Benchmark
+	public Object jsonToAvro() {
+		return AvroMessageConverter.jsonToAvro(json, schema);
+	}
+
+	@Benchmark
+	public Object mapToAvro() {
+		return AvroMessageConverter.mapToAvro(map, schema);
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.conquernos.shover.benchmarks;
+
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Compares a JMH json result (-rf json) with the baseline and exits with 1 if a benchmark got worse than the threshold.
+ * The score is compared in the direction of its mode (thrpt : higher is better, the others : lower is better),
+ * and the normalized allocation (gc.alloc.rate.norm of -prof gc) is compared if both results have it.
+ * An empty baseline or a benchmark which is not in the baseline fails the comparison too (nothing was compared).
+ *
+ * usage : CompareResults baseline.json current.json [threshold (default : 0.1)]
+ */
+public class CompareResults {
+
+	private static final String ALLOC_METRIC = "·gc.alloc.rate.norm";
+
+	private static class Result {
+		final String mode;
+		final double score;
+		final String unit;
+		final Double alloc;
+
+		Result(String mode, double score, String unit, Double alloc) {
+			this.mode = mode;
+			this.score = score;
+			this.unit = unit;
+			this.alloc = alloc;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage : CompareResults baseline.json current.json [threshold]");
+			System.exit(2);
+		}
+
+		Map<String, Result> baseline = read(new File(args[0]));
+		Map<String, Result> current = read(new File(args[1]));
+		double threshold = args.length > 2? Double.parseDouble(args[2]) : 0.1;
+		if (baseline.isEmpty()) {
+			System.err.println("the baseline " + args[0] + " is empty, record it with run-benchmarks.sh --baseline");
+			System.exit(2);
+		}
+
+		int regressions = 0;
+		int unmeasured = 0;
+		for (Map.Entry<String, Result> entry : current.entrySet()) {
+			String name = entry.getKey();
+			Result now = entry.getValue();
+			Result base = baseline.get(name);
+			if (base == null) {
+				unmeasured++;
+				System.out.printf("%-80s %12.3f %s NO BASELINE%n", name, now.score, now.unit);
+				continue;
+			}
+
+			// > 0 : worse than the baseline
+			double change = "thrpt".equals(now.mode)? (base.score - now.score) / base.score : (now.score - base.score) / base.score;
+			boolean regressed = change > threshold;
+
+			String alloc = "";
+			if (now.alloc != null && base.alloc != null) {
+				double allocChange = base.alloc == 0? (now.alloc > 0? Double.POSITIVE_INFINITY : 0) : (now.alloc - base.alloc) / base.alloc;
+				alloc = String.format(" alloc %.1f -> %.1f B/op", base.alloc, now.alloc);
+				if (allocChange > threshold) regressed = true;
+			}
+
+			if (regressed) regressions++;
+			System.out.printf("%-80s %12.3f -> %12.3f %s (%+.1f%%)%s%s%n"
+				, name, base.score, now.score, now.unit, -change * 100, alloc, regressed? " REGRESSION" : "");
+		}
+
+		if (unmeasured > 0) {
+			System.out.println(unmeasured + " benchmark(s) without a baseline, record it again with run-benchmarks.sh --baseline");
+		}
+		if (regressions > 0) {
+			System.out.println(regressions + " regression(s) over " + (threshold * 100) + "%");
+		}
+		if (unmeasured > 0 || regressions > 0) System.exit(1);
+	}
+
+	private static Map<String, Result> read(File file) throws IOException {
+		Map<String, Result> results = new LinkedHashMap<>();
+		for (JsonNode node : new ObjectMapper().readTree(file)) {
+			JsonNode primary = node.get("primaryMetric");
+			JsonNode secondary = node.get("secondaryMetrics");
+			Double alloc = null;
+			if (secondary != null && secondary.has(ALLOC_METRIC)) {
+				alloc = secondary.get(ALLOC_METRIC).get("score").asDouble();
+			}
+
+			results.put(name(node), new Result(node.get("mode").asText(), primary.get("score").asDouble()
+				, primary.get("scoreUnit").asText(), alloc));
+		}
+
+		return results;
+	}
+
+	private static String name(JsonNode node) {
+		StringBuilder name = new StringBuilder(node.get("benchmark").asText());
+		JsonNode params = node.get("params");
+		if (params != null) {
+			Map<String, String> sorted = new TreeMap<>();
+			Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+			while (fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				sorted.put(field.getKey(), field.getValue().asText());
+			}
+			name.append(sorted);
+		}
+
+		return name.toString();
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.conquernos.shover.benchmarks;
+
+
+import org.apache.avro.Schema;
+import org.conquernos.shover.ShoverMessage;
+import org.conquernos.shover.converter.ShoverMessageConverter;
+import org.conquernos.shover.schema.RegisteredSchema;
+import org.conquernos.shover.serializer.ShoverAvroSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The conversion of a message into the value bytes of a record (what Shover does before producer.send)
+ * for a {@link ShoverMessage} and for Object[] values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertBenchmark {
+
+	public static class LogMessage extends ShoverMessage {
+		public String svc;
+		public int depth;
+		public long time;
+		public double score;
+		public boolean valid;
+
+		public LogMessage(String svc, int depth, long time, double score, boolean valid) {
+			this.svc = svc;
+			this.depth = depth;
+			this.time = time;
+			this.score = score;
+			this.valid = valid;
+		}
+	}
+
+	private RegisteredSchema registered;
+
+	private ShoverAvroSerializer serializer;
+
+	private LogMessage message;
+
+	private Object[] values;
+
+
+	@Setup
+	public void setup() {
+		Schema schema = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"log\", \"fields\": ["
+			+ "{\"name\": \"svc\", \"type\": \"string\"}, {\"name\": \"depth\", \"type\": \"int\"}"
+			+ ", {\"name\": \"time\", \"type\": \"long\"}, {\"name\": \"score\", \"type\": \"double\"}"
+			+ ", {\"name\": \"valid\", \"type\": \"boolean\"}]}");
+		registered = new RegisteredSchema(1, 1, schema);
+		serializer = new ShoverAvroSerializer();
+		message = new LogMessage("svc-1", 3, 1000000000000L, 0.75, true);
+		values = new Object[] {"svc-1", 3, 1000000000000L, 0.75, true};
+	}
+
+	@Benchmark
+	public byte[] shoverMessage() throws Exception {
+		return serializer.serialize(registered, ShoverMessageConverter.get(LogMessage.class, registered.getSchema()).convert(message));
+	}
+
+	@Benchmark
+	public byte[] objectArray() {
+		return serializer.serialize(registered, values);
+	}
+
+}
@@ -0,0 +1,115 @@
+package org.conquernos.shover.benchmarks;
+
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import org.apache.avro.Schema;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.conquernos.shover.Shover;
+import org.conquernos.shover.config.ShoverConfig;
+import org.conquernos.shover.harness.SyntheticMessages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * End-to-end {@link Shover#send} against an in-process mock producer that completes every send at once,
+ * so the numbers are the cost of shover itself (schema lookup, conversion, serialization, stats, in-flight tracking).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShoverSendBenchmark {
+
+	private static final String TOPIC = "benchmark";
+
+	@Param({"4", "16", "64"})
+	public int width;
+
+	private File configFile;
+
+	private MockProducer<byte[], byte[]> producer;
+
+	private Shover shover;
+
+	private Object[] values;
+
+	private Map<String, Object> map;
+
+
+	@Setup
+	public void setup() throws Exception {
+		Schema schema = SyntheticMessages.schema("width" + width, width);
+		MockSchemaRegistryClient client = new MockSchemaRegistryClient();
+		client.register(TOPIC, schema);
+
+		configFile = writeConfig();
+		producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+		shover = Shover.builder().config(new ShoverConfig(configFile.getPath())).producer(producer).schemaRegistryClient(client).build();
+
+		values = SyntheticMessages.values(width, 1);
+		map = SyntheticMessages.map(width, 1);
+	}
+
+	@TearDown(Level.Iteration)
+	public void clearHistory() {
+		// the mock producer keeps every sent record
+		producer.clear();
+	}
+
+	@TearDown
+	public void tearDown() {
+		shover.close();
+		configFile.delete();
+	}
+
+	@Benchmark
+	public void sendObjectArray() throws Exception {
+		shover.send(TOPIC, values);
+	}
+
+	@Benchmark
+	public void sendMap() throws Exception {
+		shover.send(TOPIC, map);
+	}
+
+	private static File writeConfig() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("brokers", "localhost:9092");
+		properties.setProperty("schema.registry.url", "http://localhost:8081");
+		properties.setProperty("topics", TOPIC);
+		// the mock producer completes every send, so the flusher has nothing to wait for
+		properties.setProperty("message.flush.size", "0");
+		properties.setProperty("flush.interval.ms", "0");
+
+		File file = File.createTempFile("shover-benchmark", ".conf");
+		try (OutputStream out = new FileOutputStream(file)) {
+			properties.store(out, null);
+		}
+
+		return file;
+	}
+
+}
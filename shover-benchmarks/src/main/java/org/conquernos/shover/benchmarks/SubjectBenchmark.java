@@ -0,0 +1,70 @@
+package org.conquernos.shover.benchmarks;
+
+
+import org.conquernos.shover.schema.Subject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link Subject} hashing and the lookup of a (topic, version) key, which is done for every sent message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubjectBenchmark {
+
+	@Param({"10", "1000"})
+	public int subjects;
+
+	private final Map<Subject, Integer> map = new HashMap<>();
+
+	private String topic;
+
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < subjects; i++) {
+			map.put(new Subject("topic-" + i), i);
+			map.put(new Subject("topic-" + i, 1), i);
+		}
+		topic = "topic-" + (subjects / 2);
+	}
+
+	@Benchmark
+	public int hashCodeOfNewSubject() {
+		return new Subject(topic, 1).hashCode();
+	}
+
+	@Benchmark
+	public Integer lookupLatest() {
+		return map.get(new Subject(topic));
+	}
+
+	@Benchmark
+	public Integer lookupVersion() {
+		return map.get(new Subject(topic, 1));
+	}
+
+	@Benchmark
+	public Integer lookupMiss() {
+		return map.get(new Subject("unknown-topic"));
+	}
+
+}
@@ -0,0 +1,127 @@
+package org.conquernos.shover.harness;
+
+
+import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import org.apache.avro.Schema;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * An in-JVM stand-in of the schema registry, so a shover can run without an external schema registry.
+ * The ids are global and the versions start from 1 per subject like the schema registry,
+ * registering the same schema again returns the registered id,
+ * and a missing subject, version or id fails with the error codes of the schema registry.
+ * The compatibility is stored but not checked.
+ */
+public class InMemorySchemaRegistry implements SchemaRegistryClient {
+
+	private static final int SUBJECT_NOT_FOUND = 40401;
+	private static final int VERSION_NOT_FOUND = 40402;
+	private static final int SCHEMA_NOT_FOUND = 40403;
+
+	private static final String DEFAULT_COMPATIBILITY = "BACKWARD";
+
+	private final AtomicInteger lastId = new AtomicInteger(0);
+
+	private final ConcurrentMap<Schema, Integer> ids = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Integer, Schema> schemas = new ConcurrentHashMap<>();
+
+	// subject -> schemas in the order of the versions
+	private final ConcurrentMap<String, List<Schema>> subjects = new ConcurrentHashMap<>();
+
+	private final Map<String, String> compatibilities = new ConcurrentHashMap<>();
+
+
+	@Override
+	public int register(String subject, Schema schema) throws RestClientException {
+		int id = ids.computeIfAbsent(schema, key -> {
+			int newId = lastId.incrementAndGet();
+			schemas.put(newId, key);
+			return newId;
+		});
+
+		List<Schema> versions = subjects.computeIfAbsent(subject, key -> new CopyOnWriteArrayList<>());
+		synchronized (versions) {
+			if (!versions.contains(schema)) versions.add(schema);
+		}
+
+		return id;
+	}
+
+	@Override
+	public Schema getByID(int id) throws RestClientException {
+		Schema schema = schemas.get(id);
+		if (schema == null) throw new RestClientException("Schema not found", 404, SCHEMA_NOT_FOUND);
+
+		return schema;
+	}
+
+	@Override
+	public SchemaMetadata getLatestSchemaMetadata(String subject) throws RestClientException {
+		List<Schema> versions = getVersions(subject);
+		return getSchemaMetadata(subject, versions, versions.size());
+	}
+
+	@Override
+	public SchemaMetadata getSchemaMetadata(String subject, int version) throws RestClientException {
+		return getSchemaMetadata(subject, getVersions(subject), version);
+	}
+
+	@Override
+	public int getVersion(String subject, Schema schema) throws RestClientException {
+		int idx = getVersions(subject).indexOf(schema);
+		if (idx < 0) throw new RestClientException("Schema not found", 404, SCHEMA_NOT_FOUND);
+
+		return idx + 1;
+	}
+
+	@Override
+	public boolean testCompatibility(String subject, Schema schema) {
+		return true;
+	}
+
+	@Override
+	public String updateCompatibility(String subject, String compatibility) {
+		compatibilities.put(subject, compatibility);
+		return compatibility;
+	}
+
+	@Override
+	public String getCompatibility(String subject) {
+		String compatibility = compatibilities.get(subject);
+		return (compatibility != null)? compatibility : DEFAULT_COMPATIBILITY;
+	}
+
+	@Override
+	public Collection<String> getAllSubjects() {
+		return new ArrayList<>(subjects.keySet());
+	}
+
+	private List<Schema> getVersions(String subject) throws RestClientException {
+		List<Schema> versions = subjects.get(subject);
+		if (versions == null || versions.isEmpty()) throw new RestClientException("Subject not found", 404, SUBJECT_NOT_FOUND);
+
+		return versions;
+	}
+
+	private SchemaMetadata getSchemaMetadata(String subject, List<Schema> versions, int version) throws RestClientException {
+		if (version < 1 || version > versions.size()) {
+			throw new RestClientException("Version not found : " + subject + " v" + version, 404, VERSION_NOT_FOUND);
+		}
+
+		Schema schema = versions.get(version - 1);
+		return new SchemaMetadata(ids.get(schema), version, schema.toString());
+	}
+
+}
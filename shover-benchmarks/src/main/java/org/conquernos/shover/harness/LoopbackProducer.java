@@ -0,0 +1,164 @@
+package org.conquernos.shover.harness;
+
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A producer that acknowledges every record without a broker, so a shover can run without an external Kafka cluster.
+ * Unlike MockProducer it keeps no history and takes no lock in send, so it can be used for load tests.
+ * The acks are sent after 'ackDelayMs' to imitate the round trip to a broker (0 : at once, on the sending thread).
+ * Delayed acks are run by 'ackThreads' single thread schedulers, picked by the sending thread,
+ * and each scheduler queues its acks under a lock and runs the callbacks one by one.
+ * So with a delay the throughput is limited to about ackThreads times what one thread can ack
+ * (the callbacks of the shover included), and a load test of many senders needs as many ack threads.
+ */
+public class LoopbackProducer implements Producer<byte[], byte[]> {
+
+	private final long ackDelayMs;
+
+	private final ScheduledExecutorService[] ackers;
+
+	private final ConcurrentMap<String, AtomicLong> offsets = new ConcurrentHashMap<>();
+
+	private final AtomicLong pending = new AtomicLong(0);
+
+	private final LongAdder numberOfRecords = new LongAdder();
+
+	private final LongAdder bytes = new LongAdder();
+
+
+	public LoopbackProducer() {
+		this(0);
+	}
+
+	public LoopbackProducer(long ackDelayMs) {
+		this(ackDelayMs, 1);
+	}
+
+	public LoopbackProducer(long ackDelayMs, int ackThreads) {
+		if (ackThreads < 1) throw new IllegalArgumentException("ackThreads must be positive : " + ackThreads);
+
+		this.ackDelayMs = ackDelayMs;
+		if (ackDelayMs > 0) {
+			ackers = new ScheduledExecutorService[ackThreads];
+			for (int idx = 0; idx < ackThreads; idx++) {
+				String name = "loopback-producer-acker-" + idx;
+				ackers[idx] = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, name);
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		} else {
+			ackers = null;
+		}
+	}
+
+	@Override
+	public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record) {
+		return send(record, null);
+	}
+
+	@Override
+	public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record, Callback callback) {
+		int keySize = (record.key() == null)? -1 : record.key().length;
+		int valueSize = (record.value() == null)? -1 : record.value().length;
+		long offset = offsets.computeIfAbsent(record.topic(), topic -> new AtomicLong(0)).getAndIncrement();
+		RecordMetadata metadata = new RecordMetadata(new TopicPartition(record.topic(), 0), offset, 0
+			, System.currentTimeMillis(), 0, keySize, valueSize);
+
+		numberOfRecords.increment();
+		bytes.add(Math.max(0, keySize) + Math.max(0, valueSize));
+
+		CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+		if (ackers == null) {
+			ack(future, metadata, callback);
+		} else {
+			pending.incrementAndGet();
+			// the same scheduler for a sending thread, so its acks keep the order of its sends
+			ackers[(int) (Thread.currentThread().getId() % ackers.length)].schedule(() -> {
+				ack(future, metadata, callback);
+				pending.decrementAndGet();
+			}, ackDelayMs, TimeUnit.MILLISECONDS);
+		}
+
+		return future;
+	}
+
+	@Override
+	public void flush() {
+		while (pending.get() > 0) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	@Override
+	public List<PartitionInfo> partitionsFor(String topic) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Map<MetricName, ? extends Metric> metrics() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public void close() {
+		close(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void close(long timeout, TimeUnit unit) {
+		if (ackers == null) return;
+
+		for (ScheduledExecutorService acker : ackers) acker.shutdown();
+		long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+		try {
+			for (ScheduledExecutorService acker : ackers) {
+				acker.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getNumberOfRecords() {
+		return numberOfRecords.sum();
+	}
+
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	private static void ack(CompletableFuture<RecordMetadata> future, RecordMetadata metadata, Callback callback) {
+		if (callback != null) callback.onCompletion(metadata, null);
+		future.complete(metadata);
+	}
+
+}
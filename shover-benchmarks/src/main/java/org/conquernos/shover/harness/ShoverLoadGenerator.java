@@ -0,0 +1,192 @@
+package org.conquernos.shover.harness;
+
+
+import org.apache.avro.Schema;
+import org.conquernos.shover.Shover;
+import org.conquernos.shover.config.ShoverConfig;
+import org.conquernos.shover.exceptions.ShoverException;
+import org.conquernos.shover.stats.LatencyHistogram;
+import org.conquernos.shover.stats.ShoverStats;
+import org.conquernos.shover.thread.InterruptibleThread;
+import org.conquernos.shover.thread.InterruptibleThreadFactory;
+import org.conquernos.shover.thread.runnable.InterruptibleRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A load generator that sends generated messages through a shover at a fixed rate and reports
+ * the throughput and the latency percentiles of the shover stats every second.
+ * By default the shover runs with a {@link LoopbackProducer} and an {@link InMemorySchemaRegistry},
+ * so it needs no Kafka cluster and no schema registry. (--kafka sends to the brokers of the config file instead)
+ * The topics of a given config file have to contain the topic, because its schema is registered only in the in-memory registry.
+ *
+ * usage : ShoverLoadGenerator [--rate messages/sec (0 : unlimited)] [--width fields] [--threads n] [--duration sec]
+ *         [--type array|map] [--topic name] [--ack-delay-ms ms] [--ack-threads n] [--config shover.conf] [--kafka]
+ */
+public class ShoverLoadGenerator {
+
+	private static class Sender extends InterruptibleRunner<Void> {
+
+		private final Shover shover;
+
+		private final String topic;
+
+		private final boolean map;
+
+		private final long intervalNanos;
+
+		private final Object[][] values;
+
+		private final Map<String, Object>[] maps;
+
+		private final LongAdder failures;
+
+		@SuppressWarnings("unchecked")
+		Sender(Shover shover, String topic, int width, boolean map, double rate, LongAdder failures) {
+			this.shover = shover;
+			this.topic = topic;
+			this.map = map;
+			this.intervalNanos = (rate > 0)? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+			this.failures = failures;
+
+			// a few different messages so the values are not always the same
+			values = new Object[16][];
+			maps = new Map[16];
+			for (int idx = 0; idx < values.length; idx++) {
+				values[idx] = SyntheticMessages.values(width, idx);
+				maps[idx] = SyntheticMessages.map(width, idx);
+			}
+		}
+
+		@Override
+		public void run() {
+			long next = System.nanoTime();
+			for (int seq = 0; !isInterrupted(); seq++) {
+				if (intervalNanos > 0) {
+					// a fixed schedule, so a slow send is followed by faster ones instead of lowering the rate
+					next += intervalNanos;
+					long wait = next - System.nanoTime();
+					if (wait > 0) LockSupport.parkNanos(wait);
+					if (Thread.currentThread().isInterrupted()) break;
+				}
+
+				try {
+					if (map) shover.send(topic, maps[seq & 15]);
+					else shover.send(topic, values[seq & 15]);
+				} catch (ShoverException e) {
+					failures.increment();
+				}
+			}
+		}
+
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseOptions(args);
+		double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+		int width = Integer.parseInt(options.getOrDefault("width", "16"));
+		int threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+		int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+		boolean map = "map".equals(options.getOrDefault("type", "array"));
+		String topic = options.getOrDefault("topic", "shover-load");
+		long ackDelayMs = Long.parseLong(options.getOrDefault("ack-delay-ms", "0"));
+		int ackThreads = Integer.parseInt(options.getOrDefault("ack-threads", String.valueOf(threads)));
+		boolean kafka = options.containsKey("kafka");
+
+		InMemorySchemaRegistry registry = new InMemorySchemaRegistry();
+		Schema schema = SyntheticMessages.schema("load" + width, width);
+		registry.register(topic, schema);
+
+		File configFile = options.containsKey("config")? new File(options.get("config")) : writeConfig(topic);
+		Shover.Builder builder = Shover.builder().config(new ShoverConfig(configFile.getPath())).schemaRegistryClient(registry);
+		if (!kafka) builder.producer(new LoopbackProducer(ackDelayMs, ackThreads));
+		Shover shover = builder.build();
+
+		System.out.printf("rate : %s, width : %d, threads : %d, duration : %ds, type : %s, producer : %s%n"
+			, (rate > 0)? String.valueOf(rate) : "unlimited", width, threads, duration, map? "map" : "array"
+			, kafka? "kafka" : "loopback (ack delay " + ackDelayMs + "ms, " + ackThreads + " ack threads)");
+
+		LongAdder failures = new LongAdder();
+		InterruptibleThreadFactory threadFactory = new InterruptibleThreadFactory("shover-load-sender", true);
+		InterruptibleThread[] senders = new InterruptibleThread[threads];
+		for (int idx = 0; idx < threads; idx++) {
+			senders[idx] = threadFactory.newThread(new Sender(shover, topic, width, map, rate / threads, failures));
+		}
+
+		ShoverStats stats = shover.getStats();
+		long start = System.nanoTime();
+		for (InterruptibleThread sender : senders) sender.start();
+
+		long lastMessages = 0;
+		long lastCompleted = 0;
+		for (int second = 1; second <= duration; second++) {
+			LockSupport.parkNanos(start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime());
+
+			long messages = stats.getNumberOfMessages();
+			long completed = stats.getNumberOfCompletedMessages();
+			System.out.printf("[%3ds] sent %,d/s, completed %,d/s, pending %,d, failed %,d, latency(us) %s%n"
+				, second, messages - lastMessages, completed - lastCompleted, stats.getNumberOfPendingMessages()
+				, stats.getNumberOfFailedMessages() + failures.sum(), stats.getSendLatency());
+			lastMessages = messages;
+			lastCompleted = completed;
+		}
+
+		for (InterruptibleThread sender : senders) sender.interrupt();
+		for (InterruptibleThread sender : senders) sender.join();
+		shover.close();
+		double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+		if (!options.containsKey("config")) configFile.delete();
+
+		LatencyHistogram.Snapshot sendLatency = stats.getSendLatency();
+		LatencyHistogram.Snapshot conversionLatency = stats.getConversionLatency();
+		System.out.printf("%n# of messages : %,d (%,.0f/s), completed : %,d (%,.0f/s), failed : %,d, completed bytes : %,d%n"
+			, stats.getNumberOfMessages(), stats.getNumberOfMessages() / seconds
+			, stats.getNumberOfCompletedMessages(), stats.getNumberOfCompletedMessages() / seconds
+			, stats.getNumberOfFailedMessages() + failures.sum(), stats.getCompletedBytes());
+		System.out.printf("send latency(us)       : p50 %d, p90 %d, p99 %d, p999 %d, max %d%n"
+			, sendLatency.getPercentile(50), sendLatency.getPercentile(90), sendLatency.getPercentile(99)
+			, sendLatency.getPercentile(99.9), sendLatency.getMax());
+		System.out.printf("conversion latency(us) : p50 %d, p90 %d, p99 %d, p999 %d, max %d%n"
+			, conversionLatency.getPercentile(50), conversionLatency.getPercentile(90), conversionLatency.getPercentile(99)
+			, conversionLatency.getPercentile(99.9), conversionLatency.getMax());
+	}
+
+	private static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (int idx = 0; idx < args.length; idx++) {
+			if (!args[idx].startsWith("--")) throw new IllegalArgumentException("unknown argument : " + args[idx]);
+
+			String name = args[idx].substring(2);
+			if (idx + 1 < args.length && !args[idx + 1].startsWith("--")) options.put(name, args[++idx]);
+			else options.put(name, "");
+		}
+
+		return options;
+	}
+
+	private static File writeConfig(String topic) throws IOException {
+		Properties properties = new Properties();
+		// not connected, the producer and the schema registry are injected
+		properties.setProperty("brokers", "localhost:9092");
+		properties.setProperty("schema.registry.url", "http://localhost:8081");
+		properties.setProperty("topics", topic);
+
+		File file = File.createTempFile("shover-load", ".conf");
+		try (OutputStream out = new FileOutputStream(file)) {
+			properties.store(out, null);
+		}
+
+		return file;
+	}
+
+}
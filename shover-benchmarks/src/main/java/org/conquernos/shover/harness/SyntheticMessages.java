@@ -0,0 +1,76 @@
+package org.conquernos.shover.harness;
+
+
+import org.apache.avro.Schema;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Generated record schemas of a given width and messages of them as Object[], json and Map (for benchmarks and load tests).
+ * The field types cycle through string, int, long, double and boolean.
+ */
+public class SyntheticMessages {
+
+	private static final String[] TYPES = {"string", "int", "long", "double", "boolean"};
+
+	private SyntheticMessages() {
+	}
+
+	public static Schema schema(String name, int width) {
+		StringBuilder json = new StringBuilder("{\"type\": \"record\", \"name\": \"").append(name).append("\", \"fields\": [");
+		for (int pos = 0; pos < width; pos++) {
+			if (pos > 0) json.append(", ");
+			json.append("{\"name\": \"").append(fieldName(pos)).append("\", \"type\": \"").append(TYPES[pos % TYPES.length]).append("\"}");
+		}
+
+		return new Schema.Parser().parse(json.append("]}").toString());
+	}
+
+	public static Object[] values(int width, int seed) {
+		Object[] values = new Object[width];
+		for (int pos = 0; pos < width; pos++) {
+			values[pos] = value(pos, seed);
+		}
+
+		return values;
+	}
+
+	public static Map<String, Object> map(int width, int seed) {
+		Map<String, Object> map = new LinkedHashMap<>();
+		for (int pos = 0; pos < width; pos++) {
+			map.put(fieldName(pos), value(pos, seed));
+		}
+
+		return map;
+	}
+
+	public static String json(int width, int seed) {
+		StringBuilder json = new StringBuilder("{");
+		for (int pos = 0; pos < width; pos++) {
+			if (pos > 0) json.append(", ");
+			Object value = value(pos, seed);
+			json.append('"').append(fieldName(pos)).append("\": ");
+			if (value instanceof String) json.append('"').append(value).append('"');
+			else json.append(value);
+		}
+
+		return json.append('}').toString();
+	}
+
+	private static String fieldName(int pos) {
+		return "field" + pos;
+	}
+
+	private static Object value(int pos, int seed) {
+		switch (pos % TYPES.length) {
+			case 0: return "value-" + seed + "-" + pos;
+			case 1: return seed + pos;
+			case 2: return 1000000000000L + seed + pos;
+			case 3: return (seed + pos) / 4.0;
+			default: return (seed + pos) % 2 == 0;
+		}
+	}
+
+}
@@ -1,13 +1,10 @@
 package org.conquernos.shover;
 
 
-import org.conquernos.shover.arvo.decoder.MapDecoder;
+import org.conquernos.shover.arvo.decoder.SchemaDecoders;
 import io.confluent.kafka.serializers.AbstractKafkaAvroSerializer;
 import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.DecoderFactory;
 import org.apache.kafka.common.errors.SerializationException;
 
 import java.io.IOException;
@@ -15,13 +12,9 @@ import java.util.Map;
 
 public class AvroMessageConverter extends AbstractKafkaAvroSerializer {
 
-	private static final DecoderFactory decoderFactory = DecoderFactory.get();
-
 	public static Object jsonToAvro(String json, Schema schema) {
-		DatumReader<Object> reader = new GenericDatumReader<>(schema);
-
 		try {
-			Object object = reader.read(null, decoderFactory.jsonDecoder(schema, json));
+			Object object = SchemaDecoders.of(schema).readJson(json);
 
 			if (schema.getType().equals(Schema.Type.STRING)) object = object.toString();
 
@@ -33,10 +26,8 @@ public class AvroMessageConverter extends AbstractKafkaAvroSerializer {
 	}
 
 	public static Object mapToAvro(Map<String, Object> map, Schema schema) {
-		DatumReader<Object> reader = new GenericDatumReader<>(schema);
-
 		try {
-			Object object = reader.read(null, new MapDecoder(schema, map));
+			Object object = SchemaDecoders.of(schema).readMap(map);
 
 			if (schema.getType().equals(Schema.Type.STRING)) object = object.toString();
 
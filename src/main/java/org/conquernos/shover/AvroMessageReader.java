@@ -2,17 +2,25 @@ package org.conquernos.shover;
 
 import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.util.Utf8;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.errors.SerializationException;
+import org.conquernos.shover.arvo.decoder.SchemaDecoders;
+import org.conquernos.shover.thread.InterruptibleThreadFactory;
+import org.conquernos.shover.thread.runnable.InterruptibleRunner;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
 import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
@@ -29,16 +37,64 @@ public class AvroMessageReader extends AbstractKafkaAvroSerializer implements Me
 	private Boolean parseKey = false;
 	private String keySeparator = "\t";
 	private boolean ignoreError = false;
-	private final DecoderFactory decoderFactory = DecoderFactory.get();
 	private Schema keySchema = null;
 	private Schema valueSchema = null;
 	private String keySubject = null;
 	private String valueSubject = null;
 
+	// the number of workers converting the lines (1 : convert on the calling thread)
+	private int parallelism = 1;
+	private int chunkLines = 1000;
+	private ExecutorService workers = null;
+	private BlockingQueue<CompletableFuture<ConvertedChunk>> convertedChunks = null;
+	private Thread chunkReaderThread = null;
+	private ConvertedChunk currentChunk = null;
+	private int currentLine = 0;
+	private boolean endOfInput = false;
+
+	/*
+	The records of a chunk of lines. A line which could not be converted has its error instead of a record,
+	so it fails only itself, when it is read in its turn.
+	 */
+	private static class ConvertedChunk {
+
+		private final ProducerRecord<byte[], byte[]>[] records;
+
+		// null : no error in the chunk
+		private RuntimeException[] errors = null;
+
+		@SuppressWarnings("unchecked")
+		ConvertedChunk(int lines) {
+			records = new ProducerRecord[lines];
+		}
+
+		void failed(int line, RuntimeException error) {
+			if (errors == null) errors = new RuntimeException[records.length];
+			errors[line] = error;
+		}
+
+		int size() {
+			return records.length;
+		}
+
+	}
+
+	// null : the client of the schema registry url
+	private final SchemaRegistryClient schemaRegistryClient;
+
 	/**
 	 * Constructor needed by kafka console producer.
 	 */
-	public AvroMessageReader() { }
+	public AvroMessageReader() {
+		this(null);
+	}
+
+	/*
+	The schema registry client is injected only by the tests (ex. MockSchemaRegistryClient)
+	 */
+	AvroMessageReader(SchemaRegistryClient schemaRegistryClient) {
+		this.schemaRegistryClient = schemaRegistryClient;
+	}
 
 	@Override
 	public void init(java.io.InputStream inputStream, java.util.Properties props) {
@@ -52,12 +108,18 @@ public class AvroMessageReader extends AbstractKafkaAvroSerializer implements Me
 		if (props.containsKey("ignore.error")) {
 			ignoreError = props.getProperty("ignore.error").trim().toLowerCase().equals("true");
 		}
+		if (props.containsKey("parallelism")) {
+			parallelism = Integer.parseInt(props.getProperty("parallelism").trim());
+		}
+		if (props.containsKey("chunk.lines")) {
+			chunkLines = Integer.parseInt(props.getProperty("chunk.lines").trim());
+		}
 		reader = new BufferedReader(new InputStreamReader(inputStream));
 		String url = props.getProperty(AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG);
 		if (url == null) {
 			throw new ConfigException("Missing schema registry url!");
 		}
-		schemaRegistry = new CachedSchemaRegistryClient(
+		schemaRegistry = (schemaRegistryClient != null)? schemaRegistryClient : new CachedSchemaRegistryClient(
 			url, AbstractKafkaAvroSerDeConfig.MAX_SCHEMAS_PER_SUBJECT_DEFAULT);
 		if (!props.containsKey("value.schema")) {
 			throw new ConfigException("Must provide the Avro schema string in value.schema");
@@ -75,49 +137,158 @@ public class AvroMessageReader extends AbstractKafkaAvroSerializer implements Me
 		}
 		keySubject = topic + "-key";
 		valueSubject = topic + "-value";
+
+		if (parallelism > 1) {
+			// pipelined mode : a reader thread -> workers (json to avro, serialization) -> readMessage() in order
+			workers = Executors.newFixedThreadPool(parallelism, new InterruptibleThreadFactory("avro-message-reader-worker", true));
+			convertedChunks = new ArrayBlockingQueue<>(parallelism * 2);
+			chunkReaderThread = new InterruptibleThreadFactory("avro-message-reader", true).newThread(new ChunkReader());
+			chunkReaderThread.start();
+		}
 	}
 
 	@Override
 	public ProducerRecord<byte[], byte[]> readMessage() {
+		if (parallelism > 1) return readConvertedMessage();
+
 		try {
 			String line = reader.readLine();
 			if (line == null) {
 				return null;
 			}
-			if (!parseKey) {
-				Object value = jsonToAvro(line, valueSchema);
-				byte[] serializedValue = serializeImpl(valueSubject, value);
-				return new ProducerRecord<>(topic, serializedValue);
+			return toRecord(line);
+		} catch (IOException e) {
+			throw new KafkaException("Error reading from input", e);
+		}
+	}
+
+	/*
+	Take the records in the order of the lines from the converted chunks.
+	A line which could not be converted is thrown in its turn, after the records of the lines before it,
+	and the next call goes on with the line after it (as in the single thread mode).
+	 */
+	private ProducerRecord<byte[], byte[]> readConvertedMessage() {
+		while (currentChunk == null || currentLine >= currentChunk.size()) {
+			if (endOfInput) return null;
+
+			ConvertedChunk chunk;
+			try {
+				chunk = convertedChunks.take().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new KafkaException("Interrupted while reading from input", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				throw new KafkaException(e.getCause());
+			}
+
+			if (chunk == null) {
+				endOfInput = true;
+				return null;
+			}
+			currentChunk = chunk;
+			currentLine = 0;
+		}
+
+		int line = currentLine++;
+		if (currentChunk.errors != null && currentChunk.errors[line] != null) throw currentChunk.errors[line];
+
+		return currentChunk.records[line];
+	}
+
+	private ProducerRecord<byte[], byte[]> toRecord(String line) {
+		if (!parseKey) {
+			Object value = jsonToAvro(line, valueSchema);
+			byte[] serializedValue = serializeImpl(valueSubject, value);
+			return new ProducerRecord<>(topic, serializedValue);
+		} else {
+			int keyIndex = line.indexOf(keySeparator);
+			if (keyIndex < 0) {
+				if (ignoreError) {
+					Object value = jsonToAvro(line, valueSchema);
+					byte[] serializedValue = serializeImpl(valueSubject, value);
+					return new ProducerRecord<>(topic, serializedValue);
+				} else {
+					throw new KafkaException("No key found in line " + line);
+				}
 			} else {
-				int keyIndex = line.indexOf(keySeparator);
-				if (keyIndex < 0) {
-					if (ignoreError) {
-						Object value = jsonToAvro(line, valueSchema);
-						byte[] serializedValue = serializeImpl(valueSubject, value);
-						return new ProducerRecord<>(topic, serializedValue);
-					} else {
-						throw new KafkaException("No key found in line " + line);
+				String keyString = line.substring(0, keyIndex);
+				String valueString = (keyIndex + keySeparator.length() > line.length()) ?
+					"" : line.substring(keyIndex + keySeparator.length());
+				Object key = jsonToAvro(keyString, keySchema);
+				byte[] serializedKey = serializeImpl(keySubject, key);
+				Object value = jsonToAvro(valueString, valueSchema);
+				byte[] serializedValue = serializeImpl(valueSubject, value);
+				return new ProducerRecord<>(topic, serializedKey, serializedValue);
+			}
+		}
+	}
+
+	private ConvertedChunk toRecords(List<String> lines) {
+		ConvertedChunk chunk = new ConvertedChunk(lines.size());
+		for (int idx = 0; idx < lines.size(); idx++) {
+			try {
+				chunk.records[idx] = toRecord(lines.get(idx));
+			} catch (RuntimeException e) {
+				chunk.failed(idx, e);
+			}
+		}
+
+		return chunk;
+	}
+
+	/*
+	Split the input into chunks of lines and hand them to the workers.
+	The futures are queued in the order of the chunks, so the records keep the order of the lines.
+	A null chunk is the end of the input.
+	 */
+	private class ChunkReader extends InterruptibleRunner<Void> {
+
+		@Override
+		public void run() {
+			try {
+				List<String> lines = new ArrayList<>(chunkLines);
+				String line;
+				while (!isInterrupted() && (line = reader.readLine()) != null) {
+					lines.add(line);
+					if (lines.size() >= chunkLines) {
+						submit(lines);
+						lines = new ArrayList<>(chunkLines);
 					}
-				} else {
-					String keyString = line.substring(0, keyIndex);
-					String valueString = (keyIndex + keySeparator.length() > line.length()) ?
-						"" : line.substring(keyIndex + keySeparator.length());
-					Object key = jsonToAvro(keyString, keySchema);
-					byte[] serializedKey = serializeImpl(keySubject, key);
-					Object value = jsonToAvro(valueString, valueSchema);
-					byte[] serializedValue = serializeImpl(valueSubject, value);
-					return new ProducerRecord<>(topic, serializedKey, serializedValue);
 				}
+				if (!lines.isEmpty()) submit(lines);
+
+				convertedChunks.put(CompletableFuture.completedFuture(null));
+			} catch (IOException e) {
+				fail(new KafkaException("Error reading from input", e));
+			} catch (InterruptedException ignored) {
+			} catch (RuntimeException | Error e) {
+				// ex. the workers rejected a chunk
+				fail(e);
 			}
-		} catch (IOException e) {
-			throw new KafkaException("Error reading from input", e);
 		}
+
+		// the failure and then the end of the input, so the reading thread does not wait for chunks that will never come
+		private void fail(Throwable cause) {
+			CompletableFuture<ConvertedChunk> failed = new CompletableFuture<>();
+			failed.completeExceptionally(cause);
+			try {
+				convertedChunks.put(failed);
+				convertedChunks.put(CompletableFuture.completedFuture(null));
+			} catch (InterruptedException ignored) {
+			}
+		}
+
+		private void submit(List<String> lines) throws InterruptedException {
+			// blocks if the console producer does not keep up
+			convertedChunks.put(CompletableFuture.supplyAsync(() -> toRecords(lines), workers));
+		}
+
 	}
 
 	private Object jsonToAvro(String jsonString, Schema schema) {
 		try {
-			DatumReader<Object> reader = new GenericDatumReader<>(schema);
-			Object object = reader.read(null, decoderFactory.jsonDecoder(schema, jsonString));
+			Object object = SchemaDecoders.of(schema).readJson(jsonString);
 
 			if (schema.getType().equals(Schema.Type.STRING)) {
 				object = ((Utf8) object).toString();
@@ -134,6 +305,7 @@ public class AvroMessageReader extends AbstractKafkaAvroSerializer implements Me
 
 	@Override
 	public void close() {
-		// nothing to do
+		if (chunkReaderThread != null) chunkReaderThread.interrupt();
+		if (workers != null) workers.shutdownNow();
 	}
 }
@@ -1,37 +1,76 @@
 package org.conquernos.shover;
 
 
+import org.conquernos.shover.backpressure.InFlightLimiter;
+import org.conquernos.shover.config.ProducerPreset;
 import org.conquernos.shover.config.ShoverConfig;
+import org.conquernos.shover.converter.MapRecordConverter;
+import org.conquernos.shover.converter.ShoverMessageConverter;
 import org.conquernos.shover.exceptions.ShoverException;
+import org.conquernos.shover.exceptions.config.ShoverConfigException;
 import org.conquernos.shover.exceptions.schema.ShoverSchemaNotExistException;
+import org.conquernos.shover.exceptions.send.ShoverBackpressureException;
 import org.conquernos.shover.exceptions.send.ShoverMessageException;
 import org.conquernos.shover.exceptions.send.ShoverSendException;
+import org.conquernos.shover.exceptions.send.ShoverSpilledException;
 import org.conquernos.shover.exceptions.topic.ShoverNullTopicException;
+import org.conquernos.shover.flush.ShoverFlusher;
+import org.conquernos.shover.producer.ShoverProducers;
 import org.conquernos.shover.schema.CachedSchemas;
+import org.conquernos.shover.schema.RegisteredSchema;
+import org.conquernos.shover.schema.SchemaRefresher;
+import org.conquernos.shover.schema.ShoverSchemaRegistryClient;
 import org.conquernos.shover.schema.Subject;
+import org.conquernos.shover.serializer.ShoverAvroSerializer;
+import org.conquernos.shover.spill.SpillLog;
+import org.conquernos.shover.spill.SpillReplayer;
+import org.conquernos.shover.spill.SpillSyncer;
 import org.conquernos.shover.stats.ShoverStats;
+import org.conquernos.shover.thread.InterruptibleThreadFactory;
 import org.conquernos.shover.utils.Loader;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.BufferExhaustedException;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RetriableException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.lang.reflect.Field;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * A Kafka producer that publishes records to the Kafka cluster.
- * The Shover is thread-safe and the singleton class.
+ * The Shover is thread-safe and {@link #getInstance()} returns the default instance.
  * An instance need only a config file. So the directory of the file 'shover.conf' is in classpath
  * or set the system properties 'key:shover.config, value:path'. (ex. -Dshover.config=/path/shover.conf)
- * TODO 1. 스키마 레지스트리에 스키마가 변경 되어서 적용하고자 할 때 application 재시작하지 않고 적용될 수 있도록 기능 추가 (dynamic configuration)
- * TODO 2. 정상종료 되지 못 했을 경우를 대비해서 데이터 백업 기능 추가
+ * {@link #builder()} builds other instances, each with its own config, name and producer settings,
+ * and the producer or the schema registry client can be injected (ex. a mock producer and an in-memory schema registry).
+ * The cached schemas are refreshed from the schema registry every 'schema.refresh.interval.ms' without restart.
+ * If 'spill.dir' is set, the records which could not be delivered (the broker is unreachable, the buffer is full,
+ * or the producer is closed before they were sent) are written to a local spill log and replayed in the background.
  */
 public class Shover {
 
@@ -51,64 +90,340 @@ public class Shover {
 			// close producer
 			shover.close();
 
-			logger.info("Shover stats : {}", shover.stats);
-			logger.info("Shover was shut down.");
+			logger.info("Shover {} stats : {}", shover.name, shover.stats);
+			logger.info("Shover {} was shut down.", shover.name);
 		}
 
 	}
 
 	private static final Logger logger = LoggerFactory.getLogger(Shover.class);
 
-	private static Shover shover = null;
+	private static final String DEFAULT_NAME = "shover";
+
+	// the default instance of getInstance(), safely published by the double-checked locking
+	private static volatile Shover shover = null;
+
+	// the spill directories and the schema snapshot files of the live instances
+	private static final Set<String> localPathsInUse = ConcurrentHashMap.newKeySet();
+
+	private final String name;
 
 	private final ShoverConfig config;
 
-	private final KafkaProducer<Object, Object> producer;
+	private final Producer<byte[], byte[]> producer;
+
+	private final ShoverAvroSerializer serializer = new ShoverAvroSerializer();
 
 	private final CachedSchemas cachedSchemas;
 
 	private final ShoverStats stats = new ShoverStats();
 
+	private final InFlightLimiter limiter;
 
-	private Shover(String configFilePath) {
-		this(new ShoverConfig(configFilePath));
-	}
+	// completes the futures of sendAsync and sendBatch, so their continuations do not run on the producer I/O thread
+	private final ExecutorService completer;
+
+	private final ShoverFlusher flusher;
+
+	private final Thread flusherThread;
+
+	private final Thread schemaRefresherThread;
+
+	private final SpillLog spillLog;
+
+	private final Thread spillSyncerThread;
+
+	private final Thread spillReplayerThread;
+
+	private volatile boolean closing = false;
+
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	private final Thread shutdownHook;
+
+	private final List<String> localPaths;
 
-	private Shover(ShoverConfig config) {
+
+	/*
+	The producer and the schema registry client are created by the builder, or injected (ex. mocks for load tests)
+	 */
+	private Shover(String name, ShoverConfig config, Producer<byte[], byte[]> producer, SchemaRegistryClient schemaRegistryClient
+		, boolean shutdownHook, File spillDir, File snapshotFile, List<String> localPaths) {
+		this.name = name;
 		this.config = config;
+		this.localPaths = localPaths;
 
 		try {
-			// schemas are cached only one time
-			cachedSchemas = new CachedSchemas(config.getSchemaRegistryUrl(), config.getSubjects());
+			// schemas are cached at the start, or at the first use in the lazy loading mode
+			cachedSchemas = new CachedSchemas(config, schemaRegistryClient, snapshotFile);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 
-		producer = new KafkaProducer<>(config.getProducerProperties());
+		this.producer = producer;
+		stats.setProducerMetrics(producer::metrics);
+
+		limiter = new InFlightLimiter(config.getSendMaxInFlight(), config.getSendMaxInFlightBytes()
+			, config.getSendBackpressurePolicy(), config.getSendBackpressureTimeoutMs());
+		completer = Executors.newSingleThreadExecutor(new InterruptibleThreadFactory(name + "-completer", true));
+
+		// flushes run on a background thread alongside the producer's own linger.ms/batch.size
+		flusher = new ShoverFlusher(producer, stats
+			, config.getMessageFlushSize(), config.getFlushMaxBytes(), config.getFlushIntervalMs());
+		flusherThread = new InterruptibleThreadFactory(name + "-flusher", true).newThread(flusher);
+		flusherThread.start();
+
+		if (config.getSchemaRefreshIntervalMs() > 0) {
+			schemaRefresherThread = new InterruptibleThreadFactory(name + "-schema-refresher", true)
+				.newThread(new SchemaRefresher(cachedSchemas, stats, config.getSchemaRefreshIntervalMs()));
+			schemaRefresherThread.start();
+		} else {
+			schemaRefresherThread = null;
+		}
+
+		if (spillDir != null) {
+			try {
+				spillLog = new SpillLog(spillDir, config.getSpillSegmentBytes());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			spillSyncerThread = new InterruptibleThreadFactory(name + "-spill-syncer", true)
+				.newThread(new SpillSyncer(spillLog, config.getSpillSyncIntervalMs()));
+			spillSyncerThread.start();
+			spillReplayerThread = new InterruptibleThreadFactory(name + "-spill-replayer", true)
+				.newThread(new SpillReplayer(spillLog, producer, stats, config.getSpillReplayIntervalMs()));
+			spillReplayerThread.start();
+		} else {
+			spillLog = null;
+			spillSyncerThread = null;
+			spillReplayerThread = null;
+		}
 
-		Runtime.getRuntime().addShutdownHook(new ShutdownShover(this));
+		if (shutdownHook) {
+			this.shutdownHook = new ShutdownShover(this);
+			Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+		} else {
+			this.shutdownHook = null;
+		}
 	}
 
 	/**
-	 * Get the shover instance.
-	 * @return Shover instance
+	 * A builder of a shover instance. Each instance has its own producer, schemas, stats and background threads,
+	 * so instances with different producer settings can be used together. (ex. a latency instance for alerts
+	 * and a throughput instance for bulk logs)
+	 * The config is required, and the producer and the schema registry client are created from the config if not set.
+	 * A named instance uses its own spill directory ('spill.dir'/name) and schema snapshot ('schema.snapshot.file'.name),
+	 * and two live instances can not use the same ones.
 	 */
-	public static Shover getInstance() {
-		if (shover == null) {
-			String configFilePath = System.getProperty(ShoverConfig.CONFIG_FILE_NAME_KEY);
-			if (configFilePath == null) {
-				URL url = Loader.getResource(ShoverConfig.DEFAULT_CONFIG_FILE_NAME);
-				if (url == null) throw new RuntimeException("Config file is not found : " + ShoverConfig.DEFAULT_CONFIG_FILE_NAME);
+	public static class Builder {
 
-				configFilePath = url.getPath();
-			} else {
-				if (!new File(configFilePath).exists()) throw new RuntimeException("Config file is not found : " + configFilePath);
+		private ShoverConfig config = null;
+
+		private String name = null;
+
+		private ProducerPreset producerPreset = null;
+
+		private Properties producerOverrides = null;
+
+		private boolean shutdownHook = true;
+
+		private Producer<byte[], byte[]> producer = null;
+
+		private SchemaRegistryClient schemaRegistryClient = null;
+
+		private Builder() {
+		}
+
+		public Builder config(ShoverConfig config) {
+			this.config = config;
+			return this;
+		}
+
+		public Builder configFile(String configFilePath) {
+			if (!new File(configFilePath).exists()) throw new ShoverConfigException("Config file is not found : " + configFilePath);
+			return config(new ShoverConfig(configFilePath));
+		}
+
+		/**
+		 * Set the name of the instance, which is the prefix of its thread names and the client.id of its producer
+		 * (if 'producer.client.id' is not set).
+		 * @param name An instance name (default : shover)
+		 * @return this builder
+		 */
+		public Builder name(String name) {
+			this.name = name;
+			return this;
+		}
+
+		/**
+		 * Set the producer preset instead of 'producer.preset' of the config.
+		 * @param producerPreset A preset
+		 * @return this builder
+		 */
+		public Builder producerPreset(ProducerPreset producerPreset) {
+			this.producerPreset = producerPreset;
+			return this;
+		}
+
+		/**
+		 * Set a Kafka producer setting over the preset and the 'producer.*' settings of the config.
+		 * @param name A Kafka producer config name (ex. linger.ms)
+		 * @param value The value
+		 * @return this builder
+		 */
+		public Builder producerProperty(String name, String value) {
+			if (producerOverrides == null) producerOverrides = new Properties();
+			producerOverrides.setProperty(name, value);
+			return this;
+		}
+
+		/**
+		 * Set Kafka producer settings over the preset and the 'producer.*' settings of the config.
+		 * @param properties Kafka producer settings (ex. linger.ms=0)
+		 * @return this builder
+		 */
+		public Builder producerProperties(Properties properties) {
+			for (String name : properties.stringPropertyNames()) {
+				producerProperty(name, properties.getProperty(name));
+			}
+			return this;
+		}
+
+		/**
+		 * Set whether the instance is closed by a JVM shutdown hook. If false, {@link Shover#close()} has to be called.
+		 * @param shutdownHook true to close at the JVM shutdown (default : true)
+		 * @return this builder
+		 */
+		public Builder shutdownHook(boolean shutdownHook) {
+			this.shutdownHook = shutdownHook;
+			return this;
+		}
+
+		/**
+		 * Set the producer which the records are sent to, instead of the Kafka producers of the config.
+		 * The shover owns it, so it is closed when the shover is closed.
+		 * @param producer A producer (ex. MockProducer)
+		 * @return this builder
+		 */
+		public Builder producer(Producer<byte[], byte[]> producer) {
+			this.producer = producer;
+			return this;
+		}
+
+		/**
+		 * Set the schema registry client which the schemas are read from, instead of the client of 'schema.registry.url'.
+		 * @param schemaRegistryClient A schema registry client (ex. InMemorySchemaRegistry)
+		 * @return this builder
+		 */
+		public Builder schemaRegistryClient(SchemaRegistryClient schemaRegistryClient) {
+			this.schemaRegistryClient = schemaRegistryClient;
+			return this;
+		}
+
+		/**
+		 * Build a new instance. The producer settings are checked before anything is created.
+		 * @return a shover instance
+		 * @throws ShoverConfigException If the config is not set, a producer setting is wrong,
+		 * producer settings are set with an injected producer, or the spill directory or the schema snapshot file
+		 * is used by another live instance
+		 */
+		public Shover build() {
+			if (config == null) throw new ShoverConfigException("config is not set");
+			if (producer != null && (producerPreset != null || producerOverrides != null)) {
+				throw new ShoverConfigException("the producer settings can not be applied to an injected producer");
+			}
+
+			// the instances of one config do not share the local files (spill segments, schema snapshot)
+			File spillDir = null;
+			if (config.getSpillDir() != null) {
+				spillDir = (name == null)? new File(config.getSpillDir()) : new File(config.getSpillDir(), name);
+			}
+			File snapshotFile = null;
+			if (config.getSchemaSnapshotFile() != null) {
+				snapshotFile = new File((name == null)? config.getSchemaSnapshotFile() : config.getSchemaSnapshotFile() + "." + name);
+			}
+			List<String> localPaths = acquireLocalPaths(spillDir, snapshotFile);
+
+			try {
+				Producer<byte[], byte[]> producer = this.producer;
+				if (producer == null) {
+					Properties properties = config.getProducerProperties(producerPreset, producerOverrides);
+					if (name != null && !properties.containsKey(ProducerConfig.CLIENT_ID_CONFIG)) {
+						properties.put(ProducerConfig.CLIENT_ID_CONFIG, name);
+					}
+					// one Kafka producer, or 'producer.instances' producers behind one
+					producer = ShoverProducers.of(properties, config.getProducerInstances(), config.getProducerRouting());
+				}
+
+				SchemaRegistryClient schemaRegistryClient = (this.schemaRegistryClient != null)?
+					this.schemaRegistryClient : new ShoverSchemaRegistryClient(config.getSchemaRegistryUrl()
+						, config.getSchemaRegistryCacheSize(), config.getSchemaRegistryLatestTtlMs());
+
+				return new Shover((name != null)? name : DEFAULT_NAME, config, producer, schemaRegistryClient, shutdownHook
+					, spillDir, snapshotFile, localPaths);
+			} catch (RuntimeException e) {
+				localPathsInUse.removeAll(localPaths);
+				throw e;
+			}
+		}
+
+		private static List<String> acquireLocalPaths(File... files) {
+			List<String> paths = new ArrayList<>();
+			for (File file : files) {
+				if (file == null) continue;
+
+				String path = file.getAbsoluteFile().toPath().normalize().toString();
+				if (!localPathsInUse.add(path)) {
+					localPathsInUse.removeAll(paths);
+					throw new ShoverConfigException("'" + path + "' is used by another live shover instance (set a different name)");
+				}
+				paths.add(path);
 			}
 
-			shover = new Shover(configFilePath);
+			return paths;
+		}
+
+	}
+
+	/**
+	 * Get a builder of a new shover instance, which is not the default instance of {@link #getInstance()}.
+	 * @return a builder
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Get the default shover instance. It is created once at the first call, even if called by several threads.
+	 * @return Shover instance
+	 */
+	public static Shover getInstance() {
+		Shover instance = shover;
+		if (instance == null) {
+			synchronized (Shover.class) {
+				instance = shover;
+				if (instance == null) {
+					String configFilePath = System.getProperty(ShoverConfig.CONFIG_FILE_NAME_KEY);
+					if (configFilePath == null) {
+						URL url = Loader.getResource(ShoverConfig.DEFAULT_CONFIG_FILE_NAME);
+						if (url == null) throw new RuntimeException("Config file is not found : " + ShoverConfig.DEFAULT_CONFIG_FILE_NAME);
+
+						configFilePath = url.getPath();
+					} else {
+						if (!new File(configFilePath).exists()) throw new RuntimeException("Config file is not found : " + configFilePath);
+					}
+
+					instance = builder().config(new ShoverConfig(configFilePath)).build();
+					shover = instance;
+				}
+			}
 		}
 
-		return shover;
+		return instance;
+	}
+
+	public String getName() {
+		return name;
 	}
 
 	/**
@@ -159,6 +474,18 @@ public class Shover {
 		send(topic, 0, values);
 	}
 
+	/**
+	 * Asynchronously send a message to the kafka cluster.
+	 * The schema version is the latest version.
+	 * So if want to select other version, use {@link #send(String, int, Map)}.
+	 * @param topic A topic of this message
+	 * @param message A map of the field names to the typed values (a nested Map for a record or a map, a List for an array)
+	 * @throws ShoverException
+	 */
+	public void send(String topic, Map<String, Object> message) throws ShoverException {
+		send(topic, 0, message);
+	}
+
 	/**
 	 * Asynchronously send a message to the kafka cluster.
 	 * @param topic A topic of this message
@@ -181,6 +508,19 @@ public class Shover {
 		send(topic, version, (Object) message);
 	}
 
+	/**
+	 * Asynchronously send a message to the kafka cluster.
+	 * The values are put into the record as they are, without string formatting and parsing
+	 * (strings are parsed only if 'message.map.string.coercion' is true).
+	 * @param topic A topic of this message
+	 * @param version A schema version of this message
+	 * @param message A map of the field names to the typed values (a nested Map for a record or a map, a List for an array)
+	 * @throws ShoverException
+	 */
+	public void send(String topic, int version, Map<String, Object> message) throws ShoverException {
+		send(topic, version, (Object) message);
+	}
+
 	/**
 	 * Asynchronously send a message to the kafka cluster.
 	 * @param topic A topic of this message
@@ -189,44 +529,332 @@ public class Shover {
 	 * @throws ShoverException
 	 */
 	protected void send(String topic, int version, Object message) throws ShoverException {
-		if (topic == null) throw new ShoverNullTopicException();
+		dispatch(topic, message, toRecord(topic, version, message), null);
+	}
 
-		// use only cached schemas
-		Schema schema = cachedSchemas.getCachedSchema(new Subject(topic, version));
-		if (schema == null) throw new ShoverSchemaNotExistException();
+	/**
+	 * Asynchronously send a message to the kafka cluster.
+	 * The schema version is the latest version.
+	 * @param topic A topic of this message
+	 * @param message A value object that takes message (the member values of the class has to match the schema)
+	 * @return a future that is completed with the metadata of the record when the broker acknowledged it
+	 * @see #sendAsync(String, int, ShoverMessage)
+	 */
+	public CompletableFuture<RecordMetadata> sendAsync(String topic, ShoverMessage message) {
+		return sendAsync(topic, 0, (Object) message);
+	}
+
+	/**
+	 * Asynchronously send a message to the kafka cluster.
+	 * The schema version is the latest version.
+	 * @param topic A topic of this message
+	 * @param values Values that is in the order of their schema positions
+	 * @return a future that is completed with the metadata of the record when the broker acknowledged it
+	 * @see #sendAsync(String, int, Object[])
+	 */
+	public CompletableFuture<RecordMetadata> sendAsync(String topic, Object[] values) {
+		return sendAsync(topic, 0, (Object) values);
+	}
 
-		ProducerRecord<Object, Object> record;
+	/**
+	 * Asynchronously send a message to the kafka cluster.
+	 * Unlike {@link #send(String, int, ShoverMessage)}, nothing is thrown but the future is completed exceptionally
+	 * (a {@link ShoverException} for a wrong message or the backpressure, or the error of the producer).
+	 * If the in-flight limit ('send.max.in.flight') is reached, 'send.backpressure.policy' is applied.
+	 * The future is completed on a completer thread of the shover, not on the producer I/O thread,
+	 * so a continuation may send again even if it waits for the in-flight limit.
+	 * @param topic A topic of this message
+	 * @param version A schema version of this message
+	 * @param message A value object that takes message (the member values of the class has to match the schema)
+	 * @return a future that is completed with the metadata of the record when the broker acknowledged it
+	 */
+	public CompletableFuture<RecordMetadata> sendAsync(String topic, int version, ShoverMessage message) {
+		return sendAsync(topic, version, (Object) message);
+	}
+
+	/**
+	 * Asynchronously send a message to the kafka cluster.
+	 * @param topic A topic of this message
+	 * @param version A schema version of this message
+	 * @param values Values that is in the order of their schema positions
+	 * @return a future that is completed with the metadata of the record when the broker acknowledged it
+	 * @see #sendAsync(String, int, ShoverMessage)
+	 */
+	public CompletableFuture<RecordMetadata> sendAsync(String topic, int version, Object[] values) {
+		return sendAsync(topic, version, (Object) values);
+	}
+
+	private CompletableFuture<RecordMetadata> sendAsync(String topic, int version, Object message) {
+		CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+		try {
+			dispatch(topic, message, toRecord(topic, version, message), future);
+		} catch (ShoverException e) {
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	private ProducerRecord<byte[], byte[]> toRecord(String topic, int version, Object message) throws ShoverException {
+		RegisteredSchema registered = getRegisteredSchema(topic, version);
+		Schema schema = registered.getSchema();
+
+		long conversionNanos = System.nanoTime();
 		try {
-			Object value;
+			// serialized with the cached schema id
+			byte[] value;
 			if (message instanceof ShoverMessage) {
-				value = convertToValueRecord((ShoverMessage) message, schema);
+				value = serializer.serialize(registered, convertToValueRecord((ShoverMessage) message, schema));
 			} else if (message instanceof Object[]) {
-				value = convertToValueRecord((Object[]) message, schema);
+				// positional fast path, no intermediate record
+				value = serializer.serialize(registered, (Object[]) message);
+			} else if (message instanceof Map) {
+				value = serializer.serialize(registered, convertToValueRecord((Map<String, ?>) message, schema));
 			} else {
 				throw new ShoverMessageException(topic, schema, message);
 			}
-			record = new ProducerRecord<>(topic, value);
+			stats.recordConversionLatency(System.nanoTime() - conversionNanos);
+			return new ProducerRecord<>(topic, value);
+		} catch (ShoverMessageException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new ShoverMessageException(topic, schema, message, e);
 		}
+	}
 
-		try {
-			stats.addNumberOfMessages(1);
+	/**
+	 * Get the schema of a topic.
+	 * @param topic A topic
+	 * @param version A schema version (0 : the latest version)
+	 * @return the cached schema
+	 * @throws ShoverException If the topic is null or the schema does not exist
+	 */
+	public Schema getSchema(String topic, int version) throws ShoverException {
+		return getRegisteredSchema(topic, version).getSchema();
+	}
+
+	private RegisteredSchema getRegisteredSchema(String topic, int version) throws ShoverException {
+		if (topic == null) throw new ShoverNullTopicException();
+
+		// use only cached schemas (or loaded at the first use in the lazy loading mode)
+		Subject subject = new Subject(topic, version);
+		RegisteredSchema registered = cachedSchemas.getRegisteredSchema(subject);
+		if (registered == null) throw new ShoverSchemaNotExistException("schema of " + subject + " does not exist");
+
+		return registered;
+	}
 
+	/*
+	Send a record under the in-flight limit. The future may be null.
+	 */
+	private void dispatch(String topic, Object message, ProducerRecord<byte[], byte[]> record
+		, CompletableFuture<RecordMetadata> future) throws ShoverException {
+		InFlightLimiter.Ticket ticket = limiter.acquire(record.value().length);
+
+		stats.addNumberOfMessages(topic, 1);
+		long sendNanos = System.nanoTime();
+		try {
 			producer.send(record, (metadata, exception) -> {
+				limiter.release(ticket);
+
 				if (exception == null) {
-					stats.addNumberOfCompletedMessages(1);
+					stats.recordSendLatency(System.nanoTime() - sendNanos);
+					stats.addNumberOfCompletedMessages(topic, 1, Math.max(0, metadata.serializedKeySize()) + Math.max(0, metadata.serializedValueSize()));
+					if (future != null) complete(future, metadata, null);
+				} else if (spill(record, exception)) {
+					if (future != null) complete(future, null, new ShoverSpilledException(topic, exception));
 				} else {
+					stats.addNumberOfFailedMessages(topic, 1);
 					logger.error("producer send error", exception);
+					if (future != null) complete(future, null, exception);
 				}
 			});
-
-			// TO DO : flush
-			flush();
-
 		} catch (Exception e) {
+			limiter.release(ticket);
+			if (spill(record, e)) {
+				if (future != null) future.completeExceptionally(new ShoverSpilledException(topic, e));
+				return;
+			}
+			stats.addNumberOfFailedMessages(topic, 1);
 			throw new ShoverSendException(topic, message, e);
 		}
+
+		// never blocks, the flusher thread does the flush
+		flusher.messageSent();
+	}
+
+	/**
+	 * Asynchronously send messages to the kafka cluster.
+	 * The schema version is the latest version.
+	 * @param topic A topic of the messages
+	 * @param messages Value objects ({@link ShoverMessage}), values in the order of their schema positions (Object[]) or maps of the field names to the values
+	 * @return a future that is completed when all the messages are completed, with the failures of the messages
+	 * @throws ShoverException If the topic or the schema is wrong
+	 * @see #sendBatch(String, int, List)
+	 */
+	public CompletableFuture<ShoverBatchResult> sendBatch(String topic, List<?> messages) throws ShoverException {
+		return sendBatch(topic, 0, messages);
+	}
+
+	/**
+	 * Asynchronously send messages to the kafka cluster.
+	 * The schema is resolved only one time for the batch, and a message which could not be converted or sent
+	 * does not stop the others but is reported in the result.
+	 * @param topic A topic of the messages
+	 * @param version A schema version of the messages
+	 * @param messages Value objects ({@link ShoverMessage}), values in the order of their schema positions (Object[]) or maps of the field names to the values
+	 * @return a future that is completed when all the messages are completed, with the failures of the messages
+	 * @throws ShoverException If the topic or the schema is wrong
+	 */
+	public CompletableFuture<ShoverBatchResult> sendBatch(String topic, int version, List<?> messages) throws ShoverException {
+		return doSendBatch(topic, version, messages.toArray());
+	}
+
+	/**
+	 * Asynchronously send messages to the kafka cluster.
+	 * @param topic A topic of the messages
+	 * @param version A schema version of the messages
+	 * @param messages Messages each of which has values in the order of their schema positions
+	 * @return a future that is completed when all the messages are completed, with the failures of the messages
+	 * @throws ShoverException If the topic or the schema is wrong
+	 * @see #sendBatch(String, int, List)
+	 */
+	public CompletableFuture<ShoverBatchResult> sendBatch(String topic, int version, Object[][] messages) throws ShoverException {
+		return doSendBatch(topic, version, messages);
+	}
+
+	private CompletableFuture<ShoverBatchResult> doSendBatch(String topic, int version, Object[] messages) throws ShoverException {
+		// resolve the schema only one time
+		RegisteredSchema registered = getRegisteredSchema(topic, version);
+		Schema schema = registered.getSchema();
+
+		BatchCompletion completion = new BatchCompletion(topic, messages.length);
+		stats.addNumberOfMessages(topic, messages.length);
+
+		ShoverMessageConverter converter = null;
+		for (int idx = 0; idx < messages.length; idx++) {
+			Object message = messages[idx];
+			ProducerRecord<byte[], byte[]> record;
+			long conversionNanos = System.nanoTime();
+			try {
+				byte[] value;
+				if (message instanceof ShoverMessage) {
+					if (converter == null || !converter.isConverterOf(message.getClass())) {
+						converter = ShoverMessageConverter.get(message.getClass(), schema);
+					}
+					value = serializer.serialize(registered, converter.convert((ShoverMessage) message));
+				} else if (message instanceof Object[]) {
+					value = serializer.serialize(registered, (Object[]) message);
+				} else if (message instanceof Map) {
+					value = serializer.serialize(registered, convertToValueRecord((Map<String, ?>) message, schema));
+				} else {
+					throw new ShoverMessageException(topic, schema, message);
+				}
+				record = new ProducerRecord<>(topic, value);
+				stats.recordConversionLatency(System.nanoTime() - conversionNanos);
+			} catch (ShoverMessageException e) {
+				completion.failed(idx, e);
+				continue;
+			} catch (Exception e) {
+				completion.failed(idx, new ShoverMessageException(topic, schema, message, e));
+				continue;
+			}
+
+			InFlightLimiter.Ticket ticket;
+			try {
+				ticket = limiter.acquire(record.value().length);
+			} catch (ShoverBackpressureException e) {
+				completion.failed(idx, e);
+				continue;
+			}
+
+			try {
+				producer.send(record, completion.callback(idx, ticket, record, System.nanoTime()));
+			} catch (Exception e) {
+				limiter.release(ticket);
+				if (spill(record, e)) {
+					completion.spilled(idx, e);
+				} else {
+					completion.failed(idx, new ShoverSendException(topic, message, e));
+				}
+			}
+		}
+
+		flusher.messageSent();
+
+		return completion.future;
+	}
+
+	// collects the completions of a batch, the stats are updated only one time for the batch
+	private class BatchCompletion {
+
+		private final String topic;
+		private final int size;
+		private final AtomicInteger remaining;
+		private final AtomicLong completedBytes = new AtomicLong(0);
+		private final ConcurrentSkipListMap<Integer, Exception> failures = new ConcurrentSkipListMap<>();
+		private final AtomicInteger spilled = new AtomicInteger(0);
+		private final CompletableFuture<ShoverBatchResult> future = new CompletableFuture<>();
+
+		BatchCompletion(String topic, int size) {
+			this.topic = topic;
+			this.size = size;
+			this.remaining = new AtomicInteger(size);
+			if (size == 0) complete();
+		}
+
+		Callback callback(int idx, InFlightLimiter.Ticket ticket, ProducerRecord<byte[], byte[]> record, long sendNanos) {
+			return (metadata, exception) -> {
+				limiter.release(ticket);
+
+				if (exception == null) {
+					stats.recordSendLatency(System.nanoTime() - sendNanos);
+					completedBytes.addAndGet(Math.max(0, metadata.serializedKeySize()) + Math.max(0, metadata.serializedValueSize()));
+					done();
+				} else if (spill(record, exception)) {
+					spilled(idx, exception);
+				} else {
+					logger.error("producer send error", exception);
+					failed(idx, exception);
+				}
+			};
+		}
+
+		void failed(int idx, Exception cause) {
+			failures.put(idx, cause);
+			done();
+		}
+
+		// the spilled messages are counted in the stats by the spill
+		void spilled(int idx, Exception cause) {
+			spilled.incrementAndGet();
+			failed(idx, new ShoverSpilledException(topic, cause));
+		}
+
+		private void done() {
+			if (remaining.decrementAndGet() == 0) complete();
+		}
+
+		private void complete() {
+			stats.addNumberOfCompletedMessages(topic, size - failures.size(), completedBytes.get());
+			stats.addNumberOfFailedMessages(topic, failures.size() - spilled.get());
+			Shover.this.complete(future, new ShoverBatchResult(topic, size, failures), null);
+		}
+
+	}
+
+	/*
+	Complete a future on the completer thread. A continuation may send again and wait for the in-flight limit,
+	which is released only by the producer I/O thread, so it must not run on that thread.
+	After the close, the future is completed by the calling thread.
+	 */
+	private <T> void complete(CompletableFuture<T> future, T value, Throwable exception) {
+		Runnable completion = (exception == null)? () -> future.complete(value) : () -> future.completeExceptionally(exception);
+		try {
+			completer.execute(completion);
+		} catch (RejectedExecutionException e) {
+			completion.run();
+		}
 	}
 
 	/**
@@ -245,39 +873,97 @@ public class Shover {
 		return stats.getNumberOfCompletedMessages();
 	}
 
-	private Object convertToValueRecord(ShoverMessage message, Schema schema) throws NoSuchFieldException, IllegalAccessException {
-		GenericRecord record = new GenericData.Record(schema);
-		Class<?> clazz = message.getClass();
-		for (Schema.Field schemaField : schema.getFields()) {
-			Field field = clazz.getField(schemaField.name());
-			field.setAccessible(true);
-			record.put(schemaField.name(), field.get(message));
-		}
+	/**
+	 * Get the stats (the counters per topic and the latency percentiles)
+	 * @return the stats
+	 */
+	public ShoverStats getStats() {
+		return stats;
+	}
 
-		return record;
+	/**
+	 * Get the time since the cached schemas were last refreshed from the schema registry
+	 * @return the refresh lag in milliseconds
+	 */
+	public long getSchemaRefreshLag() {
+		return stats.getSchemaRefreshLag();
 	}
 
-	private Object convertToValueRecord(Object[] message, Schema schema) {
-		GenericRecord record = new GenericData.Record(schema);
-		int idx = 0;
-		for (Schema.Field schemaField : schema.getFields()) {
-			record.put(schemaField.name(), message[idx++]);
-		}
+	private GenericRecord convertToValueRecord(ShoverMessage message, Schema schema) throws NoSuchFieldException, IllegalAccessException {
+		// the member values are resolved only one time per (message class, schema)
+		return ShoverMessageConverter.get(message.getClass(), schema).convert(message);
+	}
 
-		return record;
+	private GenericRecord convertToValueRecord(Map<String, ?> message, Schema schema) {
+		// the schema is compiled only one time
+		return MapRecordConverter.get(schema, config.isMessageMapStringCoercion()).convert(message);
 	}
 
-	private void flush() {
-		// if the number of stacked messages is more than the flush size
-		if ( (stats.getNumberOfMessages() - stats.getNumberOfCompletedMessages()) >= config.getMessageFlushSize()) {
-			producer.flush();
-		}
 
-		// TODO : 시간이 설장한 값만큼 지나면 flush 되도록 추가
+	/*
+	Write a record to the spill log if it could not be delivered for now
+	(the broker is unreachable, the buffer is full or the producer is being closed)
+	 */
+	private boolean spill(ProducerRecord<byte[], byte[]> record, Exception cause) {
+		if (spillLog == null) return false;
+		if (!closing && !(cause instanceof RetriableException) && !(cause instanceof BufferExhaustedException)) return false;
+
+		try {
+			spillLog.append(record);
+			stats.addNumberOfSpilledMessages(record.topic(), 1);
+			logger.warn("a message of {} was spilled : {}", record.topic(), cause.getMessage());
+			return true;
+		} catch (IOException e) {
+			logger.error("spill error", e);
+			return false;
+		}
 	}
 
-	private void close() {
+	/**
+	 * Flush and close the producer, and stop the background threads.
+	 * It is called by the shutdown hook (if not disabled by the builder), and calling it more than once does nothing.
+	 */
+	public void close() {
+		if (!closed.compareAndSet(false, true)) return;
+
+		if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// already shutting down
+			}
+		}
+
+		if (schemaRefresherThread != null) schemaRefresherThread.interrupt();
+		if (spillReplayerThread != null) spillReplayerThread.interrupt();
+		if (spillSyncerThread != null) spillSyncerThread.interrupt();
+
+		// stop the flusher first, closing the producer flushes the rest
+		flusherThread.interrupt();
+		try {
+			flusherThread.join(TimeUnit.SECONDS.toMillis(config.getShutdownTimeout()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// the records which are not sent until the timeout are failed by the producer, and spilled
+		closing = true;
 		producer.close(config.getShutdownTimeout(), TimeUnit.SECONDS);
+
+		if (spillLog != null) spillLog.close();
+
+		// the futures of the records which were completed by the close
+		completer.shutdown();
+		try {
+			completer.awaitTermination(config.getShutdownTimeout(), TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// the last snapshot of the schemas
+		cachedSchemas.close(TimeUnit.SECONDS.toMillis(config.getShutdownTimeout()));
+
+		localPathsInUse.removeAll(localPaths);
 	}
 
 }
@@ -0,0 +1,66 @@
+package org.conquernos.shover;
+
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+
+
+/**
+ * The result of a batch send.
+ * The failures are keyed by the index of the message in the batch.
+ */
+public class ShoverBatchResult {
+
+	private final String topic;
+	private final int size;
+	private final SortedMap<Integer, Exception> failures;
+
+	public ShoverBatchResult(String topic, int size, SortedMap<Integer, Exception> failures) {
+		this.topic = topic;
+		this.size = size;
+		this.failures = Collections.unmodifiableSortedMap(failures);
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	/**
+	 * Get the number of messages in the batch
+	 * @return the number of messages
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the number of messages that have been delivered to the Kafka broker
+	 * @return the number of completed messages
+	 */
+	public int getNumberOfCompletedMessages() {
+		return size - failures.size();
+	}
+
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+
+	/**
+	 * Get the failures of the batch (a conversion error or a send error)
+	 * @return index of the message in the batch -> cause
+	 */
+	public Map<Integer, Exception> getFailures() {
+		return failures;
+	}
+
+	@Override
+	public String toString() {
+		return "ShoverBatchResult{" +
+			"topic=" + topic +
+			", size=" + size +
+			", failures=" + failures.size() +
+			'}';
+	}
+
+}
@@ -2,6 +2,7 @@ package org.conquernos.shover.arvo.decoder;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import org.apache.avro.AvroTypeException;
@@ -11,45 +12,200 @@ import org.apache.avro.io.parsing.JsonGrammarGenerator;
 import org.apache.avro.io.parsing.Parser;
 import org.apache.avro.io.parsing.Symbol;
 import org.apache.avro.util.Utf8;
-import org.apache.commons.lang3.StringUtils;
 
 
+/**
+ * A decoder that reads a flattened map as Avro data of a schema.
+ * A key is the path of the value joined by '|' (ex. {"a|b|c" : "1"} is {"a" : {"b" : {"c" : "1"}}}),
+ * an array item is keyed by its index (ex. "a|0|b"), and a union value is keyed by its branch (ex. "a|string").
+ * An enum is the name of its symbol, and bytes/fixed are byte[], ByteBuffer or ISO-8859-1 string.
+ * The keys are indexed into a trie once in {@link #configure(Map)}, and the decoder walks the trie
+ * with a stack of nodes, so no key path string is built and no key set is scanned while reading.
+ * The trie nodes are reused by the next map.
+ */
 public class MapDecoder extends ParsingDecoder implements Parser.ActionHandler {
 
+	private static final char KEY_SEPARATOR = '|';
+
+	// a node of the trie, it has a value and/or children
+	private static class Node {
+		Object value = null;
+		boolean hasValue = false;
+		final LinkedHashMap<String, Node> children = new LinkedHashMap<>();
+
+		Node child(String name) {
+			return children.isEmpty()? null : children.get(name);
+		}
+
+		boolean isNull() {
+			return value == null && children.isEmpty();
+		}
+	}
+
 	private Map<String, Object> in;
 
-	private Stack<ReorderBuffer> reorderBuffers = new Stack<>();
-	private ReorderBuffer currentReorderBuffer;
+	private Node root;
+
+	// trie nodes for reuse
+	private final ArrayList<Node> nodePool = new ArrayList<>();
+	private int nodePoolIndex = 0;
 
-	private static class ReorderBuffer {
-		Map<String, Map<String, Object>> savedFields = new HashMap<>();
-		Map<String, Object> origParser = null;
+	// the key path : nodes (null : not exist) and their names
+	private Node[] nodes = new Node[16];
+	private String[] names = new String[16];
+	private int depth = 0;
+
+	// the number of fields which were found for each record being read
+	private int[] recordFieldCounts = new int[8];
+	private int recordDepth = 0;
+
+	// items of the arrays being read
+	private static class ArrayCursor {
+		final Node[] items;
+		int index = 0;
+
+		ArrayCursor(Node[] items) {
+			this.items = items;
+		}
 	}
 
+	private static final Node[] NO_ITEMS = new Node[0];
+
+	private final ArrayDeque<ArrayCursor> arrayCursors = new ArrayDeque<>();
+
+	// entries of the maps being read
+	private final ArrayDeque<Iterator<Map.Entry<String, Node>>> mapIterators = new ArrayDeque<>();
+
 	public MapDecoder(Schema schema, Map<String, Object> in) throws IOException {
 		this(getSymbol(schema), in);
 	}
 
-	private MapDecoder(Symbol root, Map<String, Object> in) throws IOException {
+	MapDecoder(Symbol root, Map<String, Object> in) throws IOException {
 		super(root);
 		configure(in);
 	}
 
-	private static Symbol getSymbol(Schema schema) {
+	static Symbol getSymbol(Schema schema) {
 		if (null == schema) throw new NullPointerException("Schema cannot be null!");
 
 		return new JsonGrammarGenerator().generate(schema);
 	}
 
-	private MapDecoder configure(Map<String, Object> in) throws IOException {
+	/**
+	 * Reset the decoder to read a new map.
+	 * @param in A flattened map
+	 * @return this decoder
+	 */
+	public MapDecoder configure(Map<String, Object> in) throws IOException {
 		if (null == in) throw new NullPointerException("Map to read from cannot be null!");
 
 		parser.reset();
-		this.in = new TreeMap(in);
+		this.in = in;
+
+		nodePoolIndex = 0;
+		root = newNode();
+		for (Map.Entry<String, Object> entry : in.entrySet()) {
+			index(entry.getKey(), entry.getValue());
+		}
+
+		depth = 0;
+		recordDepth = 0;
+		mapIterators.clear();
+		arrayCursors.clear();
+		pushNode(root, "");
 
 		return this;
 	}
 
+	/**
+	 * Release the map which was read and the values of the trie (ex. after each read of a cached decoder).
+	 * The trie nodes are kept for the next map, and {@link #configure(Map)} has to be called before the next read.
+	 */
+	public void release() {
+		in = null;
+		root = null;
+		for (int idx = 0; idx < nodePoolIndex; idx++) {
+			Node node = nodePool.get(idx);
+			node.value = null;
+			node.hasValue = false;
+			node.children.clear();
+		}
+		nodePoolIndex = 0;
+
+		Arrays.fill(nodes, 0, depth, null);
+		Arrays.fill(names, 0, depth, null);
+		depth = 0;
+		recordDepth = 0;
+		mapIterators.clear();
+		arrayCursors.clear();
+	}
+
+	private Node newNode() {
+		Node node;
+		if (nodePoolIndex < nodePool.size()) {
+			node = nodePool.get(nodePoolIndex);
+			node.value = null;
+			node.hasValue = false;
+			node.children.clear();
+		} else {
+			node = new Node();
+			nodePool.add(node);
+		}
+		nodePoolIndex++;
+
+		return node;
+	}
+
+	private void index(String key, Object value) {
+		Node node = root;
+		int start = 0;
+		int end;
+		while ((end = key.indexOf(KEY_SEPARATOR, start)) != -1) {
+			node = childOf(node, key.substring(start, end));
+			start = end + 1;
+		}
+		node = childOf(node, (start == 0)? key : key.substring(start));
+		node.value = value;
+		node.hasValue = true;
+	}
+
+	private Node childOf(Node parent, String name) {
+		Node child = parent.children.get(name);
+		if (child == null) {
+			child = newNode();
+			parent.children.put(name, child);
+		}
+
+		return child;
+	}
+
+	private void pushNode(Node node, String name) {
+		if (depth == nodes.length) {
+			nodes = Arrays.copyOf(nodes, depth * 2);
+			names = Arrays.copyOf(names, depth * 2);
+		}
+		nodes[depth] = node;
+		names[depth] = name;
+		depth++;
+	}
+
+	private void popNode() {
+		depth--;
+		nodes[depth] = null;
+		names[depth] = null;
+	}
+
+	private Node currentNode() {
+		return nodes[depth - 1];
+	}
+
+	private Object currentValue(String type) {
+		Node node = currentNode();
+		if (node == null || !node.hasValue || node.value == null) throw error(type);
+
+		return node.value;
+	}
+
 	private void advance(Symbol symbol) throws IOException {
 		this.parser.processTrailingImplicitActions();
 		parser.advance(symbol);
@@ -57,50 +213,88 @@ public class MapDecoder extends ParsingDecoder implements Parser.ActionHandler {
 
 	@Override
 	public void readNull() throws IOException {
-		if (in.containsKey(getKeyPathString())) throw error("null");
+		advance(Symbol.NULL);
+		Node node = currentNode();
+		if (node != null && !node.isNull()) throw error("null");
 	}
 
 	@Override
 	public boolean readBoolean() throws IOException {
 		advance(Symbol.BOOLEAN);
-		String val = (String)in.get(getKeyPathString());
-		if (Objects.equals(val, Boolean.toString(true)) || Objects.equals(val, Boolean.toString(false))) {
-			return Objects.equals(val, Boolean.toString(true));
-		} else {
-			throw error("boolean");
-		}
+		Object val = currentValue("boolean");
+		if (val instanceof Boolean) return (Boolean) val;
+
+		String str = val.toString();
+		if (str.equals("true")) return true;
+		if (str.equals("false")) return false;
+
+		throw error("boolean");
 	}
 
 	@Override
 	public int readInt() throws IOException {
 		advance(Symbol.INT);
-		String val = (String)in.get(getKeyPathString());
+		Object val = currentValue("int");
+		if (val instanceof Integer) return (Integer) val;
+		if (val instanceof Number) {
+			// only an integral in the int range, like MapRecordConverter
+			if (!isIntegral(val)) throw error("int");
+			long longVal = ((Number) val).longValue();
+			if (longVal < Integer.MIN_VALUE || longVal > Integer.MAX_VALUE) throw error("int");
+			return (int) longVal;
+		}
 
-		return Integer.parseInt(val);
+		try {
+			return Integer.parseInt(val.toString());
+		} catch (NumberFormatException e) {
+			throw error("int");
+		}
 	}
 
 	@Override
 	public long readLong() throws IOException {
 		advance(Symbol.LONG);
-		String val = (String)in.get(getKeyPathString());
+		Object val = currentValue("long");
+		if (val instanceof Number) {
+			if (!isIntegral(val)) throw error("long");
+			return ((Number) val).longValue();
+		}
 
-		return Long.parseLong(val);
+		try {
+			return Long.parseLong(val.toString());
+		} catch (NumberFormatException e) {
+			throw error("long");
+		}
+	}
+
+	private static boolean isIntegral(Object val) {
+		return val instanceof Integer || val instanceof Long || val instanceof Short || val instanceof Byte;
 	}
 
 	@Override
 	public float readFloat() throws IOException {
 		advance(Symbol.FLOAT);
-		String val = (String)in.get(getKeyPathString());
+		Object val = currentValue("float");
+		if (val instanceof Number) return ((Number) val).floatValue();
 
-		return Float.parseFloat(val);
+		try {
+			return Float.parseFloat(val.toString());
+		} catch (NumberFormatException e) {
+			throw error("float");
+		}
 	}
 
 	@Override
 	public double readDouble() throws IOException {
 		advance(Symbol.DOUBLE);
-		String val = (String)in.get(getKeyPathString());
+		Object val = currentValue("double");
+		if (val instanceof Number) return ((Number) val).doubleValue();
 
-		return Double.parseDouble(val);
+		try {
+			return Double.parseDouble(val.toString());
+		} catch (NumberFormatException e) {
+			throw error("double");
+		}
 	}
 
 	@Override
@@ -113,30 +307,15 @@ public class MapDecoder extends ParsingDecoder implements Parser.ActionHandler {
 		advance(Symbol.STRING);
 		if (parser.topSymbol() == Symbol.MAP_KEY_MARKER) {
 			advance(Symbol.MAP_KEY_MARKER);
-			if (in.isEmpty()) throw error("map-key");
-
-			String result = in.keySet().iterator().next();
-			assert(result != null);
+			Iterator<Map.Entry<String, Node>> entries = mapIterators.peek();
+			if (entries == null || !entries.hasNext()) throw error("map-key");
 
-			// Strip the prefix consisting of the current keypath from this key
-			if (!getKeyPathString().isEmpty()) {
-				String keyPathPrefix = getKeyPathString() + "|";
-				assert(result.startsWith(keyPathPrefix));
-				result = result.substring(keyPathPrefix.length());
-			}
+			Map.Entry<String, Node> entry = entries.next();
+			pushNode(entry.getValue(), entry.getKey());
 
-			// Only get the next key, not the entire descending keypath
-			if (result.indexOf('|') != -1) {
-				result = result.substring(0, result.indexOf('|'));
-			}
-
-			pushKeyPathComponent(result);
-
-			return result;
+			return entry.getKey();
 		} else {
-			if (in.isEmpty()) throw error("string");
-
-			return (String)in.get(getKeyPathString());
+			return currentValue("string").toString();
 		}
 	}
 
@@ -147,83 +326,175 @@ public class MapDecoder extends ParsingDecoder implements Parser.ActionHandler {
 
 	@Override
 	public ByteBuffer readBytes(ByteBuffer old) throws IOException {
-		return null;
+		advance(Symbol.BYTES);
+
+		return ByteBuffer.wrap(bytesOf(currentValue("bytes"), "bytes"));
 	}
 
 	@Override
 	public void skipBytes() throws IOException {
-
+		advance(Symbol.BYTES);
 	}
 
 	@Override
 	public void readFixed(byte[] bytes, int start, int length) throws IOException {
+		advance(Symbol.FIXED);
+		Symbol.IntCheckAction top = (Symbol.IntCheckAction) parser.popSymbol();
+		if (length != top.size) {
+			throw new AvroTypeException("Incorrect length for fixed binary: expected " + top.size + " but received " + length + " bytes.");
+		}
 
+		byte[] val = bytesOf(currentValue("fixed"), "fixed");
+		if (val.length != length) throw error("fixed(" + length + ")");
+
+		System.arraycopy(val, 0, bytes, start, length);
 	}
 
 	@Override
 	public void skipFixed() throws IOException {
+		advance(Symbol.FIXED);
+		parser.popSymbol();
 	}
 
 	@Override
 	public void skipFixed(int length) throws IOException {
+		advance(Symbol.FIXED);
+		Symbol.IntCheckAction top = (Symbol.IntCheckAction) parser.popSymbol();
+		if (length != top.size) {
+			throw new AvroTypeException("Incorrect length for fixed binary: expected " + top.size + " but received " + length + " bytes.");
+		}
+	}
+
+	// byte[], ByteBuffer or ISO-8859-1 string (like the json encoding of avro)
+	private byte[] bytesOf(Object val, String type) {
+		if (val instanceof byte[]) return (byte[]) val;
 
+		if (val instanceof ByteBuffer) {
+			ByteBuffer buffer = ((ByteBuffer) val).duplicate();
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			return bytes;
+		}
+
+		if (val instanceof CharSequence) return val.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+		throw error(type);
 	}
 
 	@Override
 	public int readEnum() throws IOException {
-		return 0;
+		advance(Symbol.ENUM);
+		Symbol.EnumLabelsAction top = (Symbol.EnumLabelsAction) parser.popSymbol();
+		String label = currentValue("enum").toString();
+		int n = top.findLabel(label);
+		if (n < 0) throw new AvroTypeException("Unknown symbol " + label + " in enum at " + getKeyPathString());
+
+		return n;
 	}
 
 	@Override
 	public long readArrayStart() throws IOException {
-		return 0;
+		advance(Symbol.ARRAY_START);
+
+		Node[] items = itemsOf(currentNode());
+		if (items.length == 0) {
+			advance(Symbol.ARRAY_END);
+			return 0;
+		}
+
+		ArrayCursor cursor = new ArrayCursor(items);
+		arrayCursors.push(cursor);
+		pushNode(items[0], "0");
+
+		return 1;
 	}
 
 	@Override
 	public long arrayNext() throws IOException {
+		advance(Symbol.ITEM_END);
+
+		// the item which was read
+		popNode();
+
+		ArrayCursor cursor = arrayCursors.peek();
+		if (++cursor.index < cursor.items.length) {
+			pushNode(cursor.items[cursor.index], Integer.toString(cursor.index));
+			return 1;
+		}
+
+		arrayCursors.pop();
+		advance(Symbol.ARRAY_END);
+
 		return 0;
 	}
 
 	@Override
 	public long skipArray() throws IOException {
+		advance(Symbol.ARRAY_START);
+		advance(Symbol.ARRAY_END);
+
 		return 0;
 	}
 
+	// the children of an array are keyed by the indexes (ex. "a|0|b", "a|1|b")
+	private Node[] itemsOf(Node node) {
+		if (node == null || node.children.isEmpty()) return NO_ITEMS;
+
+		Node[] items = new Node[node.children.size()];
+		for (Map.Entry<String, Node> child : node.children.entrySet()) {
+			int index;
+			try {
+				index = Integer.parseInt(child.getKey());
+			} catch (NumberFormatException e) {
+				index = -1;
+			}
+			if (index < 0 || index >= items.length || items[index] != null) {
+				throw error("array index (got '" + child.getKey() + "')");
+			}
+			items[index] = child.getValue();
+		}
+
+		return items;
+	}
+
 	@Override
 	public long readMapStart() throws IOException {
 		advance(Symbol.MAP_START);
 
-		return doMapNext(true);
+		Node node = currentNode();
+		Iterator<Map.Entry<String, Node>> entries = (node == null)?
+			Collections.<Map.Entry<String, Node>>emptyIterator() : node.children.entrySet().iterator();
+		if (!entries.hasNext()) {
+			advance(Symbol.MAP_END);
+			return 0;
+		}
+
+		mapIterators.push(entries);
+
+		return 1;
 	}
 
 	@Override
 	public long mapNext() throws IOException {
 		advance(Symbol.ITEM_END);
 
-		return doMapNext(false);
-	}
-
-	private long doMapNext(boolean fromReadMapStart) throws IOException {
-		if (!fromReadMapStart) {
-			in.remove(getKeyPathString());
-			popKeyPathComponent();
-		}
+		// the entry which was read
+		popNode();
 
-		long numLeft = 0;
-		for (String key : in.keySet()) {
-			if (key.startsWith(getKeyPathString())) numLeft++;
-		}
+		if (mapIterators.peek().hasNext()) return 1;
 
-		if (numLeft == 0 && !fromReadMapStart) {
-			advance(Symbol.MAP_END);
-		}
+		mapIterators.pop();
+		advance(Symbol.MAP_END);
 
-		return Math.min(1, numLeft);
+		return 0;
 	}
 
 	@Override
 	public long skipMap() throws IOException {
-		throw new IOException("skipMap not implemented");
+		advance(Symbol.MAP_START);
+		advance(Symbol.MAP_END);
+
+		return 0;
 	}
 
 	@Override
@@ -231,25 +502,42 @@ public class MapDecoder extends ParsingDecoder implements Parser.ActionHandler {
 		advance(Symbol.UNION);
 		Symbol.Alternative a = (Symbol.Alternative) parser.popSymbol();
 
+		Node node = currentNode();
 		String label;
-		if (in.isEmpty()) {
+		if (node == null || node.isNull()) {
 			label = "null";
+		} else if (!node.children.isEmpty()) {
+			// keyed by the branch (ex. "a|string")
+			Map.Entry<String, Node> branch = node.children.entrySet().iterator().next();
+			label = branch.getKey();
+			parser.pushSymbol(Symbol.UNION_END);
+			pushNode(branch.getValue(), label);
 		} else {
-			label = stripKeyPathSuffix(stripKeyPathPrefix(in.keySet().iterator().next()));
+			// a value without its branch, it is read as the first non-null branch
+			label = firstNonNullLabel(a);
 			parser.pushSymbol(Symbol.UNION_END);
+			pushNode(node, label);
 		}
 
 		int n = a.findLabel(label);
-		if (n < 0) throw new AvroTypeException("Unknown union branch " + label);
+		if (n < 0) throw new AvroTypeException("Unknown union branch " + label + " at " + getKeyPathString());
 		parser.pushSymbol(a.getSymbol(n));
-		pushKeyPathComponent(label);
 
 		return n;
 	}
 
+	private static String firstNonNullLabel(Symbol.Alternative a) {
+		for (int i = 0; i < a.size(); i++) {
+			if (!"null".equals(a.getLabel(i))) return a.getLabel(i);
+		}
+
+		return "null";
+	}
+
 	private AvroTypeException error(String type) {
+		Node node = (depth > 0)? currentNode() : null;
 		return new AvroTypeException(
-			"Expected " + type + ". Got " + in.toString()
+			"Expected " + type + " at '" + getKeyPathString() + "'. Got " + ((node == null)? "nothing" : node.value) + " in " + in
 		);
 	}
 
@@ -257,66 +545,25 @@ public class MapDecoder extends ParsingDecoder implements Parser.ActionHandler {
 	public Symbol doAction(Symbol input, Symbol top) throws IOException {
 		if (top instanceof Symbol.FieldAdjustAction) {
 			Symbol.FieldAdjustAction fa = (Symbol.FieldAdjustAction) top;
-			String name = fa.fname;
-			pushKeyPathComponent(name);
-
-			if (currentReorderBuffer != null) {
-				Map<String, Object> savedSubMap = currentReorderBuffer.savedFields.get(name);
-				if (savedSubMap != null) {
-					currentReorderBuffer.savedFields.remove(name);
-					currentReorderBuffer.origParser = in;
-					this.in = new HashMap<>(savedSubMap);
-					return null;
-				}
-			}
-
-			if (in.size() > 0) {
-				do {
-					String nextKey = in.keySet().iterator().next();
-					String fn = !nextKey.contains("|") ? nextKey : nextKey.substring(0, nextKey.indexOf("|"));
-					if (name.equals(fn)) {
-						return null;
-					} else {
-						if (currentReorderBuffer == null) {
-							currentReorderBuffer = new ReorderBuffer();
-						}
-						Map<String, Object> subMap = new HashMap<>();
-						Iterator it = in.entrySet().iterator();
-						while (it.hasNext()) {
-							Map.Entry<String, Object> entry = (Map.Entry<String, Object>) it.next();
-							String keyPrefix = fn + "|";
-							if (entry.getKey().startsWith(keyPrefix) || entry.getKey().equals(fn)) {
-								//String keyWithoutPrefix = entry.getKey().substring(keyPrefix.length());
-								subMap.put(/*keyWithoutPrefix*/fn, entry.getValue());
-								it.remove();
-							}
-						}
-						currentReorderBuffer.savedFields.put(fn, subMap);
-					}
-				} while (in.size() > 0);
-
-				throw new AvroTypeException("Expected field name not found: " + fa.fname);
-			}
+			Node parent = currentNode();
+			Node field = (parent == null)? null : parent.child(fa.fname);
+			if (field != null) recordFieldCounts[recordDepth - 1]++;
+			pushNode(field, fa.fname);
 		} else if (top == Symbol.FIELD_END) {
-			if (currentReorderBuffer != null && currentReorderBuffer.origParser != null) {
-				in = currentReorderBuffer.origParser;
-				currentReorderBuffer.origParser = null;
-			}
-			popKeyPathComponent();
+			popNode();
 		} else if (top == Symbol.RECORD_START) {
-			reorderBuffers.push(currentReorderBuffer);
-			currentReorderBuffer = null;
-		} else if (top == Symbol.RECORD_END || top == Symbol.UNION_END) {
-			if (in.size() == 0) {
-				if (top == Symbol.RECORD_END) {
-					if (currentReorderBuffer != null && !currentReorderBuffer.savedFields.isEmpty()) {
-						throw error("Unknown fields: " + currentReorderBuffer.savedFields.keySet());
-					}
-					currentReorderBuffer = reorderBuffers.pop();
-				}
-			} else {
-				throw error(top == Symbol.RECORD_END ? "record-end" : "union-end");
+			if (recordDepth == recordFieldCounts.length) {
+				recordFieldCounts = Arrays.copyOf(recordFieldCounts, recordDepth * 2);
 			}
+			recordFieldCounts[recordDepth++] = 0;
+		} else if (top == Symbol.RECORD_END) {
+			int found = recordFieldCounts[--recordDepth];
+			Node node = currentNode();
+			if (node != null && found < node.children.size()) {
+				throw error("record-end (unknown fields in " + node.children.keySet() + ")");
+			}
+		} else if (top == Symbol.UNION_END) {
+			popNode();
 		} else {
 			throw new AvroTypeException("Unknown action symbol " + top);
 		}
@@ -324,34 +571,16 @@ public class MapDecoder extends ParsingDecoder implements Parser.ActionHandler {
 		return null;
 	}
 
-	private ArrayList<String> keyPath = new ArrayList<>();
-
-	private void pushKeyPathComponent(String component) {
-		keyPath.add(component);
-	}
-
-	private void popKeyPathComponent() {
-		keyPath.remove(keyPath.size() - 1);
-	}
-
+	// only for error messages
 	private String getKeyPathString() {
-		return StringUtils.join(keyPath, '|');
-	}
-
-	// otherKeyPath = "a|b|c", partialKeyPathToRemove="a|b" -> "c"
-	private String stripKeyPathPrefix(String otherKeyPath) {
-		if (!otherKeyPath.contains("|")) {
-			return otherKeyPath;
-		} else {
-			String keyPathPrefix = getKeyPathString() + "|";
-
-			return otherKeyPath.substring(keyPathPrefix.length());
+		StringBuilder keyPath = new StringBuilder();
+		// names[0] is the root
+		for (int i = 1; i < depth; i++) {
+			if (keyPath.length() > 0) keyPath.append(KEY_SEPARATOR);
+			keyPath.append(names[i]);
 		}
-	}
 
-	// "a|b|c" -> "a"
-	private String stripKeyPathSuffix(String keyPath) {
-		return !keyPath.contains("|") ? keyPath : keyPath.substring(0, keyPath.indexOf("|"));
+		return keyPath.toString();
 	}
 
 }
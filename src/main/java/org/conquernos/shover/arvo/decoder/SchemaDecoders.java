@@ -0,0 +1,114 @@
+package org.conquernos.shover.arvo.decoder;
+
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.JsonDecoder;
+import org.apache.avro.io.parsing.Symbol;
+import org.conquernos.shover.utils.BoundedCache;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Readers, grammars and decoders cached by schema.
+ * The schema is analyzed once (the datum reader and the parsing grammar),
+ * and each thread reuses its own decoders of the schema, from one cache of the thread which keeps
+ * the decoders of its recently used schemas (so the decoders of an evicted schema are not retained by the threads).
+ * A map decoder releases the map after each read.
+ */
+public class SchemaDecoders {
+
+	private static final int MAX_SCHEMAS = 1000;
+
+	// the max number of the schemas whose decoders a thread keeps
+	private static final int MAX_THREAD_SCHEMAS = 64;
+
+	private static final DecoderFactory decoderFactory = DecoderFactory.get();
+
+	private static final BoundedCache<Schema, SchemaDecoders> cache = new BoundedCache<>(MAX_SCHEMAS);
+
+	private final Schema schema;
+	private final GenericDatumReader<Object> reader;
+	private final Symbol mapGrammar;
+
+	// the decoders of a thread for a schema
+	private static class ThreadDecoders {
+		JsonDecoder json = null;
+		MapDecoder map = null;
+	}
+
+	// schema -> decoders of the current thread, the least recently used one is evicted
+	private static final ThreadLocal<Map<Schema, ThreadDecoders>> threadDecoders = ThreadLocal.withInitial(
+		() -> new LinkedHashMap<Schema, ThreadDecoders>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Schema, ThreadDecoders> eldest) {
+				return size() > MAX_THREAD_SCHEMAS;
+			}
+		}
+	);
+
+	private SchemaDecoders(Schema schema) {
+		this.schema = schema;
+		this.reader = new GenericDatumReader<>(schema);
+		this.mapGrammar = MapDecoder.getSymbol(schema);
+	}
+
+	public static SchemaDecoders of(Schema schema) {
+		SchemaDecoders decoders = cache.get(schema);
+		if (decoders == null) {
+			decoders = new SchemaDecoders(schema);
+			SchemaDecoders cached = cache.putIfAbsent(schema, decoders);
+			if (cached != null) decoders = cached;
+		}
+
+		return decoders;
+	}
+
+	private ThreadDecoders threadDecoders() {
+		Map<Schema, ThreadDecoders> decoders = threadDecoders.get();
+		// keyed by the cached schema, so it is found by the identity
+		ThreadDecoders schemaDecoders = decoders.get(schema);
+		if (schemaDecoders == null) {
+			schemaDecoders = new ThreadDecoders();
+			decoders.put(schema, schemaDecoders);
+		}
+
+		return schemaDecoders;
+	}
+
+	public Object readJson(String json) throws IOException {
+		ThreadDecoders decoders = threadDecoders();
+		if (decoders.json == null) {
+			decoders.json = decoderFactory.jsonDecoder(schema, json);
+		} else {
+			decoders.json.configure(json);
+		}
+
+		return reader.read(null, decoders.json);
+	}
+
+	public Object readMap(Map<String, Object> map) throws IOException {
+		ThreadDecoders decoders = threadDecoders();
+		if (decoders.map == null) {
+			decoders.map = new MapDecoder(mapGrammar, map);
+		} else {
+			decoders.map.configure(map);
+		}
+
+		try {
+			return reader.read(null, decoders.map);
+		} finally {
+			// the decoder is kept by the thread, not the map
+			decoders.map.release();
+		}
+	}
+
+	public Schema getSchema() {
+		return schema;
+	}
+
+}
@@ -0,0 +1,30 @@
+package org.conquernos.shover.backpressure;
+
+
+import org.conquernos.shover.exceptions.config.ShoverConfigException;
+
+
+/**
+ * What a send does when the number of in-flight messages reaches the limit
+ */
+public enum BackpressurePolicy {
+
+	/**
+	 * Wait until a message is completed (or the timeout)
+	 */
+	BLOCK,
+
+	/**
+	 * Fail the send at once
+	 */
+	FAIL;
+
+	public static BackpressurePolicy of(String name) {
+		try {
+			return valueOf(name.trim().toUpperCase().replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			throw new ShoverConfigException("unknown backpressure policy '" + name + "' (block, fail)", e);
+		}
+	}
+
+}
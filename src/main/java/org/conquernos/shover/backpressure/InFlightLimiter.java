@@ -0,0 +1,135 @@
+package org.conquernos.shover.backpressure;
+
+
+import org.conquernos.shover.exceptions.send.ShoverBackpressureException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Limits the number and the serialized bytes of in-flight messages (sent but not completed), so callers get backpressure
+ * instead of the producer blocking up to 'max.block.ms' when its buffer is full.
+ * The shover serializes a message before it is sent, so its size is known when it takes a ticket.
+ * A message takes a ticket before it is sent and releases it when it is completed.
+ * If the byte limit is below the producer's 'buffer.memory', the producer buffer does not fill up by the messages of the shover.
+ */
+public class InFlightLimiter {
+
+	public static class Ticket {
+
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		private final int bytes;
+
+		private Ticket(int bytes) {
+			this.bytes = bytes;
+		}
+
+	}
+
+	// the ticket of the unlimited mode
+	private static final Ticket UNLIMITED = new Ticket(0);
+
+	private final int maxInFlight;
+	private final int maxInFlightBytes;
+	private final BackpressurePolicy policy;
+	private final long timeoutMs;
+
+	// null : not limited
+	private final Semaphore permits;
+	private final Semaphore bytePermits;
+
+
+	/**
+	 * @param maxInFlight The maximum number of in-flight messages (0 : unlimited)
+	 * @param maxInFlightBytes The maximum serialized bytes of in-flight messages (0 : unlimited, at most Integer.MAX_VALUE)
+	 * @param policy The policy when a limit is reached
+	 * @param timeoutMs The max time to wait in the {@link BackpressurePolicy#BLOCK} policy (0 : forever)
+	 */
+	public InFlightLimiter(int maxInFlight, long maxInFlightBytes, BackpressurePolicy policy, long timeoutMs) {
+		this.maxInFlight = maxInFlight;
+		this.maxInFlightBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(0, maxInFlightBytes));
+		this.policy = policy;
+		this.timeoutMs = timeoutMs;
+		this.permits = (maxInFlight > 0)? new Semaphore(maxInFlight) : null;
+		this.bytePermits = (this.maxInFlightBytes > 0)? new Semaphore(this.maxInFlightBytes) : null;
+	}
+
+	public boolean isUnlimited() {
+		return permits == null && bytePermits == null;
+	}
+
+	/**
+	 * Get the number of in-flight messages
+	 * @return the number of in-flight messages (0 if the number is not limited)
+	 */
+	public int getNumberOfInFlightMessages() {
+		return (permits == null)? 0 : maxInFlight - permits.availablePermits();
+	}
+
+	/**
+	 * Get the serialized bytes of in-flight messages
+	 * @return the bytes of in-flight messages (0 if the bytes are not limited)
+	 */
+	public int getInFlightBytes() {
+		return (bytePermits == null)? 0 : maxInFlightBytes - bytePermits.availablePermits();
+	}
+
+	/**
+	 * Take a ticket for a message.
+	 * @param bytes The serialized size of the message (a message bigger than the byte limit takes the whole limit)
+	 * @return the ticket
+	 * @throws ShoverBackpressureException If a limit is reached (FAIL), the wait timed out or was interrupted (BLOCK)
+	 */
+	public Ticket acquire(int bytes) throws ShoverBackpressureException {
+		if (isUnlimited()) return UNLIMITED;
+
+		int ticketBytes = (bytePermits == null)? 0 : Math.min(Math.max(0, bytes), maxInFlightBytes);
+		long deadline = (timeoutMs > 0)? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : 0;
+
+		if (permits != null) acquire(permits, 1, deadline, "too many in-flight messages : " + maxInFlight);
+		if (bytePermits != null) {
+			try {
+				acquire(bytePermits, ticketBytes, deadline, "too many in-flight bytes : " + maxInFlightBytes);
+			} catch (ShoverBackpressureException e) {
+				if (permits != null) permits.release();
+				throw e;
+			}
+		}
+
+		return new Ticket(ticketBytes);
+	}
+
+	/**
+	 * Release the ticket of a completed message. Releasing a ticket again does nothing.
+	 * @param ticket A ticket
+	 */
+	public void release(Ticket ticket) {
+		if (ticket == UNLIMITED || !ticket.released.compareAndSet(false, true)) return;
+
+		if (permits != null) permits.release();
+		if (bytePermits != null) bytePermits.release(ticket.bytes);
+	}
+
+	private void acquire(Semaphore semaphore, int number, long deadline, String limitMessage) throws ShoverBackpressureException {
+		if (semaphore.tryAcquire(number)) return;
+
+		if (policy == BackpressurePolicy.FAIL) throw new ShoverBackpressureException(limitMessage);
+
+		try {
+			if (deadline > 0) {
+				if (!semaphore.tryAcquire(number, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+					throw new ShoverBackpressureException("timed out waiting for in-flight messages : " + timeoutMs + "ms");
+				}
+			} else {
+				semaphore.acquire(number);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ShoverBackpressureException("interrupted waiting for in-flight messages", e);
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.conquernos.shover.config;
+
+
+import org.conquernos.shover.exceptions.config.ShoverConfigException;
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+import java.util.Properties;
+
+
+/**
+ * Named combinations of Kafka producer settings. (ex. producer.preset=throughput)
+ * The 'producer.*' properties of the config file are applied over the preset.
+ */
+public enum ProducerPreset {
+
+	/**
+	 * Large compressed batches with a short linger, for bulk logs
+	 */
+	THROUGHPUT {
+		@Override
+		void apply(Properties properties) {
+			properties.put(ProducerConfig.BATCH_SIZE_CONFIG, "262144");
+			properties.put(ProducerConfig.LINGER_MS_CONFIG, "20");
+			properties.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+			properties.put(ProducerConfig.BUFFER_MEMORY_CONFIG, "67108864");
+			properties.put(ProducerConfig.ACKS_CONFIG, "1");
+			properties.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "5");
+		}
+	},
+
+	/**
+	 * No linger and no compression, for alerts
+	 */
+	LATENCY {
+		@Override
+		void apply(Properties properties) {
+			properties.put(ProducerConfig.BATCH_SIZE_CONFIG, "16384");
+			properties.put(ProducerConfig.LINGER_MS_CONFIG, "0");
+			properties.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "none");
+			properties.put(ProducerConfig.ACKS_CONFIG, "1");
+		}
+	},
+
+	/**
+	 * Acks from all in-sync replicas and retries without reordering
+	 */
+	DURABILITY {
+		@Override
+		void apply(Properties properties) {
+			properties.put(ProducerConfig.ACKS_CONFIG, "all");
+			properties.put(ProducerConfig.RETRIES_CONFIG, String.valueOf(Integer.MAX_VALUE));
+			properties.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "1");
+			properties.put(ProducerConfig.LINGER_MS_CONFIG, "5");
+			properties.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+		}
+	};
+
+	abstract void apply(Properties properties);
+
+	public static ProducerPreset of(String name) {
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new ShoverConfigException("unknown producer preset '" + name + "' (throughput, latency, durability)", e);
+		}
+	}
+
+}
@@ -1,14 +1,19 @@
 package org.conquernos.shover.config;
 
 
+import org.conquernos.shover.backpressure.BackpressurePolicy;
+import org.conquernos.shover.producer.ProducerRouting;
 import org.conquernos.shover.exceptions.config.ShoverConfigException;
 import org.conquernos.shover.schema.Subject;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.utils.Utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import static org.conquernos.shover.utils.StringUtils.*;
 
@@ -23,28 +28,116 @@ public class ShoverConfig {
 	private static final String PROP_BROKERS = "brokers";
 	private static final String PROP_SCHEMA_REGISTRY_URL = "schema.registry.url";
 	private static final String PROP_MESSAGE_FLUSH_SIZE = "message.flush.size";
+	private static final String PROP_MESSAGE_MAP_STRING_COERCION = "message.map.string.coercion";
+	private static final String PROP_FLUSH_INTERVAL_MS = "flush.interval.ms";
+	private static final String PROP_FLUSH_MAX_BYTES = "flush.max.bytes";
 	private static final String PROP_SHUTDOWN_TIMEOUT = "shutdown.timeout";
+	private static final String PROP_SEND_MAX_IN_FLIGHT = "send.max.in.flight";
+	private static final String PROP_SEND_MAX_IN_FLIGHT_BYTES = "send.max.in.flight.bytes";
+	private static final String PROP_SEND_BACKPRESSURE_POLICY = "send.backpressure.policy";
+	private static final String PROP_SEND_BACKPRESSURE_TIMEOUT_MS = "send.backpressure.timeout.ms";
+	private static final String PROP_SCHEMA_REFRESH_INTERVAL_MS = "schema.refresh.interval.ms";
+	private static final String PROP_SCHEMA_LAZY_LOADING = "schema.lazy.loading";
+	private static final String PROP_SCHEMA_NEGATIVE_CACHE_SIZE = "schema.negative.cache.size";
+	private static final String PROP_SCHEMA_NEGATIVE_CACHE_TTL_MS = "schema.negative.cache.ttl.ms";
+	private static final String PROP_SCHEMA_SNAPSHOT_FILE = "schema.snapshot.file";
+	private static final String PROP_SCHEMA_SNAPSHOT_MAX_AGE_MS = "schema.snapshot.max.age.ms";
+	private static final String PROP_SCHEMA_BOOTSTRAP_PARALLELISM = "schema.bootstrap.parallelism";
+	private static final String PROP_SCHEMA_REGISTRY_CACHE_SIZE = "schema.registry.cache.size";
+	private static final String PROP_SCHEMA_REGISTRY_LATEST_TTL_MS = "schema.registry.latest.ttl.ms";
+	private static final String PROP_SPILL_DIR = "spill.dir";
+	private static final String PROP_SPILL_SEGMENT_BYTES = "spill.segment.bytes";
+	private static final String PROP_SPILL_SYNC_INTERVAL_MS = "spill.sync.interval.ms";
+	private static final String PROP_SPILL_REPLAY_INTERVAL_MS = "spill.replay.interval.ms";
+
+	// Kafka producer settings are forwarded from the 'producer.' namespace (ex. producer.linger.ms=10)
+	private static final String PROP_PRODUCER_PREFIX = "producer.";
+	private static final String PROP_PRODUCER_PRESET = PROP_PRODUCER_PREFIX + "preset";
+	private static final String PROP_PRODUCER_INSTANCES = PROP_PRODUCER_PREFIX + "instances";
+	private static final String PROP_PRODUCER_ROUTING = PROP_PRODUCER_PREFIX + "routing";
+
+	// shover settings in the 'producer.' namespace (not forwarded)
+	private static final Set<String> SHOVER_PRODUCER_PATHS = new HashSet<>(Arrays.asList(
+		PROP_PRODUCER_PRESET, PROP_PRODUCER_INSTANCES, PROP_PRODUCER_ROUTING));
+
+	// producer settings which are managed by the shover
+	private static final Set<String> MANAGED_PRODUCER_CONFIGS = new HashSet<>(Arrays.asList(
+		ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG));
 
 	private final Subject[] subjects;
 	private final String schemaRegistryUrl;
 	private final int messageFlushSize;
+	private final boolean messageMapStringCoercion;
+	private final int flushIntervalMs;
+	private final long flushMaxBytes;
 	private final int shutdownTimeout;
+	private final int sendMaxInFlight;
+	private final long sendMaxInFlightBytes;
+	private final BackpressurePolicy sendBackpressurePolicy;
+	private final long sendBackpressureTimeoutMs;
+	private final long schemaRefreshIntervalMs;
+	private final boolean schemaLazyLoading;
+	private final int schemaNegativeCacheSize;
+	private final long schemaNegativeCacheTtlMs;
+	private final String schemaSnapshotFile;
+	private final long schemaSnapshotMaxAgeMs;
+	private final int schemaBootstrapParallelism;
+	private final int schemaRegistryCacheSize;
+	private final long schemaRegistryLatestTtlMs;
+	private final String spillDir;
+	private final int spillSegmentBytes;
+	private final long spillSyncIntervalMs;
+	private final long spillReplayIntervalMs;
 
 	private final String brokers;
 	private final String keySerializer;
 	private final String valueSerializer;
 
+	private final ProducerPreset producerPreset;
+	private final int producerInstances;
+	private final ProducerRouting producerRouting;
+	private final Properties producerOverrides;
+
 	public ShoverConfig(String configFilePath) {
 		try {
 			properties = Utils.loadProps(configFilePath);
 			subjects = toSubjects(getStringListFromConfig(properties, PROP_TOPICS, true));
 			schemaRegistryUrl = getStringFromConfig(properties, PROP_SCHEMA_REGISTRY_URL, true);
 			messageFlushSize = getIntegerFromConfig(properties, PROP_MESSAGE_FLUSH_SIZE, 100);
+			messageMapStringCoercion = getBooleanFromConfig(properties, PROP_MESSAGE_MAP_STRING_COERCION, false);
+			flushIntervalMs = getIntegerFromConfig(properties, PROP_FLUSH_INTERVAL_MS, 1000);
+			flushMaxBytes = getLongFromConfig(properties, PROP_FLUSH_MAX_BYTES, 0L);
 			shutdownTimeout = getIntegerFromConfig(properties, PROP_SHUTDOWN_TIMEOUT, 3);
+			sendMaxInFlight = getIntegerFromConfig(properties, PROP_SEND_MAX_IN_FLIGHT, 0);
+			sendMaxInFlightBytes = getLongFromConfig(properties, PROP_SEND_MAX_IN_FLIGHT_BYTES, 0L);
+			sendBackpressurePolicy = BackpressurePolicy.of(getStringFromConfig(properties, PROP_SEND_BACKPRESSURE_POLICY, "block"));
+			sendBackpressureTimeoutMs = getLongFromConfig(properties, PROP_SEND_BACKPRESSURE_TIMEOUT_MS, 0L);
+			schemaRefreshIntervalMs = getLongFromConfig(properties, PROP_SCHEMA_REFRESH_INTERVAL_MS, 0L);
+			schemaLazyLoading = getBooleanFromConfig(properties, PROP_SCHEMA_LAZY_LOADING, false);
+			schemaNegativeCacheSize = getIntegerFromConfig(properties, PROP_SCHEMA_NEGATIVE_CACHE_SIZE, 1000);
+			schemaNegativeCacheTtlMs = getLongFromConfig(properties, PROP_SCHEMA_NEGATIVE_CACHE_TTL_MS, 60000L);
+			schemaSnapshotFile = getStringFromConfig(properties, PROP_SCHEMA_SNAPSHOT_FILE, false);
+			schemaSnapshotMaxAgeMs = getLongFromConfig(properties, PROP_SCHEMA_SNAPSHOT_MAX_AGE_MS, 3600000L);
+			schemaBootstrapParallelism = getIntegerFromConfig(properties, PROP_SCHEMA_BOOTSTRAP_PARALLELISM, 8);
+			schemaRegistryCacheSize = getIntegerFromConfig(properties, PROP_SCHEMA_REGISTRY_CACHE_SIZE, 1000);
+			schemaRegistryLatestTtlMs = getLongFromConfig(properties, PROP_SCHEMA_REGISTRY_LATEST_TTL_MS, 5000L);
+			spillDir = getStringFromConfig(properties, PROP_SPILL_DIR, false);
+			spillSegmentBytes = getIntegerFromConfig(properties, PROP_SPILL_SEGMENT_BYTES, 64 * 1024 * 1024);
+			spillSyncIntervalMs = getLongFromConfig(properties, PROP_SPILL_SYNC_INTERVAL_MS, 1000L);
+			spillReplayIntervalMs = getLongFromConfig(properties, PROP_SPILL_REPLAY_INTERVAL_MS, 5000L);
 
 			brokers = getStringFromConfig(properties, PROP_BROKERS, true);
-			keySerializer = "io.confluent.kafka.serializers.KafkaAvroSerializer";
-			valueSerializer = "io.confluent.kafka.serializers.KafkaAvroSerializer";
+			// records are serialized by the shover with the cached schema ids
+			keySerializer = "org.apache.kafka.common.serialization.ByteArraySerializer";
+			valueSerializer = "org.apache.kafka.common.serialization.ByteArraySerializer";
+
+			String preset = getStringFromConfig(properties, PROP_PRODUCER_PRESET, false);
+			producerPreset = (preset == null)? null : ProducerPreset.of(preset);
+			producerInstances = getIntegerFromConfig(properties, PROP_PRODUCER_INSTANCES, 1);
+			producerRouting = ProducerRouting.of(getStringFromConfig(properties, PROP_PRODUCER_ROUTING, "thread"));
+			producerOverrides = toProducerOverrides(properties);
+		} catch (ShoverConfigException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new ShoverConfigException(e);
 		}
@@ -62,10 +155,90 @@ public class ShoverConfig {
 		return messageFlushSize;
 	}
 
+	public boolean isMessageMapStringCoercion() {
+		return messageMapStringCoercion;
+	}
+
+	public int getFlushIntervalMs() {
+		return flushIntervalMs;
+	}
+
+	public long getFlushMaxBytes() {
+		return flushMaxBytes;
+	}
+
 	public int getShutdownTimeout() {
 		return shutdownTimeout;
 	}
 
+	public int getSendMaxInFlight() {
+		return sendMaxInFlight;
+	}
+
+	public long getSendMaxInFlightBytes() {
+		return sendMaxInFlightBytes;
+	}
+
+	public BackpressurePolicy getSendBackpressurePolicy() {
+		return sendBackpressurePolicy;
+	}
+
+	public long getSendBackpressureTimeoutMs() {
+		return sendBackpressureTimeoutMs;
+	}
+
+	public long getSchemaRefreshIntervalMs() {
+		return schemaRefreshIntervalMs;
+	}
+
+	public boolean isSchemaLazyLoading() {
+		return schemaLazyLoading;
+	}
+
+	public int getSchemaNegativeCacheSize() {
+		return schemaNegativeCacheSize;
+	}
+
+	public long getSchemaNegativeCacheTtlMs() {
+		return schemaNegativeCacheTtlMs;
+	}
+
+	public String getSchemaSnapshotFile() {
+		return schemaSnapshotFile;
+	}
+
+	public long getSchemaSnapshotMaxAgeMs() {
+		return schemaSnapshotMaxAgeMs;
+	}
+
+	public int getSchemaBootstrapParallelism() {
+		return schemaBootstrapParallelism;
+	}
+
+	public int getSchemaRegistryCacheSize() {
+		return schemaRegistryCacheSize;
+	}
+
+	public long getSchemaRegistryLatestTtlMs() {
+		return schemaRegistryLatestTtlMs;
+	}
+
+	public String getSpillDir() {
+		return spillDir;
+	}
+
+	public int getSpillSegmentBytes() {
+		return spillSegmentBytes;
+	}
+
+	public long getSpillSyncIntervalMs() {
+		return spillSyncIntervalMs;
+	}
+
+	public long getSpillReplayIntervalMs() {
+		return spillReplayIntervalMs;
+	}
+
 	private String getBrokers() {
 		return brokers;
 	}
@@ -78,16 +251,79 @@ public class ShoverConfig {
 		return valueSerializer;
 	}
 
+	public ProducerPreset getProducerPreset() {
+		return producerPreset;
+	}
+
+	public int getProducerInstances() {
+		return producerInstances;
+	}
+
+	public ProducerRouting getProducerRouting() {
+		return producerRouting;
+	}
+
+	/**
+	 * Get the properties for the Kafka producer.
+	 * The settings of the preset are overridden by the 'producer.*' settings, and then by the managed settings.
+	 * @return producer properties
+	 */
 	public Properties getProducerProperties() {
+		return getProducerProperties(null, null);
+	}
+
+	/**
+	 * Get the properties for the Kafka producer of an instance which has its own producer settings.
+	 * The settings of the preset (or the preset of the config if null) are overridden by the 'producer.*' settings,
+	 * by the given overrides, and then by the managed settings.
+	 * @param preset A preset instead of 'producer.preset' (nullable)
+	 * @param overrides Kafka producer settings (ex. linger.ms=0) over the 'producer.*' settings (nullable)
+	 * @return producer properties
+	 * @throws ShoverConfigException If an override is not a producer config or is managed by the shover
+	 */
+	public Properties getProducerProperties(ProducerPreset preset, Properties overrides) {
 		Properties properties = new Properties();
+		if (preset == null) preset = producerPreset;
+		if (preset != null) preset.apply(properties);
+		properties.putAll(producerOverrides);
+		if (overrides != null) {
+			for (String name : overrides.stringPropertyNames()) {
+				checkProducerConfig(name, name);
+				properties.put(name, overrides.getProperty(name));
+			}
+		}
+
 		properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, getBrokers());
 		properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, getKeySerializer());
 		properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, getValueSerializer());
-		properties.put("schema.registry.url", getSchemaRegistryUrl());
 
 		return properties;
 	}
 
+	private static Properties toProducerOverrides(Properties config) {
+		Properties overrides = new Properties();
+		for (String path : config.stringPropertyNames()) {
+			if (!path.startsWith(PROP_PRODUCER_PREFIX) || SHOVER_PRODUCER_PATHS.contains(path)) continue;
+
+			String name = path.substring(PROP_PRODUCER_PREFIX.length());
+			checkProducerConfig(name, path);
+
+			String value = getStringFromConfig(config, path, true);
+			overrides.put(name, value);
+		}
+
+		return overrides;
+	}
+
+	private static void checkProducerConfig(String name, String path) {
+		if (!ProducerConfig.configNames().contains(name)) {
+			throw new ShoverConfigException("unknown producer config '" + name + "' in the path '" + path + "'");
+		}
+		if (MANAGED_PRODUCER_CONFIGS.contains(name)) {
+			throw new ShoverConfigException("the producer config '" + name + "' is managed by the shover");
+		}
+	}
+
 	private Subject[] toSubjects(List<String> topics) {
 		Subject[] subjects = new Subject[topics.size()];
 
@@ -158,6 +394,36 @@ public class ShoverConfig {
 		}
 	}
 
+	protected static Long getLongFromConfig(Properties config, String path, Long defaultValue) {
+		Long value = getLongFromConfig(config, path, false);
+		return (value == null)? defaultValue : value;
+	}
+
+	protected static Long getLongFromConfig(Properties config, String path, boolean notNull) {
+		String value = getStringFromConfig(config, path, notNull);
+		if (value == null) return null;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new ShoverConfigException.WrongTypeValue(path);
+		}
+	}
+
+	protected static Boolean getBooleanFromConfig(Properties config, String path, Boolean defaultValue) {
+		Boolean value = getBooleanFromConfig(config, path, false);
+		return (value == null)? defaultValue : value;
+	}
+
+	protected static Boolean getBooleanFromConfig(Properties config, String path, boolean notNull) {
+		String value = getStringFromConfig(config, path, notNull);
+		if (value == null) return null;
+
+		if (value.equalsIgnoreCase("true")) return true;
+		if (value.equalsIgnoreCase("false")) return false;
+
+		throw new ShoverConfigException.WrongTypeValue(path);
+	}
+
 	protected static Double getDoubleFromConfig(Properties config, String path, Double defaultValue) {
 		Double value = getDoubleFromConfig(config, path, false);
 		return (value == null)? defaultValue : value;
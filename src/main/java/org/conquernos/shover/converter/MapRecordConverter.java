@@ -0,0 +1,441 @@
+package org.conquernos.shover.converter;
+
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericEnumSymbol;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.GenericRecord;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A compiled converter that copies a typed map (ex. parsed from json) into a record of a schema.
+ * The schema is analyzed only one time into a plan of per-field converters, and the values are put
+ * as they are (Integer, Long, Double, String, ..., nested Map for a record or a map, List for an array)
+ * without being formatted to strings and parsed back.
+ * A numeric value may be given as any integral (int, long) or any number (float, double) that fits.
+ * With the string coercion, a string is also parsed for a number or a boolean and any value is accepted for a string.
+ * A key which is not a field of the schema is rejected (as {@link org.conquernos.shover.arvo.decoder.MapDecoder} does),
+ * and a missing field takes its default (null if it has none).
+ * A branch of a union is picked by the type of the value, the first branch of the exact type or else the first one it converts to.
+ */
+public class MapRecordConverter {
+
+	private interface ValueConverter {
+		Object convert(Object value);
+	}
+
+	// schema -> converter
+	private static final ConcurrentMap<Schema, MapRecordConverter> converters = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<Schema, MapRecordConverter> coercingConverters = new ConcurrentHashMap<>();
+
+	private final Schema schema;
+
+	private final boolean stringCoercion;
+
+	private final RecordPlan plan;
+
+	// plans of the records being compiled (for the recursive schemas)
+	private final Map<Schema, RecordPlan> compiling = new IdentityHashMap<>();
+
+
+	private MapRecordConverter(Schema schema, boolean stringCoercion) {
+		if (schema.getType() != Schema.Type.RECORD) throw new IllegalArgumentException("not a record schema : " + schema);
+
+		this.schema = schema;
+		this.stringCoercion = stringCoercion;
+		this.plan = recordPlan(schema);
+		compiling.clear();
+	}
+
+	/**
+	 * Get the converter of the schema. It is compiled at the first call and cached.
+	 * @param schema A record schema
+	 * @param stringCoercion Whether string values are parsed to the types of the fields (and any value is accepted as a string)
+	 * @return the cached converter
+	 */
+	public static MapRecordConverter get(Schema schema, boolean stringCoercion) {
+		ConcurrentMap<Schema, MapRecordConverter> schemaConverters = stringCoercion? coercingConverters : converters;
+		MapRecordConverter converter = schemaConverters.get(schema);
+		if (converter == null) {
+			converter = new MapRecordConverter(schema, stringCoercion);
+			MapRecordConverter prev = schemaConverters.putIfAbsent(schema, converter);
+			if (prev != null) converter = prev;
+		}
+
+		return converter;
+	}
+
+	public Schema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Copy the values of the map into a new record.
+	 * @param message A map of the field names to the values
+	 * @return the record
+	 * @throws IllegalArgumentException If a value does not match the type of its field, or a key is not a field
+	 */
+	public GenericRecord convert(Map<String, ?> message) {
+		return plan.convert(message);
+	}
+
+	private class RecordPlan implements ValueConverter {
+
+		private final Schema schema;
+		private final String[] names;
+		private final Schema[] fieldSchemas;
+		private final boolean[] hasDefaults;
+		private final Object[] defaults;
+		private final ValueConverter[] fieldConverters;
+
+		RecordPlan(Schema schema) {
+			this.schema = schema;
+			List<Schema.Field> fields = schema.getFields();
+			names = new String[fields.size()];
+			fieldSchemas = new Schema[fields.size()];
+			hasDefaults = new boolean[fields.size()];
+			defaults = new Object[fields.size()];
+			fieldConverters = new ValueConverter[fields.size()];
+		}
+
+		void compile() {
+			for (Schema.Field field : schema.getFields()) {
+				names[field.pos()] = field.name();
+				fieldSchemas[field.pos()] = field.schema();
+				if (field.defaultValue() != null) {
+					hasDefaults[field.pos()] = true;
+					defaults[field.pos()] = GenericData.get().getDefaultValue(field);
+				}
+				fieldConverters[field.pos()] = MapRecordConverter.this.compile(field.schema());
+			}
+		}
+
+		@Override
+		public Object convert(Object value) {
+			if (value instanceof GenericRecord) return value;
+			if (!(value instanceof Map)) throw mismatch(value, schema);
+
+			return convert((Map<?, ?>) value);
+		}
+
+		GenericRecord convert(Map<?, ?> map) {
+			GenericData.Record record = new GenericData.Record(schema);
+			int found = 0;
+			for (int pos = 0; pos < names.length; pos++) {
+				Object value = map.get(names[pos]);
+				boolean present = value != null || map.containsKey(names[pos]);
+				if (present) {
+					found++;
+				} else if (hasDefaults[pos]) {
+					// a copy, not to share a mutable default (record, array, map) between the records
+					record.put(pos, GenericData.get().deepCopy(fieldSchemas[pos], defaults[pos]));
+					continue;
+				}
+				try {
+					record.put(pos, fieldConverters[pos].convert(value));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(names[pos] + " : " + e.getMessage(), e);
+				}
+			}
+			if (found < map.size()) throw unknownField(map);
+
+			return record;
+		}
+
+		private IllegalArgumentException unknownField(Map<?, ?> map) {
+			for (Object key : map.keySet()) {
+				if (schema.getField(String.valueOf(key)) == null) {
+					return new IllegalArgumentException(key + " : not a field of " + schema.getFullName());
+				}
+			}
+
+			return new IllegalArgumentException("unknown fields in " + map.keySet());
+		}
+
+	}
+
+	private RecordPlan recordPlan(Schema schema) {
+		RecordPlan plan = compiling.get(schema);
+		if (plan == null) {
+			plan = new RecordPlan(schema);
+			compiling.put(schema, plan);
+			plan.compile();
+		}
+
+		return plan;
+	}
+
+	private ValueConverter compile(Schema schema) {
+		switch (schema.getType()) {
+			case NULL:
+				return value -> {
+					if (value != null) throw mismatch(value, schema);
+					return null;
+				};
+			case UNION:
+				return compileUnion(schema);
+			default:
+				ValueConverter converter = compileNotNull(schema);
+				return value -> {
+					if (value == null) throw new IllegalArgumentException("null (or missing) is not " + schema.getType());
+					return converter.convert(value);
+				};
+		}
+	}
+
+	private ValueConverter compileUnion(Schema schema) {
+		List<Schema> types = schema.getTypes();
+		int nullIndex = -1;
+		for (int idx = 0; idx < types.size(); idx++) {
+			if (types.get(idx).getType() == Schema.Type.NULL) nullIndex = idx;
+		}
+		int nullBranch = nullIndex;
+		boolean nullable = nullBranch >= 0;
+
+		// nullable two branches (the most common union)
+		if (nullable && types.size() == 2) {
+			ValueConverter converter = compile(types.get(1 - nullBranch));
+			return value -> (value == null)? null : converter.convert(value);
+		}
+
+		ValueConverter[] branches = new ValueConverter[types.size()];
+		for (int idx = 0; idx < types.size(); idx++) {
+			branches[idx] = compile(types.get(idx));
+		}
+		return value -> {
+			if (value == null) {
+				if (nullable) return null;
+				throw new IllegalArgumentException("null (or missing) is not " + schema);
+			}
+
+			int branch = resolveBranch(types, value);
+			if (branch < 0) throw mismatch(value, schema);
+			return branches[branch].convert(value);
+		};
+	}
+
+	/**
+	 * Pick the branch of a union for a value by its type (as GenericData.resolveUnion does),
+	 * so that no branch is tried by converting and failing.
+	 * @return the first branch of the exact type of the value, or else the first branch the value converts to, or -1
+	 */
+	private int resolveBranch(List<Schema> types, Object value) {
+		for (int idx = 0; idx < types.size(); idx++) {
+			if (isExact(types.get(idx), value)) return idx;
+		}
+		for (int idx = 0; idx < types.size(); idx++) {
+			if (isConvertible(types.get(idx), value)) return idx;
+		}
+
+		return -1;
+	}
+
+	private static boolean isExact(Schema schema, Object value) {
+		switch (schema.getType()) {
+			case RECORD:
+				if (value instanceof GenericRecord) return isSameName(((GenericRecord) value).getSchema(), schema);
+				return value instanceof Map;
+			case MAP:
+				return value instanceof Map;
+			case ARRAY:
+				return value instanceof Collection || value instanceof Object[];
+			case ENUM:
+				if (value instanceof GenericEnumSymbol) return isSameName(((GenericEnumSymbol) value).getSchema(), schema);
+				return (value instanceof CharSequence || value instanceof Enum) && schema.hasEnumSymbol(value.toString());
+			case FIXED:
+				if (value instanceof GenericFixed) return isSameName(((GenericFixed) value).getSchema(), schema);
+				return value instanceof byte[] && ((byte[]) value).length == schema.getFixedSize();
+			case BYTES:
+				return value instanceof ByteBuffer || value instanceof byte[];
+			case STRING:
+				return value instanceof CharSequence;
+			case BOOLEAN:
+				return value instanceof Boolean;
+			case INT:
+				return value instanceof Integer;
+			case LONG:
+				return value instanceof Long;
+			case FLOAT:
+				return value instanceof Float;
+			case DOUBLE:
+				return value instanceof Double;
+			default:
+				return false;
+		}
+	}
+
+	private boolean isConvertible(Schema schema, Object value) {
+		boolean coercible = stringCoercion && value instanceof CharSequence;
+		switch (schema.getType()) {
+			case STRING:
+				return stringCoercion;
+			case BOOLEAN:
+				return coercible && (value.toString().equals("true") || value.toString().equals("false"));
+			case INT:
+				if (isIntegral(value)) {
+					long val = ((Number) value).longValue();
+					return val >= Integer.MIN_VALUE && val <= Integer.MAX_VALUE;
+				}
+				return coercible && isParsable(value, Integer::valueOf);
+			case LONG:
+				return isIntegral(value) || coercible && isParsable(value, Long::valueOf);
+			case FLOAT:
+				return value instanceof Number || coercible && isParsable(value, Float::valueOf);
+			case DOUBLE:
+				return value instanceof Number || coercible && isParsable(value, Double::valueOf);
+			default:
+				return false;
+		}
+	}
+
+	private static boolean isSameName(Schema schema, Schema other) {
+		return schema.getFullName().equals(other.getFullName());
+	}
+
+	private ValueConverter compileNotNull(Schema schema) {
+		switch (schema.getType()) {
+			case RECORD:
+				return recordPlan(schema);
+			case MAP: {
+				ValueConverter valueConverter = compile(schema.getValueType());
+				return value -> {
+					if (!(value instanceof Map)) throw mismatch(value, schema);
+					Map<?, ?> map = (Map<?, ?>) value;
+					Map<String, Object> converted = new HashMap<>((int) (map.size() / 0.75f) + 1);
+					for (Map.Entry<?, ?> entry : map.entrySet()) {
+						converted.put(String.valueOf(entry.getKey()), valueConverter.convert(entry.getValue()));
+					}
+					return converted;
+				};
+			}
+			case ARRAY: {
+				ValueConverter elementConverter = compile(schema.getElementType());
+				return value -> {
+					GenericData.Array<Object> array;
+					if (value instanceof Collection) {
+						Collection<?> items = (Collection<?>) value;
+						array = new GenericData.Array<>(items.size(), schema);
+						for (Object item : items) array.add(elementConverter.convert(item));
+					} else if (value instanceof Object[]) {
+						Object[] items = (Object[]) value;
+						array = new GenericData.Array<>(items.length, schema);
+						for (Object item : items) array.add(elementConverter.convert(item));
+					} else {
+						throw mismatch(value, schema);
+					}
+					return array;
+				};
+			}
+			case ENUM:
+				return value -> {
+					if (value instanceof GenericEnumSymbol) return value;
+					String symbol = value.toString();
+					if (!(value instanceof CharSequence || value instanceof Enum) || !schema.hasEnumSymbol(symbol)) {
+						throw mismatch(value, schema);
+					}
+					return new GenericData.EnumSymbol(schema, symbol);
+				};
+			case FIXED:
+				return value -> {
+					if (value instanceof GenericFixed) return value;
+					if (!(value instanceof byte[]) || ((byte[]) value).length != schema.getFixedSize()) throw mismatch(value, schema);
+					return new GenericData.Fixed(schema, (byte[]) value);
+				};
+			case BYTES:
+				return value -> {
+					if (value instanceof ByteBuffer) return value;
+					if (value instanceof byte[]) return ByteBuffer.wrap((byte[]) value);
+					throw mismatch(value, schema);
+				};
+			case STRING:
+				return value -> {
+					if (value instanceof CharSequence) return value;
+					if (stringCoercion) return value.toString();
+					throw mismatch(value, schema);
+				};
+			case BOOLEAN:
+				return value -> {
+					if (value instanceof Boolean) return value;
+					if (stringCoercion && value instanceof CharSequence) {
+						String str = value.toString();
+						if (str.equals("true")) return Boolean.TRUE;
+						if (str.equals("false")) return Boolean.FALSE;
+					}
+					throw mismatch(value, schema);
+				};
+			case INT:
+				return value -> {
+					if (value instanceof Integer) return value;
+					if (isIntegral(value)) {
+						long val = ((Number) value).longValue();
+						if (val >= Integer.MIN_VALUE && val <= Integer.MAX_VALUE) return (int) val;
+					}
+					if (stringCoercion && value instanceof CharSequence) return parse(value, schema, Integer::valueOf);
+					throw mismatch(value, schema);
+				};
+			case LONG:
+				return value -> {
+					if (value instanceof Long) return value;
+					if (isIntegral(value)) return ((Number) value).longValue();
+					if (stringCoercion && value instanceof CharSequence) return parse(value, schema, Long::valueOf);
+					throw mismatch(value, schema);
+				};
+			case FLOAT:
+				return value -> {
+					if (value instanceof Float) return value;
+					if (value instanceof Number) return ((Number) value).floatValue();
+					if (stringCoercion && value instanceof CharSequence) return parse(value, schema, Float::valueOf);
+					throw mismatch(value, schema);
+				};
+			case DOUBLE:
+				return value -> {
+					if (value instanceof Double) return value;
+					if (value instanceof Number) return ((Number) value).doubleValue();
+					if (stringCoercion && value instanceof CharSequence) return parse(value, schema, Double::valueOf);
+					throw mismatch(value, schema);
+				};
+			default:
+				throw new IllegalArgumentException("unsupported schema type : " + schema.getType());
+		}
+	}
+
+	private interface Parser {
+		Object parse(String str);
+	}
+
+	private static Object parse(Object value, Schema schema, Parser parser) {
+		try {
+			return parser.parse(value.toString().trim());
+		} catch (NumberFormatException e) {
+			throw mismatch(value, schema);
+		}
+	}
+
+	private static boolean isParsable(Object value, Parser parser) {
+		try {
+			parser.parse(value.toString().trim());
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static boolean isIntegral(Object value) {
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+
+	private static IllegalArgumentException mismatch(Object value, Schema schema) {
+		return new IllegalArgumentException(value + " (" + value.getClass().getSimpleName() + ") is not " + schema);
+	}
+
+}
@@ -0,0 +1,106 @@
+package org.conquernos.shover.converter;
+
+
+import org.conquernos.shover.ShoverMessage;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A compiled converter that copies the member values of a {@link ShoverMessage} class into a record of a schema.
+ * The member values are looked up only one time per (message class, schema) and read by method handles,
+ * so a conversion makes no reflection call and allocates nothing but the record.
+ */
+public class ShoverMessageConverter {
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	// message class -> (schema -> converter)
+	private static final ClassValue<ConcurrentMap<Schema, ShoverMessageConverter>> converters =
+		new ClassValue<ConcurrentMap<Schema, ShoverMessageConverter>>() {
+			@Override
+			protected ConcurrentMap<Schema, ShoverMessageConverter> computeValue(Class<?> type) {
+				return new ConcurrentHashMap<>();
+			}
+		};
+
+	private final Class<?> clazz;
+
+	private final Schema schema;
+
+	// getters in the order of the schema positions
+	private final MethodHandle[] getters;
+
+
+	private ShoverMessageConverter(Class<?> clazz, Schema schema) throws NoSuchFieldException, IllegalAccessException {
+		this.clazz = clazz;
+		this.schema = schema;
+
+		List<Schema.Field> schemaFields = schema.getFields();
+		getters = new MethodHandle[schemaFields.size()];
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		for (Schema.Field schemaField : schemaFields) {
+			Field field = clazz.getField(schemaField.name());
+			field.setAccessible(true);
+			getters[schemaField.pos()] = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+		}
+	}
+
+	/**
+	 * Get the converter of the message class for the schema. It is created at the first call and cached.
+	 * @param clazz A message class
+	 * @param schema A record schema
+	 * @return the cached converter
+	 * @throws NoSuchFieldException If the message class does not have a public member for a field of the schema
+	 * @throws IllegalAccessException If a member of the message class is not accessible
+	 */
+	public static ShoverMessageConverter get(Class<?> clazz, Schema schema) throws NoSuchFieldException, IllegalAccessException {
+		ConcurrentMap<Schema, ShoverMessageConverter> schemaConverters = converters.get(clazz);
+		ShoverMessageConverter converter = schemaConverters.get(schema);
+		if (converter == null) {
+			converter = new ShoverMessageConverter(clazz, schema);
+			ShoverMessageConverter prev = schemaConverters.putIfAbsent(schema, converter);
+			if (prev != null) converter = prev;
+		}
+
+		return converter;
+	}
+
+	public boolean isConverterOf(Class<?> clazz) {
+		return this.clazz == clazz;
+	}
+
+	public Schema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Copy the member values of the message into a new record.
+	 * @param message A value object (its class has to be the class of this converter)
+	 * @return the record
+	 */
+	public GenericRecord convert(ShoverMessage message) {
+		GenericData.Record record = new GenericData.Record(schema);
+		try {
+			for (int pos = 0; pos < getters.length; pos++) {
+				record.put(pos, (Object) getters[pos].invokeExact((Object) message));
+			}
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+
+		return record;
+	}
+
+}
@@ -0,0 +1,35 @@
+package org.conquernos.shover.examples;
+
+
+import org.conquernos.shover.Shover;
+import org.conquernos.shover.config.ProducerPreset;
+import org.conquernos.shover.exceptions.ShoverException;
+
+public class ShoverMultiInstanceSample {
+
+	// each named instance has its own spill directory (spill.dir/name) and schema snapshot (schema.snapshot.file.name)
+
+	// no linger and no compression for alerts
+	public static final Shover alerts = Shover.builder()
+		.configFile("config/shover.conf")
+		.name("shover-alerts")
+		.producerPreset(ProducerPreset.LATENCY)
+		.build();
+
+	// large batches for bulk logs
+	public static final Shover logs = Shover.builder()
+		.configFile("config/shover.conf")
+		.name("shover-logs")
+		.producerPreset(ProducerPreset.THROUGHPUT)
+		.producerProperty("linger.ms", "50")
+		.build();
+
+	public static void main(String[] args) throws ShoverException {
+		alerts.send(new Object[]{"alert", 1, 1.0f});
+
+		for (int i=0; i<1000; i++) {
+			logs.send(new Object[]{"name-" + i, i, Float.valueOf(i + "." + i)});
+		}
+	}
+
+}
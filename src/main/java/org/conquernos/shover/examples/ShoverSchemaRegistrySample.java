@@ -2,7 +2,7 @@ package org.conquernos.shover.examples;
 
 
 import org.conquernos.shover.exceptions.ShoverException;
-import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
+import org.conquernos.shover.schema.ShoverSchemaRegistryClient;
 import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
 import org.apache.avro.Schema;
 
@@ -16,7 +16,7 @@ public class ShoverSchemaRegistrySample {
 		String subject = args[1];
 		String schemaJson = args[2];
 
-		CachedSchemaRegistryClient schemaRegistryClient = new CachedSchemaRegistryClient(host, 10);
+		ShoverSchemaRegistryClient schemaRegistryClient = new ShoverSchemaRegistryClient(host);
 
 //		String subject = "pTest";
 //		String schemaJson = "{" +
@@ -45,6 +45,12 @@ public class ShoverSchemaRegistrySample {
 		try {
 			int id = schemaRegistryClient.register(subject, schema);
 			System.out.println("registered schema id : " + id);
+
+			// the schema of the id is cached by the register, no request
+			System.out.println("schema of id " + id + " : " + schemaRegistryClient.getByID(id));
+			// requested once, and then cached
+			System.out.println("version : " + schemaRegistryClient.getVersion(subject, schema));
+			System.out.println("version : " + schemaRegistryClient.getVersion(subject, schema));
 		} catch (IOException e) {
 			e.printStackTrace();
 		} catch (RestClientException e) {
@@ -3,11 +3,10 @@ package org.conquernos.shover.examples;
 
 import org.conquernos.shover.Shover;
 import org.conquernos.shover.exceptions.ShoverException;
-import org.apache.commons.lang3.math.NumberUtils;
+import org.conquernos.shover.shipper.OffsetCheckpoint;
+import org.conquernos.shover.shipper.ShoverFileShipper;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 
 public class ShoverSendFileLogSample {
@@ -16,24 +15,16 @@ public class ShoverSendFileLogSample {
 
 	public static void main(String[] args) throws ShoverException, IOException {
 		String filePath = args[0];
+		String topic = args[1];
 		File file = new File(filePath);
 
-		BufferedReader input = new BufferedReader(new FileReader(file));
+		// resumed from the last acknowledged line
+		OffsetCheckpoint checkpoint = new OffsetCheckpoint(new File(filePath + ".offset"));
+		ShoverFileShipper shipper = new ShoverFileShipper(shover, topic, checkpoint);
+		long offset = shipper.ship(file);
 
-		String line;
-		while ((line = input.readLine()) != null) {
-			String[] strs = line.split("\\|");
-			Object[] values = new Object[strs.length];
-
-			for (int i=0; i<strs.length; i++) {
-				String str = strs[i];
-				values[i] = NumberUtils.isNumber(str)? Integer.parseInt(str) : str;
-			}
-
-			shover.send(values);
-		}
-
-		System.out.printf("# of messages : %d\n", shover.getNumberOfMessages());
+		System.out.printf("# of messages : %d, skipped lines : %d, offset : %d\n"
+			, shipper.getNumberOfShippedLines(), shipper.getNumberOfSkippedLines(), offset);
 	}
 
 }
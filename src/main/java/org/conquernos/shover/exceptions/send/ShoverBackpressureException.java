@@ -0,0 +1,16 @@
+package org.conquernos.shover.exceptions.send;
+
+
+import org.conquernos.shover.exceptions.ShoverException;
+
+public class ShoverBackpressureException extends ShoverException {
+
+	public ShoverBackpressureException(String message) {
+		super(message);
+	}
+
+	public ShoverBackpressureException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,15 @@
+package org.conquernos.shover.exceptions.send;
+
+
+import org.conquernos.shover.exceptions.ShoverException;
+
+/**
+ * The message was not delivered for now, but written to the spill log and will be delivered by the replay.
+ */
+public class ShoverSpilledException extends ShoverException {
+
+	public ShoverSpilledException(String topic, Throwable cause) {
+		super("message of " + topic + " was spilled", cause);
+	}
+
+}
@@ -0,0 +1,101 @@
+package org.conquernos.shover.flush;
+
+
+import org.conquernos.shover.stats.ShoverStats;
+import org.conquernos.shover.thread.runnable.InterruptibleRunner;
+import org.apache.kafka.clients.producer.Producer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A background runner that flushes the producer, so the send path never blocks on a flush.
+ * A flush is run every 'flush.interval.ms' if any message is pending,
+ * or as soon as the pending messages reach 'message.flush.size' or the estimated pending bytes reach 'flush.max.bytes'.
+ */
+public class ShoverFlusher extends InterruptibleRunner<Void> {
+
+	private static final Logger logger = LoggerFactory.getLogger(ShoverFlusher.class);
+
+	private final Producer<?, ?> producer;
+
+	private final ShoverStats stats;
+
+	private final long flushSize;
+	private final long flushMaxBytes;
+	private final long flushIntervalNanos;
+
+	private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+	private volatile Thread thread = null;
+
+
+	/**
+	 * @param producer A producer to flush
+	 * @param stats Stats of the producer
+	 * @param flushSize The number of pending messages that triggers a flush (0 : disabled)
+	 * @param flushMaxBytes The estimated pending bytes that trigger a flush (0 : disabled)
+	 * @param flushIntervalMs The interval of the time-based flush (0 : disabled)
+	 */
+	public ShoverFlusher(Producer<?, ?> producer, ShoverStats stats, long flushSize, long flushMaxBytes, long flushIntervalMs) {
+		this.producer = producer;
+		this.stats = stats;
+		this.flushSize = flushSize;
+		this.flushMaxBytes = flushMaxBytes;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+	}
+
+	/**
+	 * Check the flush thresholds after a send. It never blocks.
+	 */
+	public void messageSent() {
+		if ((flushSize > 0 && stats.getNumberOfPendingMessages() >= flushSize)
+			|| (flushMaxBytes > 0 && stats.getEstimatedPendingBytes() >= flushMaxBytes)) {
+			requestFlush();
+		}
+	}
+
+	/**
+	 * Wake up the flusher thread. It never blocks.
+	 */
+	public void requestFlush() {
+		if (flushRequested.compareAndSet(false, true)) {
+			Thread flusherThread = thread;
+			if (flusherThread != null) LockSupport.unpark(flusherThread);
+		}
+	}
+
+	@Override
+	public void run() {
+		thread = Thread.currentThread();
+
+		while (!isInterrupted()) {
+			if (!flushRequested.get()) {
+				if (flushIntervalNanos > 0) {
+					LockSupport.parkNanos(this, flushIntervalNanos);
+				} else {
+					LockSupport.park(this);
+				}
+			}
+
+			if (isInterrupted()) break;
+
+			flushRequested.set(false);
+			if (stats.getNumberOfPendingMessages() > 0) {
+				try {
+					producer.flush();
+				} catch (Exception e) {
+					if (isInterrupted()) break;
+					logger.error("producer flush error", e);
+				}
+			}
+		}
+
+		thread = null;
+	}
+
+}
@@ -0,0 +1,32 @@
+package org.conquernos.shover.producer;
+
+
+import org.conquernos.shover.exceptions.config.ShoverConfigException;
+
+
+/**
+ * How a record is routed to one of the producer instances ('producer.instances')
+ */
+public enum ProducerRouting {
+
+	/**
+	 * By the current thread, the records of a thread keep their order
+	 */
+	THREAD,
+
+	/**
+	 * By the hash of the topic and the partition (or the key), the records of a partition (and a key) keep their order.
+	 * A record without a partition and a key is given a partition of its topic in turn,
+	 * so the records of one topic are spread over the instances.
+	 */
+	TOPIC;
+
+	public static ProducerRouting of(String name) {
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new ShoverConfigException("unknown producer routing '" + name + "' (thread, topic)", e);
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+package org.conquernos.shover.producer;
+
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+
+/**
+ * Producer instances ('producer.instances') behind one producer, so the sends are not bound to
+ * the single I/O thread and the record accumulator of a producer.
+ * A record is routed to an instance by the {@link ProducerRouting}, and flush, close and metrics cover all the instances.
+ * In the {@link ProducerRouting#TOPIC} routing, a record without a partition and a key (as the shover sends)
+ * is given a partition of its topic in turn (as the default partitioner of the Kafka producer does) before it is routed,
+ * so the records of one topic are spread over the instances and the records of a partition keep their order.
+ */
+public class ShoverProducers implements Producer<byte[], byte[]> {
+
+	private final Producer<byte[], byte[]>[] producers;
+
+	private final ProducerRouting routing;
+
+	// topic -> the counter of the partitions given in turn
+	private final ConcurrentMap<String, AtomicInteger> partitionCounters = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Create the Kafka producers. If 'client.id' is set, the instances are named 'client.id-N'.
+	 * @param properties Properties of the Kafka producer
+	 * @param instances The number of producers
+	 * @param routing The routing of the records
+	 */
+	public ShoverProducers(Properties properties, int instances, ProducerRouting routing) {
+		this(properties, instances, routing, instanceProperties -> new KafkaProducer<>(instanceProperties));
+	}
+
+	/**
+	 * Create the producers by the factory. If 'client.id' is set, the instances are named 'client.id-N'.
+	 * If a producer could not be created, the producers which were created are closed.
+	 * @param properties Properties of the producer
+	 * @param instances The number of producers
+	 * @param routing The routing of the records
+	 * @param factory A factory of a producer from its properties (ex. KafkaProducer::new)
+	 */
+	@SuppressWarnings("unchecked")
+	public ShoverProducers(Properties properties, int instances, ProducerRouting routing
+		, Function<Properties, Producer<byte[], byte[]>> factory) {
+		if (instances < 1) throw new IllegalArgumentException("instances must be bigger than zero");
+
+		this.producers = new Producer[instances];
+		this.routing = routing;
+
+		String clientId = properties.getProperty(ProducerConfig.CLIENT_ID_CONFIG);
+		for (int idx = 0; idx < instances; idx++) {
+			Properties instanceProperties = properties;
+			if (clientId != null && instances > 1) {
+				instanceProperties = new Properties();
+				instanceProperties.putAll(properties);
+				instanceProperties.put(ProducerConfig.CLIENT_ID_CONFIG, clientId + "-" + idx);
+			}
+			try {
+				producers[idx] = factory.apply(instanceProperties);
+			} catch (RuntimeException | Error e) {
+				// the instances which were created have their I/O threads and connections
+				closeCreated(idx, e);
+				throw e;
+			}
+		}
+	}
+
+	private void closeCreated(int created, Throwable cause) {
+		for (int idx = 0; idx < created; idx++) {
+			try {
+				producers[idx].close(0, TimeUnit.MILLISECONDS);
+			} catch (RuntimeException e) {
+				cause.addSuppressed(e);
+			}
+		}
+	}
+
+	/**
+	 * Get a producer for the properties. It is a Kafka producer if only one instance.
+	 */
+	public static Producer<byte[], byte[]> of(Properties properties, int instances, ProducerRouting routing) {
+		if (instances <= 1) return new KafkaProducer<>(properties);
+
+		return new ShoverProducers(properties, instances, routing);
+	}
+
+	public int getNumberOfInstances() {
+		return producers.length;
+	}
+
+	private Producer<byte[], byte[]> route(ProducerRecord<byte[], byte[]> record) {
+		int hash;
+		if (routing == ProducerRouting.THREAD) {
+			hash = Long.hashCode(Thread.currentThread().getId());
+		} else {
+			hash = record.topic().hashCode() * 31;
+			if (record.partition() != null) {
+				hash += record.partition();
+			} else if (record.key() != null) {
+				hash += Arrays.hashCode(record.key());
+			}
+		}
+
+		return producers[(hash & Integer.MAX_VALUE) % producers.length];
+	}
+
+	/*
+	Give a partition to a record without a partition and a key in the topic routing,
+	the next available partition of the topic in turn (all the partitions if none is available).
+	The record is left as it is if the partitions of the topic are not known.
+	 */
+	private ProducerRecord<byte[], byte[]> partitioned(ProducerRecord<byte[], byte[]> record) {
+		if (routing != ProducerRouting.TOPIC || record.partition() != null || record.key() != null) return record;
+
+		List<PartitionInfo> partitions = producers[0].partitionsFor(record.topic());
+		if (partitions == null || partitions.isEmpty()) return record;
+
+		List<PartitionInfo> available = new ArrayList<>(partitions.size());
+		for (PartitionInfo partition : partitions) {
+			if (partition.leader() != null) available.add(partition);
+		}
+		if (available.isEmpty()) available = partitions;
+
+		AtomicInteger counter = partitionCounters.get(record.topic());
+		if (counter == null) counter = partitionCounters.computeIfAbsent(record.topic(), topic -> new AtomicInteger(0));
+		int partition = available.get((counter.getAndIncrement() & Integer.MAX_VALUE) % available.size()).partition();
+
+		return new ProducerRecord<>(record.topic(), partition, record.timestamp(), null, record.value());
+	}
+
+	@Override
+	public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record) {
+		ProducerRecord<byte[], byte[]> partitioned = partitioned(record);
+		return route(partitioned).send(partitioned);
+	}
+
+	@Override
+	public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record, Callback callback) {
+		ProducerRecord<byte[], byte[]> partitioned = partitioned(record);
+		return route(partitioned).send(partitioned, callback);
+	}
+
+	@Override
+	public void flush() {
+		for (Producer<byte[], byte[]> producer : producers) {
+			producer.flush();
+		}
+	}
+
+	@Override
+	public List<PartitionInfo> partitionsFor(String topic) {
+		return producers[0].partitionsFor(topic);
+	}
+
+	@Override
+	public Map<MetricName, ? extends Metric> metrics() {
+		Map<MetricName, Metric> metrics = new HashMap<>();
+		for (Producer<byte[], byte[]> producer : producers) {
+			metrics.putAll(producer.metrics());
+		}
+
+		return metrics;
+	}
+
+	@Override
+	public void close() {
+		for (Producer<byte[], byte[]> producer : producers) {
+			producer.close();
+		}
+	}
+
+	/**
+	 * Close all the instances within the timeout (not the timeout per instance).
+	 */
+	@Override
+	public void close(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Producer<byte[], byte[]> producer : producers) {
+			producer.close(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+	}
+
+}
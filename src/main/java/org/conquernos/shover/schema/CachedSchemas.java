@@ -1,36 +1,244 @@
 package org.conquernos.shover.schema;
 
 
+import org.conquernos.shover.config.ShoverConfig;
 import org.conquernos.shover.exceptions.schema.ShoverSchemaException;
+import org.conquernos.shover.exceptions.schema.ShoverSchemaNotExistException;
 import org.conquernos.shover.exceptions.schema.ShoverSchemaRegistryException;
+import org.conquernos.shover.thread.InterruptibleThreadFactory;
+import org.conquernos.shover.utils.BoundedCache;
 import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
 import org.apache.avro.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Schemas of subjects cached from the schema registry.
+ * Readers see an immutable snapshot without a lock, updates swap in a new snapshot (copy-on-write).
+ * In the lazy loading mode, a subject is fetched at its first use instead of at the start,
+ * concurrent first uses of a subject share one request and subjects that do not exist are cached for a while.
+ * If a snapshot file is set, the schemas are read from it first at the start, only stale subjects are fetched
+ * from the schema registry (in parallel), and the snapshot is written again after each successful load
+ * by a background writer, so neither a send nor a first use waits for the file.
+ * The refresh fetches without a lock and takes the lock only to swap in the new snapshot.
+ */
 public class CachedSchemas {
 
-	private final Map<Subject, Schema> subjectCache = new HashMap<>();
+	private static final Logger logger = LoggerFactory.getLogger(CachedSchemas.class);
 
-	private final String schemaRegistryUrl;
+	// error codes of the schema registry
+	private static final int SUBJECT_NOT_FOUND = 40401;
+	private static final int VERSION_NOT_FOUND = 40402;
+
+	// immutable snapshot
+	private volatile Map<Subject, RegisteredSchema> subjectCache;
+
+	private final SchemaRegistryClient client;
+
+	private final Object updateLock = new Object();
+
+	private final boolean lazyLoading;
+
+	// subjects which are being fetched by the first user
+	private final ConcurrentMap<Subject, CompletableFuture<RegisteredSchema>> loadingSubjects = new ConcurrentHashMap<>();
+
+	// subjects which do not exist in the schema registry
+	private final BoundedCache<Subject, Boolean> notExistSubjects;
+
+	// null : no snapshot
+	private final File snapshotFile;
+
+	// one writer thread of the snapshot file (null : no snapshot)
+	private final ExecutorService snapshotWriter;
+
+	// a write is waiting in the writer, the requests until it runs are coalesced
+	private final AtomicBoolean snapshotRequested = new AtomicBoolean(false);
 
 	public CachedSchemas(String schemaRegistryUrl, Subject[] subjects) throws ShoverSchemaException {
-		this.schemaRegistryUrl = schemaRegistryUrl;
+		this(new ShoverSchemaRegistryClient(schemaRegistryUrl), subjects, false, 1, 0, null, 0, 1);
+	}
+
+	public CachedSchemas(ShoverConfig config) throws ShoverSchemaException {
+		this(config, new ShoverSchemaRegistryClient(config.getSchemaRegistryUrl()
+			, config.getSchemaRegistryCacheSize(), config.getSchemaRegistryLatestTtlMs()));
+	}
+
+	/**
+	 * @param config A config
+	 * @param client A schema registry client (ex. a mock client for tests and benchmarks)
+	 */
+	public CachedSchemas(ShoverConfig config, SchemaRegistryClient client) throws ShoverSchemaException {
+		this(config, client, config.getSchemaSnapshotFile() == null? null : new File(config.getSchemaSnapshotFile()));
+	}
+
+	/**
+	 * @param config A config
+	 * @param client A schema registry client (ex. a mock client for tests and benchmarks)
+	 * @param snapshotFile A snapshot file instead of 'schema.snapshot.file' (ex. a file per shover instance, null : no snapshot)
+	 */
+	public CachedSchemas(ShoverConfig config, SchemaRegistryClient client, File snapshotFile) throws ShoverSchemaException {
+		this(client, config.getSubjects(), config.isSchemaLazyLoading()
+			, config.getSchemaNegativeCacheSize(), config.getSchemaNegativeCacheTtlMs()
+			, snapshotFile, config.getSchemaSnapshotMaxAgeMs(), config.getSchemaBootstrapParallelism());
+	}
+
+	private CachedSchemas(SchemaRegistryClient client, Subject[] subjects
+		, boolean lazyLoading, int negativeCacheSize, long negativeCacheTtlMs
+		, File snapshotFile, long snapshotMaxAgeMs, int bootstrapParallelism) throws ShoverSchemaException {
+		this.client = client;
+		this.lazyLoading = lazyLoading;
+		notExistSubjects = new BoundedCache<>(negativeCacheSize, negativeCacheTtlMs);
+		this.snapshotFile = snapshotFile;
+		snapshotWriter = (snapshotFile == null)? null
+			: Executors.newSingleThreadExecutor(new InterruptibleThreadFactory("shover-schema-snapshot", true));
+
+		SchemaSnapshot snapshot = readSnapshot();
+
+		// fresh schemas of the snapshot are used without fetching
+		Map<Subject, RegisteredSchema> cache = new HashMap<>();
+		List<Subject> staleSubjects = new ArrayList<>();
+		for (Subject subject : subjects) {
+			if (snapshot.isFresh(subject, snapshotMaxAgeMs)) {
+				cache.put(subject, snapshot.get(subject));
+			} else {
+				staleSubjects.add(subject);
+			}
+		}
+
+		// the others are loaded at the first use
+		if (lazyLoading) {
+			subjectCache = Collections.unmodifiableMap(cache);
+			return;
+		}
+
+		boolean allFetched;
+		try {
+			allFetched = fetchAll(staleSubjects, snapshot, cache, bootstrapParallelism);
+		} catch (ShoverSchemaException | RuntimeException e) {
+			close(0);
+			throw e;
+		}
+		subjectCache = Collections.unmodifiableMap(cache);
+
+		if (!staleSubjects.isEmpty() && allFetched) saveSnapshot();
+	}
+
+	private SchemaSnapshot readSnapshot() {
+		if (snapshotFile != null) {
+			try {
+				SchemaSnapshot snapshot = SchemaSnapshot.read(snapshotFile);
+				logger.info("schema snapshot was read : {}", snapshotFile);
+				return snapshot;
+			} catch (Exception e) {
+				logger.warn("schema snapshot is ignored : " + snapshotFile, e);
+			}
+		}
+
+		return SchemaSnapshot.empty();
+	}
+
+	/*
+	Write the snapshot on the writer thread. The writer takes the cache at the time of the write,
+	so the last request always writes the latest cache.
+	 */
+	private void saveSnapshot() {
+		if (snapshotWriter == null) return;
+		if (!snapshotRequested.compareAndSet(false, true)) return;
 
 		try {
-			ShoverSchemaRegistryClient client = new ShoverSchemaRegistryClient(schemaRegistryUrl);
+			snapshotWriter.execute(() -> {
+				snapshotRequested.set(false);
+				try {
+					SchemaSnapshot.write(snapshotFile, subjectCache);
+				} catch (IOException e) {
+					logger.warn("schema snapshot could not be written : " + snapshotFile, e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// closed
+			snapshotRequested.set(false);
+		}
+	}
+
+	/**
+	 * Stop the snapshot writer after the requested write.
+	 * @param timeoutMs The max time to wait for the write
+	 */
+	public void close(long timeoutMs) {
+		if (snapshotWriter == null) return;
+
+		snapshotWriter.shutdown();
+		try {
+			snapshotWriter.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	Fetch the subjects in parallel. A subject which failed uses the stale schema of the snapshot if exists.
+	Returns false if any stale schema is used.
+	 */
+	private boolean fetchAll(List<Subject> subjects, SchemaSnapshot snapshot
+		, Map<Subject, RegisteredSchema> cache, int parallelism) throws ShoverSchemaException {
+		if (subjects.isEmpty()) return true;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, subjects.size()))
+			, new InterruptibleThreadFactory("shover-schema-bootstrap", true));
+		try {
+			Map<Subject, Future<RegisteredSchema>> futures = new LinkedHashMap<>();
 			for (Subject subject : subjects) {
-				Schema schema;
-				if (subject.isLatestVersion()) {
-					schema = getLatestSchema(client, subject.getSubject());
-				} else {
-					schema = getSchema(client, subject);
+				futures.put(subject, executor.submit(() -> fetch(subject)));
+			}
+
+			boolean allFetched = true;
+			ShoverSchemaException failure = null;
+			for (Map.Entry<Subject, Future<RegisteredSchema>> entry : futures.entrySet()) {
+				Subject subject = entry.getKey();
+				try {
+					cache.put(subject, entry.getValue().get());
+				} catch (ExecutionException e) {
+					RegisteredSchema stale = snapshot.get(subject);
+					if (stale != null) {
+						logger.warn("schema of {} could not be fetched, the snapshot is used : {}", subject, e.getCause().toString());
+						cache.put(subject, stale);
+						allFetched = false;
+					} else if (failure == null) {
+						failure = (e.getCause() instanceof ShoverSchemaException)?
+							(ShoverSchemaException) e.getCause() : new ShoverSchemaRegistryException(e.getCause());
+					}
 				}
-				subjectCache.put(subject, schema);
 			}
-		} catch (Exception e) {
+
+			if (failure != null) throw failure;
+
+			return allFetched;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			throw new ShoverSchemaRegistryException(e);
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 
@@ -38,46 +246,176 @@ public class CachedSchemas {
 	Cached
 	 */
 	public Schema getCachedLatestSchema(String topic) {
-		return subjectCache.get(new Subject(topic));
+		return getCachedSchema(new Subject(topic));
 	}
 
 	/*
 	Cached
 	 */
 	public Schema getCachedSchema(Subject subject) {
+		RegisteredSchema registered = subjectCache.get(subject);
+		return (registered == null)? null : registered.getSchema();
+	}
+
+	public RegisteredSchema getCachedRegisteredSchema(Subject subject) {
 		return subjectCache.get(subject);
 	}
 
-	public void update() throws ShoverSchemaException {
-		ShoverSchemaRegistryClient client = new ShoverSchemaRegistryClient(schemaRegistryUrl);
+	/**
+	 * Get the schema of the subject.
+	 * In the lazy loading mode, a subject which is not cached is fetched from the schema registry.
+	 * @param subject A subject
+	 * @return the schema, or null if the subject does not exist (or is not cached in the eager mode)
+	 * @throws ShoverSchemaException If the schema registry failed
+	 */
+	public Schema getSchema(Subject subject) throws ShoverSchemaException {
+		RegisteredSchema registered = getRegisteredSchema(subject);
+		return (registered == null)? null : registered.getSchema();
+	}
+
+	public RegisteredSchema getRegisteredSchema(Subject subject) throws ShoverSchemaException {
+		RegisteredSchema registered = subjectCache.get(subject);
+		if (registered != null || !lazyLoading) return registered;
+
+		if (notExistSubjects.get(subject) != null) return null;
+
+		return load(subject);
+	}
+
+	private RegisteredSchema load(Subject subject) throws ShoverSchemaException {
+		CompletableFuture<RegisteredSchema> loading = new CompletableFuture<>();
+		CompletableFuture<RegisteredSchema> prev = loadingSubjects.putIfAbsent(subject, loading);
+		if (prev != null) return await(prev);
+
+		try {
+			// it may be loaded just before this request
+			RegisteredSchema registered = subjectCache.get(subject);
+			if (registered == null) {
+				registered = fetch(subject);
+				put(subject, registered);
+				logger.info("schema of {} was loaded : {}", subject, registered);
+				saveSnapshot();
+			}
+			loading.complete(registered);
+		} catch (ShoverSchemaNotExistException e) {
+			notExistSubjects.put(subject, Boolean.TRUE);
+			loading.complete(null);
+		} catch (ShoverSchemaException | RuntimeException e) {
+			loading.completeExceptionally(e);
+		} finally {
+			loadingSubjects.remove(subject, loading);
+		}
+
+		return await(loading);
+	}
+
+	private static RegisteredSchema await(CompletableFuture<RegisteredSchema> loading) throws ShoverSchemaException {
+		try {
+			return loading.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ShoverSchemaException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ShoverSchemaException) throw (ShoverSchemaException) e.getCause();
+			throw new ShoverSchemaException(e.getCause());
+		}
+	}
+
+	private void put(Subject subject, RegisteredSchema registered) {
+		synchronized (updateLock) {
+			Map<Subject, RegisteredSchema> next = new HashMap<>(subjectCache);
+			next.put(subject, registered);
+			subjectCache = Collections.unmodifiableMap(next);
+		}
+	}
+
+	/**
+	 * Re-fetch the schemas of the cached latest versions and swap in a new snapshot.
+	 * A fixed version never changes, so it is not fetched again.
+	 * The schemas are fetched without the lock, so the first uses of the other subjects are not blocked by the requests.
+	 * A schema whose id has not changed keeps its schema instance (so caches keyed by the schema stay valid)
+	 * and takes the new fetch time.
+	 * If a subject fails, its previous schema is kept and the others are still updated.
+	 * @return the number of changed subjects
+	 * @throws ShoverSchemaException If any subject failed (after the others were updated)
+	 */
+	public int update() throws ShoverSchemaException {
+		Map<Subject, RegisteredSchema> fetched = new HashMap<>();
+		ShoverSchemaException failure = null;
 		for (Subject subject : subjectCache.keySet()) {
+			if (!subject.isLatestVersion()) continue;
+
 			try {
-				subjectCache.put(subject, subject.isLatestVersion()
-					? getLatestSchema(client, subject.getSubject()) : getSchema(client, subject));
-			} catch (Exception e) {
-				throw new ShoverSchemaException(e);
+				fetched.put(subject, fetch(subject));
+			} catch (ShoverSchemaException e) {
+				if (failure == null) failure = e;
 			}
 		}
+
+		int changed = 0;
+		synchronized (updateLock) {
+			// the subjects which were loaded during the fetches are kept
+			Map<Subject, RegisteredSchema> next = new HashMap<>(subjectCache);
+			for (Map.Entry<Subject, RegisteredSchema> entry : fetched.entrySet()) {
+				Subject subject = entry.getKey();
+				RegisteredSchema current = next.get(subject);
+				RegisteredSchema latest = entry.getValue();
+				if (latest.getId() != current.getId()) {
+					next.put(subject, latest);
+					changed++;
+					logger.info("schema of {} was changed : {} -> {}", subject, current, latest);
+				} else {
+					next.put(subject, new RegisteredSchema(current.getId(), current.getVersion(), current.getSchema(), latest.getFetchedAt()));
+				}
+			}
+
+			if (!fetched.isEmpty()) subjectCache = Collections.unmodifiableMap(next);
+		}
+
+		if (failure != null) throw failure;
+
+		saveSnapshot();
+
+		return changed;
+	}
+
+	private RegisteredSchema fetch(Subject subject) throws ShoverSchemaException {
+		return subject.isLatestVersion()? getLatestSchema(subject) : getSchema(subject.getSubject(), subject.getVersion());
 	}
 
-	private Schema getLatestSchema(ShoverSchemaRegistryClient client, String subject) throws ShoverSchemaException {
+	private RegisteredSchema getLatestSchema(Subject subject) throws ShoverSchemaException {
 		SchemaMetadata meta;
 		try {
-			meta = client.getLatestSchemaMetadata(subject);
+			meta = client.getLatestSchemaMetadata(subject.getSubject());
+		} catch (RestClientException e) {
+			throw toSchemaException(subject, e);
 		} catch (Exception e) {
 			throw new ShoverSchemaException(e);
 		}
-		return new Schema.Parser().parse(meta.getSchema());
+		return toRegisteredSchema(meta);
 	}
 
-	private Schema getSchema(ShoverSchemaRegistryClient client, Subject subject) throws ShoverSchemaException {
+	private RegisteredSchema getSchema(String subject, int version) throws ShoverSchemaException {
 		SchemaMetadata meta;
 		try {
-			meta = client.getSchemaMetadata(subject.getSubject(), subject.getVersion());
+			meta = client.getSchemaMetadata(subject, version);
+		} catch (RestClientException e) {
+			throw toSchemaException(new Subject(subject, version), e);
 		} catch (Exception e) {
 			throw new ShoverSchemaException(e);
 		}
-		return new Schema.Parser().parse(meta.getSchema());
+		return toRegisteredSchema(meta);
+	}
+
+	private static ShoverSchemaException toSchemaException(Subject subject, RestClientException e) {
+		if (e.getErrorCode() == SUBJECT_NOT_FOUND || e.getErrorCode() == VERSION_NOT_FOUND) {
+			return new ShoverSchemaNotExistException("schema of " + subject + " does not exist", e);
+		}
+		return new ShoverSchemaRegistryException(e);
+	}
+
+	private static RegisteredSchema toRegisteredSchema(SchemaMetadata meta) {
+		return new RegisteredSchema(meta.getId(), meta.getVersion(), SchemaInterner.parse(meta.getSchema()));
 	}
 
 }
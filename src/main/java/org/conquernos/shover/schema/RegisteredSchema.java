@@ -0,0 +1,56 @@
+package org.conquernos.shover.schema;
+
+
+import org.apache.avro.Schema;
+
+
+/**
+ * A schema with its id and version in the schema registry, and the time it was fetched from the schema registry
+ */
+public class RegisteredSchema {
+
+	private final int id;
+	private final int version;
+	private final Schema schema;
+	private final long fetchedAt;
+
+	public RegisteredSchema(int id, int version, Schema schema) {
+		this(id, version, schema, System.currentTimeMillis());
+	}
+
+	public RegisteredSchema(int id, int version, Schema schema, long fetchedAt) {
+		this.id = id;
+		this.version = version;
+		this.schema = schema;
+		this.fetchedAt = fetchedAt;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public Schema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Get the time the schema was last fetched (or found unchanged) from the schema registry
+	 * @return the time in milliseconds
+	 */
+	public long getFetchedAt() {
+		return fetchedAt;
+	}
+
+	@Override
+	public String toString() {
+		return "RegisteredSchema{" +
+			"id=" + id +
+			", version=" + version +
+			'}';
+	}
+
+}
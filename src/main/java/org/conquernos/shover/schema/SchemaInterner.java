@@ -0,0 +1,96 @@
+package org.conquernos.shover.schema;
+
+
+import org.conquernos.shover.utils.BoundedCache;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import java.util.Arrays;
+
+
+/**
+ * A global pool of parsed schemas, so equal schemas of different subjects, versions and refreshes are one instance.
+ * The schemas are looked up by the 64-bit parsing fingerprint and then compared by their full json,
+ * because the fingerprint ignores docs and defaults (and Schema.equals ignores docs).
+ * A pooled schema is shared, so it must not be modified (ex. addProp).
+ */
+public final class SchemaInterner {
+
+	private static final int MAX_FINGERPRINTS = 10000;
+	private static final int MAX_PARSED_SCHEMAS = 1000;
+
+	private static class Pooled {
+		final Schema schema;
+		final String json;
+
+		Pooled(Schema schema, String json) {
+			this.schema = schema;
+			this.json = json;
+		}
+	}
+
+	// fingerprint -> schemas (usually one)
+	private static final BoundedCache<Long, Pooled[]> schemas = new BoundedCache<>(MAX_FINGERPRINTS);
+
+	// schema string -> pooled schema, to skip parsing the same string again
+	private static final BoundedCache<String, Schema> parsedSchemas = new BoundedCache<>(MAX_PARSED_SCHEMAS);
+
+	private static final Object lock = new Object();
+
+	private SchemaInterner() {
+	}
+
+	/**
+	 * Get the pooled schema which is equal to the schema. The schema is pooled if there is none.
+	 * @param schema A schema
+	 * @return the pooled schema
+	 */
+	public static Schema intern(Schema schema) {
+		long fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+		String json = schema.toString();
+		Schema pooled = find(schemas.get(fingerprint), schema, json);
+		if (pooled != null) return pooled;
+
+		synchronized (lock) {
+			Pooled[] candidates = schemas.get(fingerprint);
+			pooled = find(candidates, schema, json);
+			if (pooled != null) return pooled;
+
+			if (candidates == null) {
+				candidates = new Pooled[] {new Pooled(schema, json)};
+			} else {
+				candidates = Arrays.copyOf(candidates, candidates.length + 1);
+				candidates[candidates.length - 1] = new Pooled(schema, json);
+			}
+			schemas.put(fingerprint, candidates);
+		}
+
+		return schema;
+	}
+
+	/**
+	 * Parse a schema string into the pooled schema. A string which was parsed recently is not parsed again.
+	 * @param schemaString A schema in json
+	 * @return the pooled schema
+	 */
+	public static Schema parse(String schemaString) {
+		Schema schema = parsedSchemas.get(schemaString);
+		if (schema != null) return schema;
+
+		schema = intern(new Schema.Parser().parse(schemaString));
+		parsedSchemas.put(schemaString, schema);
+
+		return schema;
+	}
+
+	private static Schema find(Pooled[] candidates, Schema schema, String json) {
+		if (candidates == null) return null;
+
+		for (Pooled candidate : candidates) {
+			if (candidate.schema == schema || candidate.json.equals(json)) return candidate.schema;
+		}
+
+		return null;
+	}
+
+}
@@ -0,0 +1,49 @@
+package org.conquernos.shover.schema;
+
+
+import org.conquernos.shover.stats.ShoverStats;
+import org.conquernos.shover.thread.runnable.InterruptibleRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A background runner that polls the schema registry and updates the cached schemas without restart.
+ */
+public class SchemaRefresher extends InterruptibleRunner<Void> {
+
+	private static final Logger logger = LoggerFactory.getLogger(SchemaRefresher.class);
+
+	private final CachedSchemas cachedSchemas;
+
+	private final ShoverStats stats;
+
+	private final long refreshIntervalMs;
+
+
+	public SchemaRefresher(CachedSchemas cachedSchemas, ShoverStats stats, long refreshIntervalMs) {
+		this.cachedSchemas = cachedSchemas;
+		this.stats = stats;
+		this.refreshIntervalMs = refreshIntervalMs;
+	}
+
+	@Override
+	public void run() {
+		while (!isInterrupted()) {
+			try {
+				Thread.sleep(refreshIntervalMs);
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			try {
+				int changed = cachedSchemas.update();
+				stats.schemaRefreshed(changed);
+			} catch (Exception e) {
+				stats.schemaRefreshFailed();
+				logger.error("schema refresh error", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.conquernos.shover.schema;
+
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.avro.Schema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A local on-disk copy of the cached schemas, so the shover can start without fetching every subject
+ * (or while the schema registry is unavailable).
+ * <pre>
+ * { "savedAt" : 1500000000000, "subjects" : [ { "subject" : "topic", "version" : 0, "id" : 1, "schemaVersion" : 3
+ *   , "fetchedAt" : 1500000000000, "schema" : "..." }, ... ] }
+ * </pre>
+ * The version 0 means the latest version. The freshness of a schema is the time it was fetched,
+ * so a schema carried over from an older snapshot does not become fresh by being written again.
+ */
+public class SchemaSnapshot {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final long savedAt;
+
+	private final Map<Subject, RegisteredSchema> schemas;
+
+
+	private SchemaSnapshot(long savedAt, Map<Subject, RegisteredSchema> schemas) {
+		this.savedAt = savedAt;
+		this.schemas = schemas;
+	}
+
+	/**
+	 * Get an empty snapshot.
+	 * @return the empty snapshot
+	 */
+	public static SchemaSnapshot empty() {
+		return new SchemaSnapshot(0, Collections.<Subject, RegisteredSchema>emptyMap());
+	}
+
+	/**
+	 * Read a snapshot file.
+	 * @param file A snapshot file
+	 * @return the snapshot, or an empty snapshot if the file does not exist
+	 * @throws IOException If the file is broken
+	 */
+	public static SchemaSnapshot read(File file) throws IOException {
+		if (!file.exists()) return empty();
+
+		JsonNode root = mapper.readTree(file);
+		long savedAt = root.path("savedAt").asLong(0);
+		Map<Subject, RegisteredSchema> schemas = new HashMap<>();
+		for (JsonNode node : root.path("subjects")) {
+			Subject subject = new Subject(node.path("subject").asText(), node.path("version").asInt());
+			Schema schema = SchemaInterner.parse(node.path("schema").asText());
+			// a file without the fetch times is as old as the file
+			schemas.put(subject, new RegisteredSchema(node.path("id").asInt(), node.path("schemaVersion").asInt(), schema
+				, node.path("fetchedAt").asLong(savedAt)));
+		}
+
+		return new SchemaSnapshot(savedAt, schemas);
+	}
+
+	/**
+	 * Write the schemas to a snapshot file. The file is replaced atomically.
+	 * @param file A snapshot file
+	 * @param schemas Schemas of subjects
+	 * @throws IOException If the file could not be written
+	 */
+	public static void write(File file, Map<Subject, RegisteredSchema> schemas) throws IOException {
+		ObjectNode root = mapper.createObjectNode();
+		root.put("savedAt", System.currentTimeMillis());
+		ArrayNode subjects = root.putArray("subjects");
+		for (Map.Entry<Subject, RegisteredSchema> entry : schemas.entrySet()) {
+			ObjectNode node = subjects.addObject();
+			node.put("subject", entry.getKey().getSubject());
+			node.put("version", entry.getKey().getVersion());
+			node.put("id", entry.getValue().getId());
+			node.put("schemaVersion", entry.getValue().getVersion());
+			node.put("fetchedAt", entry.getValue().getFetchedAt());
+			node.put("schema", entry.getValue().getSchema().toString());
+		}
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.exists() && !dir.mkdirs() && !dir.exists()) {
+			throw new IOException("could not create the directory : " + dir);
+		}
+
+		// a temp file per write, so concurrent writers never write into the same file
+		Path temp = Files.createTempFile((dir != null)? dir.toPath() : Paths.get("."), file.getName(), ".tmp");
+		try {
+			mapper.writeValue(temp.toFile(), root);
+			try {
+				Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	public long getSavedAt() {
+		return savedAt;
+	}
+
+	public RegisteredSchema get(Subject subject) {
+		return schemas.get(subject);
+	}
+
+	/**
+	 * Check whether the schema of the subject can be used without fetching it again.
+	 * A fixed version never changes, the latest version is fresh until the max age since it was fetched.
+	 * @param subject A subject
+	 * @param maxAgeMs The max age of the latest versions
+	 * @return true if the snapshot has a fresh schema of the subject
+	 */
+	public boolean isFresh(Subject subject, long maxAgeMs) {
+		RegisteredSchema registered = schemas.get(subject);
+		if (registered == null) return false;
+
+		return !subject.isLatestVersion() || System.currentTimeMillis() - registered.getFetchedAt() < maxAgeMs;
+	}
+
+}
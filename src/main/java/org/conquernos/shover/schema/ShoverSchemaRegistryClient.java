@@ -1,5 +1,6 @@
 package org.conquernos.shover.schema;
 
+import org.conquernos.shover.utils.BoundedCache;
 import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
 import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
 import io.confluent.kafka.schemaregistry.client.rest.RestService;
@@ -10,41 +11,254 @@ import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientExcept
 import org.apache.avro.Schema;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 
+/**
+ * A schema registry client which caches the lookups, so a lookup costs a REST round trip and a schema parse only once.
+ * The schemas are cached by id, the versions by (subject, version), and the ids and versions of a schema
+ * by (subject, json of the schema). These never change in the schema registry, so they are only bounded by size.
+ * The latest version of a subject can change, so it is cached for 'latestTtlMs', and a schema registered by this client
+ * invalidates the latest version of its subject (also the one of a request which was in flight).
+ * Concurrent lookups of the same key wait for one request instead of sending their own.
+ */
 public class ShoverSchemaRegistryClient implements SchemaRegistryClient {
 
+	public static final int DEFAULT_CACHE_SIZE = 1000;
+	public static final long DEFAULT_LATEST_TTL_MS = 5000;
+
+	private interface Request<V> {
+		V send() throws IOException, RestClientException;
+	}
+
+	/*
+	The requests in flight by key, a request of the same key waits for the one in flight
+	 */
+	private static class Requests<K, V> {
+
+		private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+		V send(K key, Request<V> request) throws IOException, RestClientException {
+			CompletableFuture<V> future = new CompletableFuture<>();
+			CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+			if (running != null) return await(running);
+
+			try {
+				V value = request.send();
+				future.complete(value);
+				return value;
+			} catch (Throwable e) {
+				// the waiters get any failure, also an Error
+				future.completeExceptionally(e);
+				throw e;
+			} finally {
+				inFlight.remove(key, future);
+			}
+		}
+
+		// the next request of the key does not wait for the one in flight
+		void forget(K key) {
+			inFlight.remove(key);
+		}
+
+		private V await(CompletableFuture<V> future) throws IOException, RestClientException {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for the schema registry");
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) throw (IOException) cause;
+				if (cause instanceof RestClientException) throw (RestClientException) cause;
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw new IOException(cause);
+			}
+		}
+
+	}
+
+	/*
+	A schema of a subject, by the full json of the schema
+	(Schema.equals and the parsing fingerprint ignore docs, but the schema registry does not)
+	 */
+	private static class SchemaKey {
+
+		private final String subject;
+		private final String schema;
+
+		SchemaKey(String subject, Schema schema) {
+			this.subject = subject;
+			this.schema = schema.toString();
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * subject.hashCode() + schema.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+
+			if (obj instanceof SchemaKey) {
+				SchemaKey dest = (SchemaKey) obj;
+				return subject.equals(dest.subject) && schema.equals(dest.schema);
+			}
+
+			return false;
+		}
+
+	}
+
 	private final RestService restService;
 
+	private final BoundedCache<Integer, Schema> schemasById;
+
+	private final BoundedCache<Subject, SchemaMetadata> versions;
+
+	// null : the latest versions are not cached
+	private final BoundedCache<String, SchemaMetadata> latestVersions;
+
+	private final BoundedCache<SchemaKey, Integer> idsBySchema;
+
+	private final BoundedCache<SchemaKey, Integer> versionsBySchema;
+
+	private final Requests<Integer, Schema> schemaRequests = new Requests<>();
+
+	private final Requests<Subject, SchemaMetadata> versionRequests = new Requests<>();
+
+	private final Requests<SchemaKey, Integer> registerRequests = new Requests<>();
+
+	private final Requests<SchemaKey, Integer> lookUpRequests = new Requests<>();
+
+	// the number of the registrations, a latest version fetched across a registration may be older than the registered one
+	private final AtomicLong registrations = new AtomicLong(0);
+
+
 	public ShoverSchemaRegistryClient(String baseUrl) {
-		restService = new RestService(baseUrl);
+		this(baseUrl, DEFAULT_CACHE_SIZE, DEFAULT_LATEST_TTL_MS);
 	}
 
 	public ShoverSchemaRegistryClient(List<String> baseUrls) {
-		restService = new RestService(baseUrls);
+		this(baseUrls, DEFAULT_CACHE_SIZE, DEFAULT_LATEST_TTL_MS);
+	}
+
+	/**
+	 * @param baseUrl The url of the schema registry
+	 * @param cacheSize The maximum number of the entries of each cache
+	 * @param latestTtlMs The time to live of the latest versions (0 : not cached)
+	 */
+	public ShoverSchemaRegistryClient(String baseUrl, int cacheSize, long latestTtlMs) {
+		this(new RestService(baseUrl), cacheSize, latestTtlMs);
+	}
+
+	/**
+	 * @param baseUrls The urls of the schema registry
+	 * @param cacheSize The maximum number of the entries of each cache
+	 * @param latestTtlMs The time to live of the latest versions (0 : not cached)
+	 */
+	public ShoverSchemaRegistryClient(List<String> baseUrls, int cacheSize, long latestTtlMs) {
+		this(new RestService(baseUrls), cacheSize, latestTtlMs);
+	}
+
+	/**
+	 * @param restService The REST client of the schema registry
+	 * @param cacheSize The maximum number of the entries of each cache
+	 * @param latestTtlMs The time to live of the latest versions (0 : not cached)
+	 */
+	public ShoverSchemaRegistryClient(RestService restService, int cacheSize, long latestTtlMs) {
+		this.restService = restService;
+		schemasById = new BoundedCache<>(cacheSize);
+		versions = new BoundedCache<>(cacheSize);
+		latestVersions = (latestTtlMs > 0)? new BoundedCache<>(cacheSize, latestTtlMs) : null;
+		idsBySchema = new BoundedCache<>(cacheSize);
+		versionsBySchema = new BoundedCache<>(cacheSize);
 	}
 
 	public int register(String subject, Schema schema) throws IOException, RestClientException {
-		return restService.registerSchema(schema.toString(), subject);
+		SchemaKey key = new SchemaKey(subject, schema);
+		Integer cachedId = idsBySchema.get(key);
+		if (cachedId != null) return cachedId;
+
+		int id = registerRequests.send(key, () -> restService.registerSchema(schema.toString(), subject));
+		idsBySchema.put(key, id);
+		schemasById.putIfAbsent(id, SchemaInterner.intern(schema));
+		// a new version may be the latest one
+		if (latestVersions != null) {
+			registrations.incrementAndGet();
+			versionRequests.forget(new Subject(subject));
+			latestVersions.remove(subject);
+		}
+
+		return id;
 	}
 
 	public Schema getByID(int id) throws IOException, RestClientException {
-		SchemaString restSchema = restService.getId(id);
-		return new Schema.Parser().parse(restSchema.getSchemaString());
+		Schema schema = schemasById.get(id);
+		if (schema != null) return schema;
+
+		return schemaRequests.send(id, () -> {
+			Schema cachedSchema = schemasById.get(id);
+			if (cachedSchema != null) return cachedSchema;
+
+			SchemaString restSchema = restService.getId(id);
+			Schema parsed = SchemaInterner.parse(restSchema.getSchemaString());
+			schemasById.put(id, parsed);
+			return parsed;
+		});
 	}
 
 	public SchemaMetadata getLatestSchemaMetadata(String subject) throws IOException, RestClientException {
-		return toSchemaMetadata(restService.getLatestVersion(subject));
+		if (latestVersions == null) return toSchemaMetadata(restService.getLatestVersion(subject));
+
+		SchemaMetadata meta = latestVersions.get(subject);
+		if (meta != null) return meta;
+
+		// version 0 : the latest version
+		return versionRequests.send(new Subject(subject), () -> {
+			long registered = registrations.get();
+			SchemaMetadata latest = toSchemaMetadata(restService.getLatestVersion(subject));
+			latestVersions.put(subject, latest);
+			// a schema was registered while fetching, the fetched one may be older (removed after the put, so no race)
+			if (registrations.get() != registered) latestVersions.remove(subject);
+			versions.putIfAbsent(new Subject(subject, latest.getVersion()), latest);
+			return latest;
+		});
 	}
 
 	public SchemaMetadata getSchemaMetadata(String subject, int version) throws IOException, RestClientException {
-		return toSchemaMetadata(restService.getVersion(subject, version));
+		Subject key = new Subject(subject, version);
+		SchemaMetadata meta = versions.get(key);
+		if (meta != null) return meta;
+
+		return versionRequests.send(key, () -> {
+			SchemaMetadata cachedMeta = versions.get(key);
+			if (cachedMeta != null) return cachedMeta;
+
+			SchemaMetadata fetched = toSchemaMetadata(restService.getVersion(subject, version));
+			versions.put(key, fetched);
+			return fetched;
+		});
 	}
 
-	public int getVersion(String subject, Schema schema) throws IOException, RestClientException{
-		return restService.lookUpSubjectVersion(schema.toString(), subject).getVersion();
+	public int getVersion(String subject, Schema schema) throws IOException, RestClientException {
+		SchemaKey key = new SchemaKey(subject, schema);
+		Integer cachedVersion = versionsBySchema.get(key);
+		if (cachedVersion != null) return cachedVersion;
+
+		int version = lookUpRequests.send(key, () -> restService.lookUpSubjectVersion(schema.toString(), subject).getVersion());
+		versionsBySchema.put(key, version);
+
+		return version;
 	}
 
 	public boolean testCompatibility(String subject, Schema schema) throws IOException, RestClientException {
@@ -70,4 +284,3 @@ public class ShoverSchemaRegistryClient implements SchemaRegistryClient {
 	}
 
 }
-
@@ -0,0 +1,250 @@
+package org.conquernos.shover.serializer;
+
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.util.Utf8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+
+/**
+ * A writer plan of a record schema that encodes values in the order of the schema positions straight to Avro binary,
+ * without building an intermediate record.
+ * Primitive fields are written by type-specific writers (strings are encoded to UTF-8 in a reused buffer),
+ * complex fields (record, array, map) are written by a {@link GenericDatumWriter} of the field schema.
+ */
+public class PositionalRecordWriter {
+
+	/**
+	 * A buffer per thread for encoding strings
+	 */
+	public static class Scratch {
+
+		private byte[] bytes = new byte[256];
+
+		byte[] ensure(int size) {
+			if (bytes.length < size) bytes = new byte[Math.max(size, bytes.length * 2)];
+			return bytes;
+		}
+
+	}
+
+	private interface FieldWriter {
+		void write(Object value, Encoder out, Scratch scratch) throws IOException;
+	}
+
+	private final Schema schema;
+
+	private final String[] fieldNames;
+
+	// writers in the order of the schema positions
+	private final FieldWriter[] writers;
+
+
+	public PositionalRecordWriter(Schema schema) {
+		if (schema.getType() != Schema.Type.RECORD) throw new IllegalArgumentException("not a record schema : " + schema.getFullName());
+
+		this.schema = schema;
+
+		List<Schema.Field> fields = schema.getFields();
+		fieldNames = new String[fields.size()];
+		writers = new FieldWriter[fields.size()];
+		for (Schema.Field field : fields) {
+			fieldNames[field.pos()] = field.name();
+			writers[field.pos()] = newWriter(field.schema());
+		}
+	}
+
+	public Schema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Write the values as a record of the schema.
+	 * @param values Values that is in the order of their schema positions
+	 * @param out An encoder
+	 * @param scratch A buffer of the current thread
+	 * @throws IOException If the encoder failed
+	 */
+	public void write(Object[] values, Encoder out, Scratch scratch) throws IOException {
+		if (values.length < writers.length) {
+			throw new IllegalArgumentException("the schema has " + writers.length + " fields, but " + values.length + " values");
+		}
+
+		for (int pos = 0; pos < writers.length; pos++) {
+			try {
+				writers[pos].write(values[pos], out, scratch);
+			} catch (NullPointerException | ClassCastException e) {
+				throw new IllegalArgumentException("wrong value of the field '" + fieldNames[pos] + "' : " + values[pos], e);
+			}
+		}
+	}
+
+	private static FieldWriter newWriter(Schema fieldSchema) {
+		switch (fieldSchema.getType()) {
+			case NULL:
+				return (value, out, scratch) -> {
+					if (value != null) throw new ClassCastException("not null");
+					out.writeNull();
+				};
+			case BOOLEAN:
+				return (value, out, scratch) -> out.writeBoolean((Boolean) value);
+			case INT:
+				return (value, out, scratch) -> out.writeInt(toInt(value));
+			case LONG:
+				return (value, out, scratch) -> out.writeLong(toLong(value));
+			case FLOAT:
+				return (value, out, scratch) -> out.writeFloat(toFloat(value));
+			case DOUBLE:
+				return (value, out, scratch) -> out.writeDouble(toDouble(value));
+			case STRING:
+				return PositionalRecordWriter::writeString;
+			case BYTES:
+				return (value, out, scratch) -> {
+					if (value instanceof ByteBuffer) {
+						out.writeBytes((ByteBuffer) value);
+					} else {
+						byte[] bytes = (byte[]) value;
+						out.writeBytes(bytes, 0, bytes.length);
+					}
+				};
+			case ENUM:
+				return (value, out, scratch) -> {
+					String symbol = value.toString();
+					if (!fieldSchema.hasEnumSymbol(symbol)) throw new ClassCastException("unknown enum symbol : " + symbol);
+					out.writeEnum(fieldSchema.getEnumOrdinal(symbol));
+				};
+			case FIXED:
+				return (value, out, scratch) -> {
+					byte[] bytes = (value instanceof GenericFixed)? ((GenericFixed) value).bytes() : (byte[]) value;
+					if (bytes.length != fieldSchema.getFixedSize()) throw new ClassCastException("wrong fixed size : " + bytes.length);
+					out.writeFixed(bytes, 0, bytes.length);
+				};
+			case UNION:
+				return newUnionWriter(fieldSchema);
+			default:
+				DatumWriter<Object> writer = new GenericDatumWriter<>(fieldSchema);
+				return (value, out, scratch) -> writer.write(value, out);
+		}
+	}
+
+	private static FieldWriter newUnionWriter(Schema unionSchema) {
+		List<Schema> types = unionSchema.getTypes();
+		FieldWriter[] branches = new FieldWriter[types.size()];
+		int nullIndex = -1;
+		for (int idx = 0; idx < types.size(); idx++) {
+			branches[idx] = newWriter(types.get(idx));
+			if (types.get(idx).getType() == Schema.Type.NULL) nullIndex = idx;
+		}
+
+		// the common case : a nullable type
+		if (types.size() == 2 && nullIndex != -1) {
+			int nullBranch = nullIndex;
+			int valueBranch = 1 - nullIndex;
+			FieldWriter valueWriter = branches[valueBranch];
+			return (value, out, scratch) -> {
+				if (value == null) {
+					out.writeIndex(nullBranch);
+					out.writeNull();
+				} else {
+					out.writeIndex(valueBranch);
+					valueWriter.write(value, out, scratch);
+				}
+			};
+		}
+
+		return (value, out, scratch) -> {
+			int branch = GenericData.get().resolveUnion(unionSchema, value);
+			out.writeIndex(branch);
+			branches[branch].write(value, out, scratch);
+		};
+	}
+
+	/*
+	 * The numbers are not narrowed silently : an integral number out of the range of the field,
+	 * or a fractional number which the field can not hold exactly, is a wrong value.
+	 */
+
+	private static boolean isIntegral(Object value) {
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+
+	private static int toInt(Object value) {
+		if (value instanceof Integer) return (Integer) value;
+		long number = toLong(value);
+		if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) throw new ClassCastException("out of the int range : " + number);
+		return (int) number;
+	}
+
+	private static long toLong(Object value) {
+		if (value instanceof Long) return (Long) value;
+		if (isIntegral(value)) return ((Number) value).longValue();
+		throw new ClassCastException("not an integral number : " + value.getClass().getName());
+	}
+
+	private static float toFloat(Object value) {
+		if (value instanceof Float) return (Float) value;
+		double number = toDouble(value);
+		float narrowed = (float) number;
+		if (narrowed != number && !Double.isNaN(number)) throw new ClassCastException("not representable as a float : " + number);
+		return narrowed;
+	}
+
+	private static double toDouble(Object value) {
+		if (value instanceof Double) return (Double) value;
+		if (value instanceof Float) return (Float) value;
+		if (isIntegral(value)) {
+			long number = ((Number) value).longValue();
+			double widened = (double) number;
+			if ((long) widened != number || widened == 0x1p63) throw new ClassCastException("not representable as a double : " + number);
+			return widened;
+		}
+		throw new ClassCastException("not a number : " + value.getClass().getName());
+	}
+
+	private static void writeString(Object value, Encoder out, Scratch scratch) throws IOException {
+		if (value instanceof Utf8) {
+			out.writeString((Utf8) value);
+			return;
+		}
+
+		// encode to UTF-8 in the reused buffer, an Avro string is a length and the bytes
+		CharSequence chars = (CharSequence) value;
+		int length = chars.length();
+		byte[] bytes = scratch.ensure(length * 3);
+		int size = 0;
+		for (int idx = 0; idx < length; idx++) {
+			char c = chars.charAt(idx);
+			if (c < 0x80) {
+				bytes[size++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[size++] = (byte) (0xC0 | (c >> 6));
+				bytes[size++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && idx + 1 < length && Character.isLowSurrogate(chars.charAt(idx + 1))) {
+				int codePoint = Character.toCodePoint(c, chars.charAt(++idx));
+				bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// malformed, same as String.getBytes()
+				bytes[size++] = '?';
+			} else {
+				bytes[size++] = (byte) (0xE0 | (c >> 12));
+				bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[size++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+
+		out.writeLong(size);
+		out.writeFixed(bytes, 0, size);
+	}
+
+}
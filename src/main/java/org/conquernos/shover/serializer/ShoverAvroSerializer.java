@@ -0,0 +1,146 @@
+package org.conquernos.shover.serializer;
+
+
+import org.conquernos.shover.schema.RegisteredSchema;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Serializes Avro data in the wire format of the Confluent serializers (magic byte, 4-byte schema id, binary body)
+ * with the schema id that is already known from the cached schemas, so no schema registry lookup is needed.
+ * The output buffer and the encoder are reused per thread.
+ * Values in the order of the schema positions are encoded by a {@link PositionalRecordWriter} without building a record.
+ */
+public class ShoverAvroSerializer {
+
+	public static final byte MAGIC_BYTE = 0x0;
+	public static final int ID_SIZE = 4;
+
+	// a buffer bigger than this is not kept for the next message
+	private static final int MAX_REUSED_BUFFER_SIZE = 1024 * 1024;
+
+	private static class Buffer extends ByteArrayOutputStream {
+
+		Buffer() {
+			super(1024);
+		}
+
+		int capacity() {
+			return buf.length;
+		}
+
+	}
+
+	private static class ThreadState {
+		Buffer buffer = new Buffer();
+		BinaryEncoder encoder = null;
+		PositionalRecordWriter.Scratch scratch = new PositionalRecordWriter.Scratch();
+	}
+
+	private static final ThreadLocal<ThreadState> threadStates = new ThreadLocal<ThreadState>() {
+		@Override
+		protected ThreadState initialValue() {
+			return new ThreadState();
+		}
+	};
+
+	private static final EncoderFactory encoderFactory = EncoderFactory.get();
+
+	private final ConcurrentMap<Schema, DatumWriter<Object>> writers = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Schema, PositionalRecordWriter> positionalWriters = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Serialize the value with the registered schema.
+	 * @param schema A registered schema of the value
+	 * @param value An Avro value (ex. a record) of the schema
+	 * @return the serialized bytes
+	 */
+	public byte[] serialize(RegisteredSchema schema, Object value) {
+		ThreadState state = threadStates.get();
+		Buffer buffer = state.buffer;
+		buffer.reset();
+		try {
+			writeHeader(buffer, schema.getId());
+
+			BinaryEncoder encoder = encoderFactory.binaryEncoder(buffer, state.encoder);
+			state.encoder = encoder;
+			getWriter(schema.getSchema()).write(value, encoder);
+			encoder.flush();
+
+			return buffer.toByteArray();
+		} catch (IOException | RuntimeException e) {
+			throw new SerializationException("Error serializing Avro message of schema " + schema, e);
+		} finally {
+			if (buffer.capacity() > MAX_REUSED_BUFFER_SIZE) state.buffer = new Buffer();
+		}
+	}
+
+	/**
+	 * Serialize the values as a record of the registered schema, without building the record.
+	 * @param schema A registered record schema
+	 * @param values Values that is in the order of their schema positions
+	 * @return the serialized bytes
+	 */
+	public byte[] serialize(RegisteredSchema schema, Object[] values) {
+		ThreadState state = threadStates.get();
+		Buffer buffer = state.buffer;
+		buffer.reset();
+		try {
+			writeHeader(buffer, schema.getId());
+
+			BinaryEncoder encoder = encoderFactory.binaryEncoder(buffer, state.encoder);
+			state.encoder = encoder;
+			getPositionalWriter(schema.getSchema()).write(values, encoder, state.scratch);
+			encoder.flush();
+
+			return buffer.toByteArray();
+		} catch (IOException | RuntimeException e) {
+			throw new SerializationException("Error serializing values of schema " + schema, e);
+		} finally {
+			if (buffer.capacity() > MAX_REUSED_BUFFER_SIZE) state.buffer = new Buffer();
+		}
+	}
+
+	static void writeHeader(ByteArrayOutputStream out, int id) {
+		out.write(MAGIC_BYTE);
+		out.write(id >>> 24);
+		out.write(id >>> 16);
+		out.write(id >>> 8);
+		out.write(id);
+	}
+
+	private DatumWriter<Object> getWriter(Schema schema) {
+		DatumWriter<Object> writer = writers.get(schema);
+		if (writer == null) {
+			writer = new GenericDatumWriter<>(schema);
+			DatumWriter<Object> prev = writers.putIfAbsent(schema, writer);
+			if (prev != null) writer = prev;
+		}
+
+		return writer;
+	}
+
+	private PositionalRecordWriter getPositionalWriter(Schema schema) {
+		PositionalRecordWriter writer = positionalWriters.get(schema);
+		if (writer == null) {
+			writer = new PositionalRecordWriter(schema);
+			PositionalRecordWriter prev = positionalWriters.putIfAbsent(schema, writer);
+			if (prev != null) writer = prev;
+		}
+
+		return writer;
+	}
+
+}
@@ -0,0 +1,174 @@
+package org.conquernos.shover.shipper;
+
+
+import org.apache.avro.Schema;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+
+/**
+ * A parser plan of a record schema that splits a delimited line of bytes into values in the order of the schema positions.
+ * The delimiters are scanned on the bytes, and each field is converted straight from its bytes to the type of the schema field
+ * (ex. an int field is parsed from the digits without a String), so only string fields are decoded to strings.
+ * An empty field is null for a nullable field, a missing field is null, and the fields after the last schema field are ignored.
+ * A parser is not thread-safe.
+ */
+public class LineParser {
+
+	private interface FieldParser {
+		Object parse(ByteBuffer buffer, int start, int end);
+	}
+
+	private final Schema schema;
+
+	private final byte delimiter;
+
+	// parsers in the order of the schema positions
+	private final FieldParser[] parsers;
+
+	private byte[] scratch = new byte[256];
+
+
+	public LineParser(Schema schema, byte delimiter) {
+		if (schema.getType() != Schema.Type.RECORD) throw new IllegalArgumentException("not a record schema : " + schema.getFullName());
+
+		this.schema = schema;
+		this.delimiter = delimiter;
+
+		List<Schema.Field> fields = schema.getFields();
+		parsers = new FieldParser[fields.size()];
+		for (Schema.Field field : fields) {
+			parsers[field.pos()] = newParser(field.schema());
+		}
+	}
+
+	public Schema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Parse a line.
+	 * @param buffer A buffer that has the line
+	 * @param start The absolute position of the line in the buffer
+	 * @param end The absolute position after the line (without the line separator)
+	 * @return values in the order of the schema positions
+	 * @throws IllegalArgumentException If a field does not match the type of the schema field
+	 */
+	public Object[] parse(ByteBuffer buffer, int start, int end) {
+		Object[] values = new Object[parsers.length];
+
+		int fieldStart = start;
+		for (int pos = 0; pos < parsers.length && fieldStart <= end; pos++) {
+			int fieldEnd = indexOfDelimiter(buffer, fieldStart, end);
+			try {
+				values[pos] = parsers[pos].parse(buffer, fieldStart, fieldEnd);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException(schema.getFields().get(pos).name() + " : " + e.getMessage(), e);
+			}
+			fieldStart = fieldEnd + 1;
+		}
+
+		return values;
+	}
+
+	private int indexOfDelimiter(ByteBuffer buffer, int start, int end) {
+		for (int idx = start; idx < end; idx++) {
+			if (buffer.get(idx) == delimiter) return idx;
+		}
+
+		return end;
+	}
+
+	private FieldParser newParser(Schema fieldSchema) {
+		switch (fieldSchema.getType()) {
+			case NULL:
+				return (buffer, start, end) -> null;
+			case UNION: {
+				// nullable two branches, an empty field is null
+				List<Schema> types = fieldSchema.getTypes();
+				if (types.size() == 2 && (types.get(0).getType() == Schema.Type.NULL || types.get(1).getType() == Schema.Type.NULL)) {
+					FieldParser parser = newParser(types.get(types.get(0).getType() == Schema.Type.NULL? 1 : 0));
+					return (buffer, start, end) -> (start == end)? null : parser.parse(buffer, start, end);
+				}
+				throw new IllegalArgumentException("unsupported union : " + fieldSchema);
+			}
+			case STRING:
+			case ENUM:
+				return this::decode;
+			case BYTES:
+				return (buffer, start, end) -> {
+					byte[] bytes = new byte[end - start];
+					for (int idx = start; idx < end; idx++) bytes[idx - start] = buffer.get(idx);
+					return ByteBuffer.wrap(bytes);
+				};
+			case BOOLEAN:
+				return (buffer, start, end) -> {
+					String str = decode(buffer, start, end);
+					if (str.equals("true")) return Boolean.TRUE;
+					if (str.equals("false")) return Boolean.FALSE;
+					throw new IllegalArgumentException(str + " is not boolean");
+				};
+			case INT:
+				return (buffer, start, end) -> {
+					long value = parseLong(buffer, start, end);
+					if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw new IllegalArgumentException(value + " is not int");
+					return (int) value;
+				};
+			case LONG:
+				return LineParser::parseLong;
+			case FLOAT:
+				return (buffer, start, end) -> Float.parseFloat(decode(buffer, start, end).trim());
+			case DOUBLE:
+				return (buffer, start, end) -> Double.parseDouble(decode(buffer, start, end).trim());
+			default:
+				throw new IllegalArgumentException("unsupported field type : " + fieldSchema.getType());
+		}
+	}
+
+	private String decode(ByteBuffer buffer, int start, int end) {
+		int length = end - start;
+		if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+		for (int idx = start; idx < end; idx++) scratch[idx - start] = buffer.get(idx);
+
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Get the end of a line without the carriage return of a "\r\n" line separator.
+	 * @param buffer A buffer that has the line
+	 * @param start The absolute position of the line in the buffer
+	 * @param end The absolute position of the '\n' (or the end of the last line)
+	 * @return the position to give to {@link #parse(ByteBuffer, int, int)} as the end
+	 */
+	public static int lineEnd(ByteBuffer buffer, int start, int end) {
+		return (end > start && buffer.get(end - 1) == '\r')? end - 1 : end;
+	}
+
+	// parse the ascii digits without a string, accumulated negatively (as Long.parseLong) so Long.MIN_VALUE fits
+	private static long parseLong(ByteBuffer buffer, int start, int end) {
+		int idx = start;
+		boolean negative = false;
+		if (idx < end && (buffer.get(idx) == '-' || buffer.get(idx) == '+')) {
+			negative = buffer.get(idx) == '-';
+			idx++;
+		}
+		if (idx == end) throw new NumberFormatException("empty number");
+
+		long limit = negative? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multiplyLimit = limit / 10;
+		long value = 0;
+		for (; idx < end; idx++) {
+			int digit = buffer.get(idx) - '0';
+			if (digit < 0 || digit > 9) throw new NumberFormatException("not a number at " + (idx - start));
+			if (value < multiplyLimit) throw new NumberFormatException("too big number");
+			value *= 10;
+			if (value < limit + digit) throw new NumberFormatException("too big number");
+			value -= digit;
+		}
+
+		return negative? value : -value;
+	}
+
+}
@@ -0,0 +1,135 @@
+package org.conquernos.shover.shipper;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * Byte offsets of the shipped files, persisted in a local file (key=offset).
+ * An offset is the position after the last line which was acknowledged by the Kafka broker,
+ * so the shipping is resumed from there. The file is replaced atomically on each commit.
+ * A file may also have a fingerprint of its first bytes next to its offset ('fingerprint.'key=fingerprint),
+ * to tell whether a file of the same key is still the file of the offset.
+ * A checkpoint is thread-safe.
+ */
+public class OffsetCheckpoint {
+
+	private static final String FINGERPRINT_PREFIX = "fingerprint.";
+
+	private final File file;
+
+	private final Map<String, Long> offsets = new HashMap<>();
+
+	private final Map<String, String> fingerprints = new HashMap<>();
+
+
+	public OffsetCheckpoint(File file) throws IOException {
+		this.file = file;
+
+		if (file.exists()) {
+			Properties properties = new Properties();
+			try (InputStream in = new FileInputStream(file)) {
+				properties.load(in);
+			}
+			for (String key : properties.stringPropertyNames()) {
+				String value = properties.getProperty(key).trim();
+				if (key.startsWith(FINGERPRINT_PREFIX)) {
+					fingerprints.put(key.substring(FINGERPRINT_PREFIX.length()), value);
+				} else {
+					offsets.put(key, Long.parseLong(value));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the committed offset.
+	 * @param key A key of the file
+	 * @return the offset (0 : not shipped yet)
+	 */
+	public synchronized long get(String key) {
+		Long offset = offsets.get(key);
+		return (offset == null)? 0 : offset;
+	}
+
+	public synchronized Map<String, Long> getAll() {
+		return new HashMap<>(offsets);
+	}
+
+	/**
+	 * Set the offset and write the checkpoint file.
+	 * @param key A key of the file
+	 * @param offset The position after the last acknowledged line
+	 * @throws IOException If the file could not be written
+	 */
+	public synchronized void commit(String key, long offset) throws IOException {
+		offsets.put(key, offset);
+		write();
+	}
+
+	/**
+	 * Get the fingerprint of the file.
+	 * @param key A key of the file
+	 * @return the fingerprint (null : not set)
+	 */
+	public synchronized String getFingerprint(String key) {
+		return fingerprints.get(key);
+	}
+
+	/**
+	 * Set the fingerprint of the file and write the checkpoint file.
+	 * @param key A key of the file
+	 * @param fingerprint A fingerprint of the first bytes of the file
+	 * @throws IOException If the file could not be written
+	 */
+	public synchronized void setFingerprint(String key, String fingerprint) throws IOException {
+		fingerprints.put(key, fingerprint);
+		write();
+	}
+
+	/**
+	 * Remove the offset and the fingerprint of the file.
+	 * @param key A key of the file
+	 * @throws IOException If the file could not be written
+	 */
+	public synchronized void remove(String key) throws IOException {
+		boolean removed = offsets.remove(key) != null;
+		removed |= fingerprints.remove(key) != null;
+		if (removed) write();
+	}
+
+	private void write() throws IOException {
+		Properties properties = new Properties();
+		for (Map.Entry<String, Long> offset : offsets.entrySet()) {
+			properties.setProperty(offset.getKey(), Long.toString(offset.getValue()));
+		}
+		for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+			properties.setProperty(FINGERPRINT_PREFIX + fingerprint.getKey(), fingerprint.getValue());
+		}
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create the directory : " + dir);
+
+		File temp = new File(dir, file.getName() + ".tmp");
+		try (OutputStream out = new FileOutputStream(temp)) {
+			properties.store(out, null);
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
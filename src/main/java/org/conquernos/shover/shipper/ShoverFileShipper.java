@@ -0,0 +1,295 @@
+package org.conquernos.shover.shipper;
+
+
+import org.conquernos.shover.Shover;
+import org.conquernos.shover.ShoverBatchResult;
+import org.conquernos.shover.exceptions.ShoverException;
+import org.conquernos.shover.exceptions.send.ShoverMessageException;
+import org.conquernos.shover.exceptions.send.ShoverSendException;
+import org.conquernos.shover.exceptions.send.ShoverSpilledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+
+/**
+ * A shipper that sends the delimited lines of files to a topic through the {@link Shover}.
+ * A file is read through memory-mapped windows, the lines are parsed on the bytes by a {@link LineParser} of the topic schema,
+ * and sent by {@link Shover#sendBatch(String, int, Object[][])}.
+ * The offset of a file is committed to the {@link OffsetCheckpoint} after its batch was acknowledged, in the order of the batches,
+ * so a restarted shipping resumes from the last acknowledged line (at least once).
+ * A line which does not match the schema is skipped and logged.
+ * A shipper is not thread-safe.
+ */
+public class ShoverFileShipper {
+
+	private static final Logger logger = LoggerFactory.getLogger(ShoverFileShipper.class);
+
+	public static final byte DEFAULT_DELIMITER = '|';
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final int DEFAULT_MAX_PENDING_BATCHES = 4;
+
+	private final Shover shover;
+
+	private final String topic;
+
+	private final int version;
+
+	private final LineParser parser;
+
+	private final OffsetCheckpoint checkpoint;
+
+	private final int windowSize;
+
+	private final int batchSize;
+
+	private final int maxPendingBatches;
+
+	private long numberOfShippedLines = 0;
+
+	private long numberOfSkippedLines = 0;
+
+	// batches which were sent and not committed yet, in order
+	private final ArrayDeque<PendingBatch> pendingBatches = new ArrayDeque<>();
+
+	private static class PendingBatch {
+		final String key;
+		final long startOffset;
+		final long endOffset;
+		final CompletableFuture<ShoverBatchResult> future;
+
+		PendingBatch(String key, long startOffset, long endOffset, CompletableFuture<ShoverBatchResult> future) {
+			this.key = key;
+			this.startOffset = startOffset;
+			this.endOffset = endOffset;
+			this.future = future;
+		}
+	}
+
+	// the batch being filled
+	private Object[][] batch;
+	private int batchCount = 0;
+	private long batchStartOffset = -1;
+	private long batchEndOffset = -1;
+
+
+	public ShoverFileShipper(Shover shover, String topic, OffsetCheckpoint checkpoint) throws ShoverException {
+		this(shover, topic, 0, DEFAULT_DELIMITER, checkpoint, DEFAULT_WINDOW_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_MAX_PENDING_BATCHES);
+	}
+
+	/**
+	 * @param shover A shover
+	 * @param topic A topic of the lines
+	 * @param version A schema version of the lines (0 : the latest version)
+	 * @param delimiter A delimiter of the fields
+	 * @param checkpoint A checkpoint of the offsets
+	 * @param windowSize The size of a mapped window (a line has to be shorter than it)
+	 * @param batchSize The number of lines of a batch
+	 * @param maxPendingBatches The number of batches which may wait for the acknowledgements
+	 * @throws ShoverException If the topic or the schema is wrong
+	 */
+	public ShoverFileShipper(Shover shover, String topic, int version, byte delimiter, OffsetCheckpoint checkpoint
+		, int windowSize, int batchSize, int maxPendingBatches) throws ShoverException {
+		this.shover = shover;
+		this.topic = topic;
+		this.version = version;
+		this.parser = new LineParser(shover.getSchema(topic, version), delimiter);
+		this.checkpoint = checkpoint;
+		this.windowSize = windowSize;
+		this.batchSize = batchSize;
+		this.maxPendingBatches = maxPendingBatches;
+		this.batch = new Object[batchSize][];
+	}
+
+	/**
+	 * Ship a file from the committed offset to the end, the last line may have no line separator.
+	 * It returns after all the lines were acknowledged and committed.
+	 * @param file A file of delimited lines
+	 * @return the committed offset (the size of the file)
+	 * @throws ShoverException If a batch was not sent (the offset is committed until the previous batch)
+	 * @throws IOException If the file could not be read or the checkpoint could not be written
+	 */
+	public long ship(File file) throws ShoverException, IOException {
+		String key = file.getCanonicalPath();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long from = checkpoint.get(key);
+			long size = channel.size();
+			if (from > size) {
+				logger.warn("{} is smaller than the committed offset {}, shipped from the start", file, from);
+				from = 0;
+			}
+
+			ship(channel, key, from, size, true);
+			awaitPendingBatches(0);
+		} catch (ShoverException | IOException | RuntimeException e) {
+			// the next file does not take the lines of this one
+			discardPendingBatches();
+			throw e;
+		}
+
+		return checkpoint.get(key);
+	}
+
+	/**
+	 * Ship the lines between the positions of a channel. The batches may be still pending on return.
+	 * @param channel A file channel
+	 * @param key A key of the file in the checkpoint
+	 * @param from The position of the first line
+	 * @param to The end position
+	 * @param endOfFile Whether the bytes after the last line separator are a line (otherwise they are not shipped)
+	 * @return the position after the last line which was shipped
+	 */
+	long ship(FileChannel channel, String key, long from, long to, boolean endOfFile) throws ShoverException, IOException {
+		long position = from;
+		while (position < to) {
+			int size = (int) Math.min(windowSize, to - position);
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+			boolean lastWindow = position + size == to;
+
+			int lineStart = 0;
+			for (int idx = 0; idx < size; idx++) {
+				if (window.get(idx) == '\n') {
+					addLine(key, window, position, lineStart, idx);
+					lineStart = idx + 1;
+				}
+			}
+
+			if (lastWindow && endOfFile && lineStart < size) {
+				addLine(key, window, position, lineStart, size);
+				lineStart = size;
+			}
+
+			if (lineStart == 0) {
+				if (!lastWindow) throw new IOException("a line is longer than the window size " + windowSize + " at " + position);
+				break;
+			}
+
+			// the next window starts at the rest (a part of a line)
+			position += lineStart;
+			if (lastWindow) break;
+		}
+
+		sendBatch(key);
+
+		return position;
+	}
+
+	private void addLine(String key, MappedByteBuffer window, long windowPosition, int start, int end) throws ShoverException, IOException {
+		if (batchCount == 0) batchStartOffset = windowPosition + start;
+		batchEndOffset = windowPosition + Math.min(end + 1, window.limit());
+
+		end = LineParser.lineEnd(window, start, end);
+		if (end > start) {
+			// parsed first, so a skipped line does not take a slot of the batch
+			Object[] values = null;
+			try {
+				values = parser.parse(window, start, end);
+			} catch (IllegalArgumentException e) {
+				numberOfSkippedLines++;
+				logger.warn("skipped the line at {} of {} : {}", windowPosition + start, key, e.getMessage());
+			}
+			if (values != null) batch[batchCount++] = values;
+		}
+
+		if (batchCount == batchSize) sendBatch(key);
+	}
+
+	private void sendBatch(String key) throws ShoverException, IOException {
+		if (batchStartOffset < 0) return;
+
+		Object[][] lines = Arrays.copyOf(batch, batchCount);
+		CompletableFuture<ShoverBatchResult> future = shover.sendBatch(topic, version, lines);
+		pendingBatches.add(new PendingBatch(key, batchStartOffset, batchEndOffset, future));
+		numberOfShippedLines += batchCount;
+
+		Arrays.fill(batch, 0, batchCount, null);
+		batchCount = 0;
+		batchStartOffset = -1;
+
+		commitCompletedBatches();
+		awaitPendingBatches(maxPendingBatches);
+	}
+
+	/*
+	Commit the offsets of the heads which were completed
+	 */
+	void commitCompletedBatches() throws ShoverException, IOException {
+		while (!pendingBatches.isEmpty() && pendingBatches.peek().future.isDone()) {
+			commit(pendingBatches.poll());
+		}
+	}
+
+	/*
+	Wait until the number of the pending batches is not bigger than the max
+	 */
+	void awaitPendingBatches(int max) throws ShoverException, IOException {
+		while (pendingBatches.size() > max) {
+			commit(pendingBatches.poll());
+		}
+	}
+
+	/*
+	Forget the pending batches and the batch being filled
+	(after a failure, the lines are shipped again from the committed offsets)
+	 */
+	void discardPendingBatches() {
+		pendingBatches.clear();
+
+		Arrays.fill(batch, 0, batchCount, null);
+		batchCount = 0;
+		batchStartOffset = -1;
+		batchEndOffset = -1;
+	}
+
+	OffsetCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	private void commit(PendingBatch pending) throws ShoverException, IOException {
+		ShoverBatchResult result;
+		try {
+			result = pending.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ShoverException("interrupted while waiting for the batch at " + pending.startOffset + " of " + pending.key, e);
+		} catch (ExecutionException e) {
+			throw new ShoverSendException(topic, "batch at " + pending.startOffset + " of " + pending.key, e.getCause());
+		}
+
+		for (Map.Entry<Integer, Exception> failure : result.getFailures().entrySet()) {
+			if (failure.getValue() instanceof ShoverSpilledException) {
+				// delivered later by the replay of the spill log
+				continue;
+			}
+			if (failure.getValue() instanceof ShoverMessageException) {
+				numberOfSkippedLines++;
+				logger.warn("skipped a line of the batch at {} of {}", pending.startOffset, pending.key, failure.getValue());
+			} else {
+				// not committed, the batch is shipped again from the start offset
+				throw new ShoverSendException(topic, "batch at " + pending.startOffset + " of " + pending.key, failure.getValue());
+			}
+		}
+
+		checkpoint.commit(pending.key, pending.endOffset);
+	}
+
+	public long getNumberOfShippedLines() {
+		return numberOfShippedLines;
+	}
+
+	public long getNumberOfSkippedLines() {
+		return numberOfSkippedLines;
+	}
+
+}
@@ -0,0 +1,263 @@
+package org.conquernos.shover.shipper;
+
+
+import org.conquernos.shover.exceptions.ShoverException;
+import org.conquernos.shover.thread.runnable.InterruptibleRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+
+/**
+ * A background runner that ships the lines appended to the files of a directory continuously.
+ * The directory is watched by a {@link WatchService} and also polled every 'pollIntervalMs' (some file systems do not notify),
+ * and only the new bytes of a file are read. A file is tracked by its file key (the inode), not by its name,
+ * so a rotated (renamed) file is read to the end through its open channel and a new file of the same name is shipped from the start.
+ * A complete line (with the line separator) is shipped only, the rest is shipped when the line is completed
+ * or when the file is removed from the directory.
+ * The offsets are committed to the checkpoint of the shipper after the Kafka broker acknowledged the lines,
+ * and after a failure, the files are shipped again from the committed offsets (at least once).
+ * A fingerprint of the first bytes of a file is kept next to its offset, and a file is resumed from the offset
+ * only if its first bytes match, so a new file which reuses the inode of a removed file is shipped from the start.
+ */
+public class ShoverFileTailer extends InterruptibleRunner<Void> {
+
+	private static final Logger logger = LoggerFactory.getLogger(ShoverFileTailer.class);
+
+	// the max number of the first bytes of a file in its fingerprint
+	static final int FINGERPRINT_BYTES = 1024;
+
+	private static class TailedFile {
+		Path path;
+		final FileChannel channel;
+		long position = 0;
+		// the number of the first bytes in the fingerprint of the checkpoint
+		int fingerprintLength = 0;
+
+		TailedFile(Path path, FileChannel channel) {
+			this.path = path;
+			this.channel = channel;
+		}
+	}
+
+	private final ShoverFileShipper shipper;
+
+	private final Path directory;
+
+	private final String glob;
+
+	private final long pollIntervalMs;
+
+	// file key -> tailed file
+	private final Map<String, TailedFile> tailedFiles = new HashMap<>();
+
+
+	/**
+	 * @param shipper A shipper of the lines
+	 * @param directory A directory of the files
+	 * @param glob A glob pattern of the file names (ex. "app.log*")
+	 * @param pollIntervalMs The max interval to look for the new bytes
+	 */
+	public ShoverFileTailer(ShoverFileShipper shipper, File directory, String glob, long pollIntervalMs) {
+		this.shipper = shipper;
+		this.directory = directory.toPath();
+		this.glob = glob;
+		this.pollIntervalMs = pollIntervalMs;
+	}
+
+	@Override
+	public void run() {
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+			while (!isInterrupted()) {
+				try {
+					tail();
+				} catch (ShoverException | IOException e) {
+					logger.error("tail error, shipped again from the committed offsets", e);
+					recover();
+				}
+
+				// wait for a change or the poll interval
+				WatchKey key = watchService.poll(pollIntervalMs, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					key.pollEvents();
+					key.reset();
+				}
+			}
+		} catch (InterruptedException ignored) {
+		} catch (IOException e) {
+			logger.error("could not watch " + directory, e);
+		} finally {
+			try {
+				shipper.awaitPendingBatches(0);
+			} catch (ShoverException | IOException e) {
+				logger.error("the last batches were not committed", e);
+			}
+			closeAll();
+		}
+	}
+
+	/*
+	Ship the new bytes of the files once
+	 */
+	void tail() throws ShoverException, IOException {
+		OffsetCheckpoint checkpoint = shipper.getCheckpoint();
+		Set<String> seen = new HashSet<>();
+
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, glob)) {
+			for (Path path : paths) {
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				} catch (IOException e) {
+					// removed while listing
+					continue;
+				}
+				if (!attributes.isRegularFile()) continue;
+
+				String key = fileKey(path, attributes);
+				seen.add(key);
+
+				TailedFile file = tailedFiles.get(key);
+				if (file == null) {
+					file = new TailedFile(path, FileChannel.open(path, StandardOpenOption.READ));
+					tailedFiles.put(key, file);
+					file.position = resume(checkpoint, key, file);
+				} else if (!file.path.equals(path)) {
+					logger.info("{} was rotated to {}", file.path, path);
+					file.path = path;
+				}
+
+				long size = file.channel.size();
+				if (size < file.position) {
+					logger.warn("{} was truncated, shipped from the start", path);
+					file.position = 0;
+					file.fingerprintLength = 0;
+				}
+				if (file.fingerprintLength < FINGERPRINT_BYTES && size > file.fingerprintLength) {
+					// before an offset is committed, the fingerprint covers the first bytes up to FINGERPRINT_BYTES
+					int length = (int) Math.min(size, FINGERPRINT_BYTES);
+					checkpoint.setFingerprint(key, fingerprint(file.channel, length));
+					file.fingerprintLength = length;
+				}
+				if (size > file.position) {
+					file.position = shipper.ship(file.channel, key, file.position, size, false);
+				}
+			}
+		}
+
+		// the files which were removed from the directory, ship the rest and forget them
+		Iterator<Map.Entry<String, TailedFile>> files = tailedFiles.entrySet().iterator();
+		while (files.hasNext()) {
+			Map.Entry<String, TailedFile> entry = files.next();
+			if (seen.contains(entry.getKey())) continue;
+
+			TailedFile file = entry.getValue();
+			long size = file.channel.size();
+			if (size > file.position) shipper.ship(file.channel, entry.getKey(), file.position, size, true);
+			shipper.awaitPendingBatches(0);
+
+			file.channel.close();
+			files.remove();
+			checkpoint.remove(entry.getKey());
+		}
+
+		shipper.commitCompletedBatches();
+	}
+
+	/*
+	Get the committed offset of a file if its first bytes match the fingerprint of the checkpoint,
+	otherwise (the file key was reused by another file) forget the offset and start from the start.
+	 */
+	private long resume(OffsetCheckpoint checkpoint, String key, TailedFile file) throws IOException {
+		long offset = checkpoint.get(key);
+		String fingerprint = checkpoint.getFingerprint(key);
+		// a checkpoint without the fingerprints
+		if (fingerprint == null) return offset;
+
+		int length;
+		try {
+			length = Integer.parseInt(fingerprint.substring(0, fingerprint.indexOf(':')));
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			length = -1;
+		}
+		if (length >= 0 && length <= FINGERPRINT_BYTES && file.channel.size() >= length
+			&& fingerprint.equals(fingerprint(file.channel, length))) {
+			file.fingerprintLength = length;
+			return offset;
+		}
+
+		logger.warn("{} is not the file of the committed offset {} (the file key was reused), shipped from the start", file.path, offset);
+		checkpoint.remove(key);
+		return 0;
+	}
+
+	// the number of the bytes and the CRC32 of the first bytes
+	static String fingerprint(FileChannel channel, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, bytes.position()) < 0) break;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.array(), 0, bytes.position());
+		return bytes.position() + ":" + Long.toHexString(crc.getValue());
+	}
+
+	private static String fileKey(Path path, BasicFileAttributes attributes) {
+		Object fileKey = attributes.fileKey();
+		return (fileKey == null)? path.toAbsolutePath().toString() : fileKey.toString();
+	}
+
+	/*
+	Forget the pending batches after a failure, and ship the files again from the committed offsets
+	 */
+	void recover() {
+		shipper.discardPendingBatches();
+		rewind();
+	}
+
+	/*
+	Ship the files again from the committed offsets. The files are kept open,
+	so a rotated file which does not match the glob any more is still shipped to the end.
+	 */
+	private void rewind() {
+		OffsetCheckpoint checkpoint = shipper.getCheckpoint();
+		for (Map.Entry<String, TailedFile> entry : tailedFiles.entrySet()) {
+			entry.getValue().position = checkpoint.get(entry.getKey());
+		}
+	}
+
+	private void closeAll() {
+		for (TailedFile file : tailedFiles.values()) {
+			try {
+				file.channel.close();
+			} catch (IOException e) {
+				logger.warn("could not close " + file.path, e);
+			}
+		}
+		tailedFiles.clear();
+	}
+
+}
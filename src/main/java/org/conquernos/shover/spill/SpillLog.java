@@ -0,0 +1,124 @@
+package org.conquernos.shover.spill;
+
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * An append-only local log of the serialized records which could not be delivered (write-ahead backup).
+ * The records are appended to memory-mapped segments ('spill.segment.bytes'), a full segment is rolled to a new one,
+ * and the active segment is forced to the disk by {@link #sync()} every 'spill.sync.interval.ms' (group fsync),
+ * so an append costs a memory copy. The segments are replayed in the order of the sequences and deleted after the replay.
+ * The segments left by the previous run are replayed at the start.
+ * A spill log is thread-safe.
+ */
+public class SpillLog {
+
+	private static final Logger logger = LoggerFactory.getLogger(SpillLog.class);
+
+	private final File dir;
+
+	private final int segmentBytes;
+
+	// segments which were rolled (not appended any more), in order
+	private final ArrayDeque<File> closedSegments = new ArrayDeque<>();
+
+	private SpillSegment activeSegment = null;
+
+	private long nextSequence;
+
+	private boolean dirty = false;
+
+
+	/**
+	 * @param dir A directory of the segments
+	 * @param segmentBytes The size of a segment
+	 * @throws IOException If the directory could not be created
+	 */
+	public SpillLog(File dir, int segmentBytes) throws IOException {
+		if (!dir.exists() && !dir.mkdirs() && !dir.exists()) throw new IOException("could not create the directory : " + dir);
+
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+
+		// the segments of the previous run
+		File[] files = dir.listFiles(SpillSegment::isSegmentFile);
+		List<File> segments = new ArrayList<>(Arrays.asList(files == null? new File[0] : files));
+		segments.sort(Comparator.comparingLong(SpillSegment::sequenceOf));
+		closedSegments.addAll(segments);
+		nextSequence = segments.isEmpty()? 0 : SpillSegment.sequenceOf(segments.get(segments.size() - 1)) + 1;
+
+		if (!segments.isEmpty()) logger.info("{} spill segments are left in {}", segments.size(), dir);
+	}
+
+	/**
+	 * Append a record.
+	 * @param record A serialized record
+	 * @throws IOException If a segment could not be created or the record is bigger than a segment
+	 */
+	public synchronized void append(ProducerRecord<byte[], byte[]> record) throws IOException {
+		if (activeSegment == null) activeSegment = SpillSegment.create(dir, nextSequence++, segmentBytes);
+
+		if (!activeSegment.append(record)) {
+			roll();
+			activeSegment = SpillSegment.create(dir, nextSequence++, segmentBytes);
+			if (!activeSegment.append(record)) throw new IOException("a record is bigger than the segment size " + segmentBytes);
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Force the appended records to the disk.
+	 */
+	public synchronized void sync() {
+		if (dirty && activeSegment != null) {
+			activeSegment.force();
+			dirty = false;
+		}
+	}
+
+	/**
+	 * Get the oldest segment to replay. The active segment is rolled if no other segment is left.
+	 * @return the oldest segment file, or null if nothing is spilled
+	 */
+	synchronized File oldestSegment() {
+		if (closedSegments.isEmpty() && activeSegment != null && !activeSegment.isEmpty()) roll();
+
+		return closedSegments.peek();
+	}
+
+	/**
+	 * Delete a segment which was replayed.
+	 */
+	synchronized void delete(File segment) throws IOException {
+		closedSegments.remove(segment);
+		Files.deleteIfExists(segment.toPath());
+	}
+
+	public synchronized boolean isEmpty() {
+		return closedSegments.isEmpty() && (activeSegment == null || activeSegment.isEmpty());
+	}
+
+	private void roll() {
+		activeSegment.force();
+		dirty = false;
+		closedSegments.add(activeSegment.getFile());
+		activeSegment = null;
+	}
+
+	public synchronized void close() {
+		sync();
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.conquernos.shover.spill;
+
+
+import org.conquernos.shover.stats.ShoverStats;
+import org.conquernos.shover.thread.runnable.InterruptibleRunner;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A background runner that sends the spilled records again every 'spill.replay.interval.ms'.
+ * A segment is replayed from the oldest, the first record is sent alone to check that the broker is back,
+ * and the segment is deleted after all its records were acknowledged.
+ * If a record fails, the segment is kept and replayed again at the next interval (a record may be delivered twice).
+ * The replayed records are not ordered with the records sent after them.
+ */
+public class SpillReplayer extends InterruptibleRunner<Void> {
+
+	private static final Logger logger = LoggerFactory.getLogger(SpillReplayer.class);
+
+	private final SpillLog spillLog;
+
+	private final Producer<byte[], byte[]> producer;
+
+	private final ShoverStats stats;
+
+	private final long replayIntervalMs;
+
+
+	public SpillReplayer(SpillLog spillLog, Producer<byte[], byte[]> producer, ShoverStats stats, long replayIntervalMs) {
+		this.spillLog = spillLog;
+		this.producer = producer;
+		this.stats = stats;
+		this.replayIntervalMs = replayIntervalMs;
+	}
+
+	@Override
+	public void run() {
+		while (!isInterrupted()) {
+			try {
+				Thread.sleep(replayIntervalMs);
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			try {
+				File segment;
+				while (!isInterrupted() && (segment = spillLog.oldestSegment()) != null) {
+					if (!replay(segment)) break;
+					spillLog.delete(segment);
+				}
+			} catch (InterruptedException e) {
+				break;
+			} catch (Exception e) {
+				logger.error("spill replay error", e);
+			}
+		}
+	}
+
+	private boolean replay(File segment) throws IOException, InterruptedException {
+		List<ProducerRecord<byte[], byte[]>> records = SpillSegment.open(segment).read();
+		if (records.isEmpty()) return true;
+
+		// the broker is back ?
+		try {
+			producer.send(records.get(0)).get();
+		} catch (ExecutionException | RuntimeException e) {
+			logger.debug("spilled records are not replayed yet : {}", e.getMessage());
+			return false;
+		}
+
+		CountDownLatch latch = new CountDownLatch(records.size() - 1);
+		AtomicInteger failed = new AtomicInteger(0);
+		for (ProducerRecord<byte[], byte[]> record : records.subList(1, records.size())) {
+			try {
+				producer.send(record, (metadata, exception) -> {
+					if (exception != null) failed.incrementAndGet();
+					latch.countDown();
+				});
+			} catch (RuntimeException e) {
+				failed.incrementAndGet();
+				latch.countDown();
+			}
+		}
+		producer.flush();
+		latch.await();
+
+		if (failed.get() > 0) {
+			logger.warn("{} of {} spilled records in {} were not replayed", failed.get(), records.size(), segment);
+			return false;
+		}
+
+		for (ProducerRecord<byte[], byte[]> record : records) {
+			stats.addNumberOfReplayedMessages(record.topic(), 1);
+		}
+		logger.info("{} spilled records in {} were replayed", records.size(), segment);
+
+		return true;
+	}
+
+}
@@ -0,0 +1,174 @@
+package org.conquernos.shover.spill;
+
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+/**
+ * A memory-mapped segment file of the spill log. Records are appended to the mapped file,
+ * so an append is a memory copy and the pages are written by the OS or by {@link #force()}.
+ * A record is [length][crc][topic length][topic][key length][key][value length][value], the length (the size after the crc) is written last,
+ * so a torn record (length 0 or wrong crc) is the end of the segment.
+ * A segment is not thread-safe.
+ */
+class SpillSegment {
+
+	static final String PREFIX = "spill-";
+	static final String SUFFIX = ".log";
+
+	private static final int HEADER_SIZE = 8;
+
+	private final File file;
+
+	private final long sequence;
+
+	private final MappedByteBuffer buffer;
+
+	private int numberOfRecords = 0;
+
+
+	private SpillSegment(File file, long sequence, MappedByteBuffer buffer) {
+		this.file = file;
+		this.sequence = sequence;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Create a new segment for appending.
+	 */
+	static SpillSegment create(File dir, long sequence, int capacity) throws IOException {
+		File file = new File(dir, fileName(sequence));
+		try (FileChannel channel = FileChannel.open(file.toPath()
+			, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping is valid after the channel is closed
+			return new SpillSegment(file, sequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+		}
+	}
+
+	/**
+	 * Open a segment which was written before, for reading.
+	 */
+	static SpillSegment open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return new SpillSegment(file, sequenceOf(file), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	static String fileName(long sequence) {
+		return String.format("%s%020d%s", PREFIX, sequence, SUFFIX);
+	}
+
+	static boolean isSegmentFile(File file) {
+		String name = file.getName();
+		return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+	}
+
+	static long sequenceOf(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * Append a record.
+	 * @return false if the segment does not have enough space
+	 */
+	boolean append(ProducerRecord<byte[], byte[]> record) {
+		byte[] topic = record.topic().getBytes(StandardCharsets.UTF_8);
+		byte[] key = record.key();
+		byte[] value = record.value();
+		int length = 2 + topic.length + 4 + (key == null? 0 : key.length) + 4 + (value == null? 0 : value.length);
+
+		int position = buffer.position();
+		// and a zero length after the record
+		if (buffer.remaining() < HEADER_SIZE + length + 4) return false;
+
+		buffer.position(position + HEADER_SIZE);
+		buffer.putShort((short) topic.length);
+		buffer.put(topic);
+		putBytes(key);
+		putBytes(value);
+
+		CRC32 crc = new CRC32();
+		for (int idx = position + HEADER_SIZE; idx < position + HEADER_SIZE + length; idx++) crc.update(buffer.get(idx));
+		buffer.putInt(position + 4, (int) crc.getValue());
+		buffer.putInt(position, length);
+		numberOfRecords++;
+
+		return true;
+	}
+
+	private void putBytes(byte[] bytes) {
+		if (bytes == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+	}
+
+	/**
+	 * Read the records from the start to the end (or a torn record).
+	 */
+	List<ProducerRecord<byte[], byte[]>> read() {
+		List<ProducerRecord<byte[], byte[]>> records = new ArrayList<>();
+
+		int position = 0;
+		while (position + HEADER_SIZE <= buffer.limit()) {
+			int length = buffer.getInt(position);
+			if (length <= 0 || position + HEADER_SIZE + length > buffer.limit()) break;
+
+			CRC32 crc = new CRC32();
+			for (int idx = position + HEADER_SIZE; idx < position + HEADER_SIZE + length; idx++) crc.update(buffer.get(idx));
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) break;
+
+			int idx = position + HEADER_SIZE;
+			byte[] topic = new byte[buffer.getShort(idx)];
+			idx = getBytes(idx + 2, topic);
+			int keyLength = buffer.getInt(idx);
+			byte[] key = (keyLength < 0)? null : new byte[keyLength];
+			idx = getBytes(idx + 4, key);
+			int valueLength = buffer.getInt(idx);
+			byte[] value = (valueLength < 0)? null : new byte[valueLength];
+			getBytes(idx + 4, value);
+
+			records.add(new ProducerRecord<>(new String(topic, StandardCharsets.UTF_8), key, value));
+			position += HEADER_SIZE + length;
+		}
+
+		return records;
+	}
+
+	private int getBytes(int position, byte[] bytes) {
+		if (bytes == null) return position;
+
+		for (int idx = 0; idx < bytes.length; idx++) bytes[idx] = buffer.get(position + idx);
+		return position + bytes.length;
+	}
+
+	void force() {
+		buffer.force();
+	}
+
+	boolean isEmpty() {
+		return numberOfRecords == 0;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+}
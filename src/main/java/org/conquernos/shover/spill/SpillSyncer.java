@@ -0,0 +1,35 @@
+package org.conquernos.shover.spill;
+
+
+import org.conquernos.shover.thread.runnable.InterruptibleRunner;
+
+
+/**
+ * A background runner that forces the spill log to the disk every 'spill.sync.interval.ms' (group fsync).
+ */
+public class SpillSyncer extends InterruptibleRunner<Void> {
+
+	private final SpillLog spillLog;
+
+	private final long syncIntervalMs;
+
+
+	public SpillSyncer(SpillLog spillLog, long syncIntervalMs) {
+		this.spillLog = spillLog;
+		this.syncIntervalMs = syncIntervalMs;
+	}
+
+	@Override
+	public void run() {
+		while (!isInterrupted()) {
+			try {
+				Thread.sleep(syncIntervalMs);
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			spillLog.sync();
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+package org.conquernos.shover.stats;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A lock-free histogram of latencies in microseconds with log-linear buckets (like HdrHistogram).
+ * The values under 64 are exact, and each power of 2 above is split into 32 linear buckets,
+ * so a percentile is within about 3% of the recorded value. The buckets are fixed, a record is an atomic increment.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+	private static final int BUCKET_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+
+	/**
+	 * Record a latency.
+	 * @param nanos A latency in nanoseconds
+	 */
+	public void recordNanos(long nanos) {
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		counts.incrementAndGet(indexOf(micros));
+		count.increment();
+		sum.add(micros);
+		max.accumulate(micros);
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKET_COUNT) return (int) value;
+
+		// keep SUB_BUCKET_BITS bits of the value
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+		int subBucket = (int) (value >>> shift);
+
+		return shift * HALF_SUB_BUCKET_COUNT + subBucket;
+	}
+
+	// the highest value of a bucket
+	static long highestValueOf(int index) {
+		if (index < SUB_BUCKET_COUNT) return index;
+
+		int shift = index / HALF_SUB_BUCKET_COUNT - 1;
+		long subBucket = index - shift * HALF_SUB_BUCKET_COUNT;
+
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Get a snapshot of the recorded latencies (the records during the snapshot may be partly included).
+	 * @return the snapshot
+	 */
+	public Snapshot snapshot() {
+		long[] snapshot = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int idx = 0; idx < BUCKET_COUNT; idx++) {
+			snapshot[idx] = counts.get(idx);
+			total += snapshot[idx];
+		}
+
+		return new Snapshot(snapshot, total, sum.sum(), max.get());
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Recorded latencies at a time, in microseconds
+	 */
+	public static class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return (count == 0)? 0 : (double) sum / count;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Get the latency at a percentile.
+		 * @param percentile A percentile (0 ~ 100, ex. 99.9)
+		 * @return the latency in microseconds (0 if nothing is recorded)
+		 */
+		public long getPercentile(double percentile) {
+			if (count == 0) return 0;
+
+			long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+			long seen = 0;
+			for (int idx = 0; idx < counts.length; idx++) {
+				seen += counts[idx];
+				if (seen >= rank) return Math.min(highestValueOf(idx), max);
+			}
+
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return "{" +
+				"count=" + count +
+				", mean=" + String.format("%.1f", getMean()) +
+				", p50=" + getPercentile(50) +
+				", p99=" + getPercentile(99) +
+				", p999=" + getPercentile(99.9) +
+				", max=" + max +
+				'}';
+		}
+
+	}
+
+}
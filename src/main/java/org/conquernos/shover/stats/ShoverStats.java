@@ -1,28 +1,237 @@
 package org.conquernos.shover.stats;
 
 
-import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+
+/**
+ * Stats of the shover. The counters are striped ({@link LongAdder}), so the sending threads and the producer callbacks
+ * do not contend on them. The messages are also counted per topic,
+ * and the send latency (send to acknowledgement) and the conversion latency (message to serialized record) are recorded
+ * in {@link LatencyHistogram}s.
+ * The replays of the spilled messages are counted by the shover, and the retries of the producer itself
+ * are read from the metrics of the producer (in total and per topic).
+ */
 public class ShoverStats {
 
-	private AtomicLong numberOfMessages = new AtomicLong(0);
-	private AtomicLong numberOfCompletedMessages = new AtomicLong(0);
+	private static final String PRODUCER_METRICS_GROUP = "producer-metrics";
+
+	private final LongAdder numberOfMessages = new LongAdder();
+	private final LongAdder numberOfCompletedMessages = new LongAdder();
+	private final LongAdder numberOfFailedMessages = new LongAdder();
+	private final LongAdder completedBytes = new LongAdder();
+	private final LongAdder numberOfSpilledMessages = new LongAdder();
+	private final LongAdder numberOfReplayedMessages = new LongAdder();
+
+	private final ConcurrentMap<String, TopicStats> topicStats = new ConcurrentHashMap<>();
+
+	private final LatencyHistogram sendLatency = new LatencyHistogram();
+	private final LatencyHistogram conversionLatency = new LatencyHistogram();
+
+	private final LongAdder numberOfSchemaRefreshes = new LongAdder();
+	private final LongAdder numberOfSchemaRefreshFailures = new LongAdder();
+	private final LongAdder numberOfChangedSchemas = new LongAdder();
+	private volatile long lastSchemaRefreshTime = System.currentTimeMillis();
+
+	private volatile Supplier<Map<MetricName, ? extends Metric>> producerMetrics = Collections::emptyMap;
 
 
 	public long getNumberOfMessages() {
-		return numberOfMessages.get();
+		return numberOfMessages.sum();
 	}
 
 	public long getNumberOfCompletedMessages() {
-		return numberOfCompletedMessages.get();
+		return numberOfCompletedMessages.sum();
+	}
+
+	public long getNumberOfFailedMessages() {
+		return numberOfFailedMessages.sum();
+	}
+
+	/**
+	 * Get the number of messages that have been sent but not yet acknowledged
+	 * @return the number of pending messages
+	 */
+	public long getNumberOfPendingMessages() {
+		return numberOfMessages.sum() - numberOfCompletedMessages.sum() - numberOfFailedMessages.sum() - numberOfSpilledMessages.sum();
+	}
+
+	/**
+	 * Get the number of messages that have been written to the spill log instead of being delivered
+	 * @return the number of spilled messages
+	 */
+	public long getNumberOfSpilledMessages() {
+		return numberOfSpilledMessages.sum();
+	}
+
+	/**
+	 * Get the number of spilled messages that have been delivered by the replay
+	 * @return the number of replayed messages
+	 */
+	public long getNumberOfReplayedMessages() {
+		return numberOfReplayedMessages.sum();
+	}
+
+	public long getCompletedBytes() {
+		return completedBytes.sum();
+	}
+
+	/**
+	 * Get the average number of retried record sends per second of the producer (record-retry-rate of the producer metrics).
+	 * The retries of a topic are in {@link TopicStats#getProducerRetryRate()}.
+	 * @return the retry rate (NaN : not available)
+	 */
+	public double getProducerRetryRate() {
+		return sumOfProducerMetric(PRODUCER_METRICS_GROUP, "record-retry-rate", null);
+	}
+
+	/**
+	 * Set the metrics of the producer to read the producer retries from
+	 * @param producerMetrics A supplier of the producer metrics (ex. producer::metrics)
+	 */
+	public void setProducerMetrics(Supplier<Map<MetricName, ? extends Metric>> producerMetrics) {
+		this.producerMetrics = producerMetrics;
+	}
+
+	// the sum of the metric of all the producer instances (NaN if none has it), only of the topic if it is given
+	double sumOfProducerMetric(String group, String name, String topic) {
+		double sum = Double.NaN;
+		for (Map.Entry<MetricName, ? extends Metric> metric : producerMetrics.get().entrySet()) {
+			MetricName metricName = metric.getKey();
+			if (name.equals(metricName.name()) && group.equals(metricName.group())
+				&& (topic == null || topic.equals(metricName.tags().get("topic")))) {
+				sum = (Double.isNaN(sum)? 0 : sum) + metric.getValue().value();
+			}
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Estimate the serialized size of the pending messages from the average size of the completed messages
+	 * @return the estimated bytes (0 until a message is completed)
+	 */
+	public long getEstimatedPendingBytes() {
+		long completed = numberOfCompletedMessages.sum();
+		if (completed == 0) return 0;
+
+		return getNumberOfPendingMessages() * (completedBytes.sum() / completed);
+	}
+
+	/**
+	 * Get the counters of a topic
+	 * @param topic A topic
+	 * @return the counters (null if no message of the topic was sent)
+	 */
+	public TopicStats getTopicStats(String topic) {
+		return topicStats.get(topic);
+	}
+
+	/**
+	 * Get the counters of all the topics
+	 * @return topic -> counters
+	 */
+	public Map<String, TopicStats> getTopicStats() {
+		return Collections.unmodifiableMap(topicStats);
+	}
+
+	/**
+	 * Get the latencies from the send to the acknowledgement of the broker
+	 * @return a snapshot of the latencies in microseconds
+	 */
+	public LatencyHistogram.Snapshot getSendLatency() {
+		return sendLatency.snapshot();
+	}
+
+	/**
+	 * Get the latencies of the conversion of a message to a serialized record
+	 * @return a snapshot of the latencies in microseconds
+	 */
+	public LatencyHistogram.Snapshot getConversionLatency() {
+		return conversionLatency.snapshot();
+	}
+
+	public long getNumberOfSchemaRefreshes() {
+		return numberOfSchemaRefreshes.sum();
+	}
+
+	public long getNumberOfSchemaRefreshFailures() {
+		return numberOfSchemaRefreshFailures.sum();
+	}
+
+	public long getNumberOfChangedSchemas() {
+		return numberOfChangedSchemas.sum();
+	}
+
+	public long getLastSchemaRefreshTime() {
+		return lastSchemaRefreshTime;
+	}
+
+	/**
+	 * Get the time since the cached schemas were last refreshed successfully (or loaded)
+	 * @return the refresh lag in milliseconds
+	 */
+	public long getSchemaRefreshLag() {
+		return System.currentTimeMillis() - lastSchemaRefreshTime;
+	}
+
+	public void schemaRefreshed(int changedSchemas) {
+		numberOfSchemaRefreshes.increment();
+		numberOfChangedSchemas.add(changedSchemas);
+		lastSchemaRefreshTime = System.currentTimeMillis();
+	}
+
+	public void schemaRefreshFailed() {
+		numberOfSchemaRefreshFailures.increment();
+	}
+
+	private TopicStats topic(String topic) {
+		TopicStats stats = topicStats.get(topic);
+		if (stats == null) stats = topicStats.computeIfAbsent(topic, name -> new TopicStats(name, this));
+
+		return stats;
+	}
+
+	public void addNumberOfMessages(String topic, long number) {
+		numberOfMessages.add(number);
+		topic(topic).addNumberOfMessages(number);
+	}
+
+	public void addNumberOfCompletedMessages(String topic, long number, long bytes) {
+		numberOfCompletedMessages.add(number);
+		completedBytes.add(bytes);
+		topic(topic).addNumberOfCompletedMessages(number, bytes);
+	}
+
+	public void addNumberOfFailedMessages(String topic, long number) {
+		numberOfFailedMessages.add(number);
+		topic(topic).addNumberOfFailedMessages(number);
+	}
+
+	public void addNumberOfSpilledMessages(String topic, long number) {
+		numberOfSpilledMessages.add(number);
+		topic(topic).addNumberOfSpilledMessages(number);
+	}
+
+	public void addNumberOfReplayedMessages(String topic, long number) {
+		numberOfReplayedMessages.add(number);
+		topic(topic).addNumberOfReplayedMessages(number);
 	}
 
-	public long addNumberOfMessages(long number) {
-		return numberOfMessages.addAndGet(number);
+	public void recordSendLatency(long nanos) {
+		sendLatency.recordNanos(nanos);
 	}
 
-	public long addNumberOfCompletedMessages(long number) {
-		return numberOfCompletedMessages.addAndGet(number);
+	public void recordConversionLatency(long nanos) {
+		conversionLatency.recordNanos(nanos);
 	}
 
 	@Override
@@ -30,6 +239,18 @@ public class ShoverStats {
 		return "ShoverStats{" +
 			"numberOfMessages=" + numberOfMessages +
 			", numberOfCompletedMessages=" + numberOfCompletedMessages +
+			", numberOfFailedMessages=" + numberOfFailedMessages +
+			", completedBytes=" + completedBytes +
+			", numberOfSpilledMessages=" + numberOfSpilledMessages +
+			", numberOfReplayedMessages=" + numberOfReplayedMessages +
+			", producerRetryRate=" + getProducerRetryRate() +
+			", sendLatencyMicros=" + sendLatency.snapshot() +
+			", conversionLatencyMicros=" + conversionLatency.snapshot() +
+			", numberOfSchemaRefreshes=" + numberOfSchemaRefreshes +
+			", numberOfSchemaRefreshFailures=" + numberOfSchemaRefreshFailures +
+			", numberOfChangedSchemas=" + numberOfChangedSchemas +
+			", schemaRefreshLag=" + getSchemaRefreshLag() +
+			", topics=" + topicStats.values() +
 			'}';
 	}
 
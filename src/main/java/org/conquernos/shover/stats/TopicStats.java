@@ -0,0 +1,113 @@
+package org.conquernos.shover.stats;
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counters of a topic
+ */
+public class TopicStats {
+
+	private static final String PRODUCER_TOPIC_METRICS_GROUP = "producer-topic-metrics";
+
+	private final String topic;
+
+	// to read the producer metrics of the topic
+	private final ShoverStats stats;
+
+	private final LongAdder numberOfMessages = new LongAdder();
+	private final LongAdder numberOfCompletedMessages = new LongAdder();
+	private final LongAdder numberOfFailedMessages = new LongAdder();
+	private final LongAdder numberOfSpilledMessages = new LongAdder();
+	private final LongAdder numberOfReplayedMessages = new LongAdder();
+	private final LongAdder completedBytes = new LongAdder();
+
+
+	TopicStats(String topic, ShoverStats stats) {
+		this.topic = topic;
+		this.stats = stats;
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public long getNumberOfMessages() {
+		return numberOfMessages.sum();
+	}
+
+	public long getNumberOfCompletedMessages() {
+		return numberOfCompletedMessages.sum();
+	}
+
+	/**
+	 * Get the number of messages that have not been sent or acknowledged (the errors)
+	 * @return the number of failed messages
+	 */
+	public long getNumberOfFailedMessages() {
+		return numberOfFailedMessages.sum();
+	}
+
+	public long getNumberOfSpilledMessages() {
+		return numberOfSpilledMessages.sum();
+	}
+
+	/**
+	 * Get the number of spilled messages that have been delivered by the replay
+	 * (not the retries of the producer, see {@link #getProducerRetryRate()})
+	 * @return the number of replayed messages
+	 */
+	public long getNumberOfReplayedMessages() {
+		return numberOfReplayedMessages.sum();
+	}
+
+	public long getCompletedBytes() {
+		return completedBytes.sum();
+	}
+
+	/**
+	 * Get the average number of retried record sends of the topic per second of the producer
+	 * (record-retry-rate of the producer topic metrics)
+	 * @return the retry rate (NaN : not available, the producer has not sent a record of the topic yet)
+	 */
+	public double getProducerRetryRate() {
+		return stats.sumOfProducerMetric(PRODUCER_TOPIC_METRICS_GROUP, "record-retry-rate", topic);
+	}
+
+	void addNumberOfMessages(long number) {
+		numberOfMessages.add(number);
+	}
+
+	void addNumberOfCompletedMessages(long number, long bytes) {
+		numberOfCompletedMessages.add(number);
+		completedBytes.add(bytes);
+	}
+
+	void addNumberOfFailedMessages(long number) {
+		numberOfFailedMessages.add(number);
+	}
+
+	void addNumberOfSpilledMessages(long number) {
+		numberOfSpilledMessages.add(number);
+	}
+
+	void addNumberOfReplayedMessages(long number) {
+		numberOfReplayedMessages.add(number);
+	}
+
+	@Override
+	public String toString() {
+		return "TopicStats{" +
+			"topic=" + topic +
+			", numberOfMessages=" + numberOfMessages +
+			", numberOfCompletedMessages=" + numberOfCompletedMessages +
+			", numberOfFailedMessages=" + numberOfFailedMessages +
+			", numberOfSpilledMessages=" + numberOfSpilledMessages +
+			", numberOfReplayedMessages=" + numberOfReplayedMessages +
+			", completedBytes=" + completedBytes +
+			", producerRetryRate=" + getProducerRetryRate() +
+			'}';
+	}
+
+}
@@ -12,27 +12,38 @@ public class InterruptibleThreadFactory implements ThreadFactory {
     private final ThreadGroup group;
     private final String threadPrefix;
     private final AtomicInteger threadNumber = new AtomicInteger(1);
+    private final boolean daemon;
 
     public InterruptibleThreadFactory(ThreadGroup group) {
+    	this(group, false);
+    }
+
+    public InterruptibleThreadFactory(ThreadGroup group, boolean daemon) {
     	this.group = group;
     	this.threadPrefix = group.getName();
+    	this.daemon = daemon;
     }
 
     public InterruptibleThreadFactory(String groupName) {
+    	this(groupName, false);
+    }
+
+    public InterruptibleThreadFactory(String groupName, boolean daemon) {
     	this.group = new ThreadGroup(groupName);
     	this.threadPrefix = group.getName();
+    	this.daemon = daemon;
     }
 
     public InterruptibleThread newThread(InterruptibleRunner<?> runner) {
         InterruptibleThread thread = new InterruptibleThread(group, runner, getThreadName());
-        thread.setDaemon(false);
+        thread.setDaemon(daemon);
         thread.setPriority(Thread.NORM_PRIORITY);
         return thread;
     }
 
 	public Thread newThread(Runnable runner) {
         Thread thread = new Thread(group, runner, getThreadName());
-        thread.setDaemon(false);
+        thread.setDaemon(daemon);
         thread.setPriority(Thread.NORM_PRIORITY);
         return thread;
 	}
@@ -0,0 +1,153 @@
+package org.conquernos.shover.utils;
+
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A concurrent cache that is bounded by size and optionally by the time since an entry was written.
+ * When the cache is full, the oldest written entry is evicted first.
+ * Reads take no lock.
+ */
+public class BoundedCache<K, V> {
+
+	private static class Entry<V> {
+		final V value;
+		final long writeTime;
+
+		Entry(V value, long writeTime) {
+			this.value = value;
+			this.writeTime = writeTime;
+		}
+	}
+
+	private static class Write<K, V> {
+		final K key;
+		final Entry<V> entry;
+
+		Write(K key, Entry<V> entry) {
+			this.key = key;
+			this.entry = entry;
+		}
+	}
+
+	private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+	// writes in order (for the eviction), a write is stale if its entry was replaced or removed
+	private final ConcurrentLinkedQueue<Write<K, V>> writeOrder = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger writeOrderSize = new AtomicInteger(0);
+
+	private final int maxSize;
+	private final long expireAfterWriteMillis;
+
+
+	/**
+	 * @param maxSize The maximum number of entries
+	 */
+	public BoundedCache(int maxSize) {
+		this(maxSize, 0);
+	}
+
+	/**
+	 * @param maxSize The maximum number of entries
+	 * @param expireAfterWriteMillis The time to live of an entry (0 : no expiration)
+	 */
+	public BoundedCache(int maxSize, long expireAfterWriteMillis) {
+		if (maxSize < 1) throw new IllegalArgumentException("maxSize must be bigger than zero");
+
+		this.maxSize = maxSize;
+		this.expireAfterWriteMillis = expireAfterWriteMillis;
+	}
+
+	public V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) return null;
+
+		if (isExpired(entry)) {
+			entries.remove(key, entry);
+			return null;
+		}
+
+		return entry.value;
+	}
+
+	public void put(K key, V value) {
+		Entry<V> entry = newEntry(value);
+		entries.put(key, entry);
+		written(key, entry);
+	}
+
+	/**
+	 * Put the value only if the key is absent (or expired).
+	 * @return the cached value if present, otherwise null
+	 */
+	public V putIfAbsent(K key, V value) {
+		V cached = get(key);
+		if (cached != null) return cached;
+
+		Entry<V> entry = newEntry(value);
+		Entry<V> prev = entries.putIfAbsent(key, entry);
+		if (prev != null && !isExpired(prev)) return prev.value;
+
+		if (prev != null) {
+			// replace the expired entry
+			if (!entries.replace(key, prev, entry)) return get(key);
+		}
+		written(key, entry);
+
+		return null;
+	}
+
+	public void remove(K key) {
+		entries.remove(key);
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private Entry<V> newEntry(V value) {
+		return new Entry<>(value, expireAfterWriteMillis > 0? System.currentTimeMillis() : 0);
+	}
+
+	private void written(K key, Entry<V> entry) {
+		writeOrder.add(new Write<>(key, entry));
+		writeOrderSize.incrementAndGet();
+		evict();
+	}
+
+	private boolean isExpired(Entry<V> entry) {
+		return expireAfterWriteMillis > 0 && System.currentTimeMillis() - entry.writeTime >= expireAfterWriteMillis;
+	}
+
+	private void evict() {
+		// evict the eldest entries
+		while (entries.size() > maxSize) {
+			Write<K, V> eldest = writeOrder.poll();
+			if (eldest == null) break;
+
+			writeOrderSize.decrementAndGet();
+			entries.remove(eldest.key, eldest.entry);
+		}
+
+		// drop the stale writes, so the write order is also bounded
+		int trim = writeOrderSize.get() - maxSize * 2;
+		while (trim-- > 0) {
+			Write<K, V> eldest = writeOrder.poll();
+			if (eldest == null) break;
+
+			if (entries.get(eldest.key) == eldest.entry) {
+				writeOrder.add(eldest);
+			} else {
+				writeOrderSize.decrementAndGet();
+			}
+		}
+	}
+
+}
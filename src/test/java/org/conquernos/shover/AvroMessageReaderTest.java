@@ -0,0 +1,75 @@
+package org.conquernos.shover;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.serializers.KafkaAvroDeserializer;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+
+public class AvroMessageReaderTest {
+
+	private static final String SCHEMA = "{\"type\": \"record\", \"name\": \"line\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}]}";
+
+	private static final int LINES = 10;
+
+	private static final int BAD_LINE = 4;
+
+	@Test
+	public void failOnlyBadLineInPipelinedMode() throws Exception {
+		readLinesInOrder(4, 3);
+	}
+
+	@Test
+	public void failOnlyBadLineInSingleThreadMode() throws Exception {
+		readLinesInOrder(1, 3);
+	}
+
+	private static void readLinesInOrder(int parallelism, int chunkLines) throws Exception {
+		StringBuilder input = new StringBuilder();
+		for (int line = 0; line < LINES; line++) {
+			input.append((line == BAD_LINE)? "{\"name\": 1}" : "{\"name\": \"line-" + line + "\"}").append('\n');
+		}
+
+		Properties props = new Properties();
+		props.setProperty("topic", "lines");
+		props.setProperty("schema.registry.url", "http://localhost:8081");
+		props.setProperty("value.schema", SCHEMA);
+		props.setProperty("parallelism", Integer.toString(parallelism));
+		props.setProperty("chunk.lines", Integer.toString(chunkLines));
+
+		MockSchemaRegistryClient registry = new MockSchemaRegistryClient();
+		KafkaAvroDeserializer deserializer = new KafkaAvroDeserializer(registry);
+		AvroMessageReader reader = new AvroMessageReader(registry);
+		reader.init(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), props);
+		try {
+			// the lines before the bad line of its chunk are read first, then it fails, then the rest
+			for (int line = 0; line < LINES; line++) {
+				if (line == BAD_LINE) {
+					try {
+						reader.readMessage();
+						fail("the bad line was read");
+					} catch (SerializationException expected) {
+					}
+					continue;
+				}
+
+				ProducerRecord<byte[], byte[]> record = reader.readMessage();
+				assertNotNull("line " + line, record);
+				assertEquals("line-" + line, ((GenericRecord) deserializer.deserialize("lines", record.value())).get("name").toString());
+			}
+			assertNull(reader.readMessage());
+		} finally {
+			reader.close();
+		}
+	}
+
+}
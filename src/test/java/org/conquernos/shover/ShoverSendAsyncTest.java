@@ -0,0 +1,172 @@
+package org.conquernos.shover;
+
+import org.apache.avro.Schema;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.conquernos.shover.exceptions.send.ShoverBackpressureException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+public class ShoverSendAsyncTest {
+
+	private static final String TOPIC = "async";
+
+	private static final Schema schema = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"async\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}]}");
+
+	// the serialized size of a message of one character (magic byte, schema id, string length, string)
+	private static final int MESSAGE_BYTES = 1 + 4 + 1 + 1;
+
+	private MockProducer<byte[], byte[]> producer;
+
+	private Shover shover;
+
+	@After
+	public void tearDown() {
+		if (shover != null) shover.close();
+	}
+
+	@Test
+	public void completeFutureOffProducerThread() throws Exception {
+		build(new Properties());
+
+		CompletableFuture<RecordMetadata> future = shover.sendAsync(TOPIC, new Object[] {"a"});
+		CompletableFuture<Thread> continuation = future.thenApply(metadata -> Thread.currentThread());
+		assertFalse(future.isDone());
+
+		// the callback of the producer runs on this thread
+		assertTrue(producer.completeNext());
+
+		assertNotSame(Thread.currentThread(), continuation.get(5, TimeUnit.SECONDS));
+		assertEquals(TOPIC, future.get().topic());
+		assertEquals(1, shover.getStats().getNumberOfCompletedMessages());
+	}
+
+	@Test
+	public void failFutureWithProducerError() throws Exception {
+		build(new Properties());
+
+		CompletableFuture<RecordMetadata> future = shover.sendAsync(TOPIC, new Object[] {"a"});
+		RuntimeException error = new RuntimeException("broken");
+		assertTrue(producer.errorNext(error));
+
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("not failed");
+		} catch (ExecutionException e) {
+			assertSame(error, e.getCause());
+		}
+		assertEquals(1, shover.getStats().getNumberOfFailedMessages());
+	}
+
+	@Test
+	public void sendFromContinuationUnderBlockPolicy() throws Exception {
+		Properties config = new Properties();
+		config.setProperty("send.max.in.flight", "1");
+		config.setProperty("send.backpressure.policy", "block");
+		config.setProperty("send.backpressure.timeout.ms", "10000");
+		build(config);
+
+		// the continuation sends two messages, the second waits until the first is completed
+		CompletableFuture<RecordMetadata> first = shover.sendAsync(TOPIC, new Object[] {"a"});
+		CompletableFuture<RecordMetadata> last = first.thenCompose(metadata -> {
+			shover.sendAsync(TOPIC, new Object[] {"b"});
+			return shover.sendAsync(TOPIC, new Object[] {"c"});
+		});
+
+		assertTrue(producer.completeNext());
+		awaitSent(2);
+		assertTrue(producer.completeNext());
+		awaitSent(3);
+		assertTrue(producer.completeNext());
+
+		assertNotNull(last.get(5, TimeUnit.SECONDS));
+		assertEquals(3, shover.getStats().getNumberOfCompletedMessages());
+	}
+
+	@Test
+	public void failWhenTooManyInFlight() throws Exception {
+		Properties config = new Properties();
+		config.setProperty("send.max.in.flight", "1");
+		config.setProperty("send.backpressure.policy", "fail");
+		build(config);
+
+		CompletableFuture<RecordMetadata> first = shover.sendAsync(TOPIC, new Object[] {"a"});
+		assertBackpressure(shover.sendAsync(TOPIC, new Object[] {"b"}));
+		assertEquals(1, producer.history().size());
+
+		// the ticket is released by the completion
+		assertTrue(producer.completeNext());
+		first.get(5, TimeUnit.SECONDS);
+		CompletableFuture<RecordMetadata> next = shover.sendAsync(TOPIC, new Object[] {"c"});
+		assertTrue(producer.completeNext());
+		assertNotNull(next.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void failWhenTooManyInFlightBytes() throws Exception {
+		Properties config = new Properties();
+		config.setProperty("send.max.in.flight.bytes", Integer.toString(MESSAGE_BYTES * 3 / 2));
+		config.setProperty("send.backpressure.policy", "fail");
+		build(config);
+
+		CompletableFuture<RecordMetadata> first = shover.sendAsync(TOPIC, new Object[] {"a"});
+		assertEquals(MESSAGE_BYTES, producer.history().get(0).value().length);
+		assertBackpressure(shover.sendAsync(TOPIC, new Object[] {"b"}));
+
+		assertTrue(producer.completeNext());
+		first.get(5, TimeUnit.SECONDS);
+		CompletableFuture<RecordMetadata> next = shover.sendAsync(TOPIC, new Object[] {"c"});
+		assertTrue(producer.completeNext());
+		assertNotNull(next.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void timeOutUnderBlockPolicy() throws Exception {
+		Properties config = new Properties();
+		config.setProperty("send.max.in.flight", "1");
+		config.setProperty("send.backpressure.policy", "block");
+		config.setProperty("send.backpressure.timeout.ms", "100");
+		build(config);
+
+		shover.sendAsync(TOPIC, new Object[] {"a"});
+		long start = System.nanoTime();
+		assertBackpressure(shover.sendAsync(TOPIC, new Object[] {"b"}));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+		assertEquals(1, producer.history().size());
+	}
+
+	private void build(Properties overrides) throws Exception {
+		Properties config = TestShovers.config(TOPIC);
+		config.putAll(overrides);
+		producer = TestShovers.producer(false);
+		shover = TestShovers.build(config, producer, TestShovers.registry(TOPIC, schema));
+	}
+
+	private void awaitSent(int number) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (producer.history().size() < number) {
+			if (System.currentTimeMillis() > deadline) fail("not sent : " + number);
+			Thread.sleep(10);
+		}
+	}
+
+	private static void assertBackpressure(CompletableFuture<RecordMetadata> future) throws Exception {
+		assertTrue(future.isCompletedExceptionally());
+		try {
+			future.get();
+			fail("not failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ShoverBackpressureException);
+		}
+	}
+
+}
@@ -1,30 +1,186 @@
 package org.conquernos.shover;
 
+import io.confluent.kafka.serializers.KafkaAvroDeserializer;
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.conquernos.shover.converter.ShoverMessageConverter;
+import org.conquernos.shover.exceptions.send.ShoverMessageException;
+import org.conquernos.shover.exceptions.send.ShoverSpilledException;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
 
 
 public class ShoverTest {
 
+	private static final String TOPIC = "shover";
+
+	private static final Schema schema = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"shover\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}, {\"name\": \"count\", \"type\": \"int\"}]}");
+
+	public static class Event extends ShoverMessage {
+
+		public String name;
+		public int count;
+
+		Event(String name, int count) {
+			this.name = name;
+			this.count = count;
+		}
+
+	}
+
+	private File dir;
+
+	private MockSchemaRegistryClient registry;
+
+	private MockProducer<byte[], byte[]> producer;
+
+	private Shover shover;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("shover-test").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		if (shover != null) shover.close();
+		delete(dir);
+	}
+
 	@Test
-	public void getInstance() throws Exception {
+	public void cacheConverterPerClassAndSchema() throws Exception {
+		build(new Properties(), true);
+
+		Schema topicSchema = shover.getSchema(TOPIC, 0);
+		ShoverMessageConverter converter = ShoverMessageConverter.get(Event.class, topicSchema);
+		assertSame(converter, ShoverMessageConverter.get(Event.class, topicSchema));
+		assertTrue(converter.isConverterOf(Event.class));
 
+		// another schema of the class has its own converter
+		Schema other = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"other\", \"fields\": ["
+			+ "{\"name\": \"name\", \"type\": \"string\"}]}");
+		ShoverMessageConverter otherConverter = ShoverMessageConverter.get(Event.class, other);
+		assertNotSame(converter, otherConverter);
+		assertSame(otherConverter, ShoverMessageConverter.get(Event.class, other));
+
+		// the messages sent by the shover are converted by the cached converter
+		shover.send(TOPIC, new Event("a", 1));
+		shover.send(TOPIC, new Event("b", 2));
+		assertEquals("b", decode(1).get("name").toString());
+		assertSame(converter, ShoverMessageConverter.get(Event.class, topicSchema));
 	}
 
 	@Test
-	public void send() throws Exception {
+	public void sendDecodablePayload() throws Exception {
+		build(new Properties(), true);
+
+		Map<String, Object> map = new HashMap<>();
+		map.put("name", "map");
+		map.put("count", 3);
 
+		shover.send(TOPIC, new Event("message", 1));
+		shover.send(TOPIC, new Object[] {"values", 2});
+		shover.send(TOPIC, map);
+
+		// the Confluent wire format (magic byte, schema id, avro binary)
+		assertEquals(3, producer.history().size());
+		assertDecoded(0, "message", 1);
+		assertDecoded(1, "values", 2);
+		assertDecoded(2, "map", 3);
 	}
 
 	@Test
-	public void send1() throws Exception {
+	public void reportBatchFailuresByIndex() throws Exception {
+		build(new Properties(), false);
+
+		CompletableFuture<ShoverBatchResult> future = shover.sendBatch(TOPIC
+			, Arrays.asList(new Object[] {"a", 1}, new Object[] {"b", "not a number"}, new Event("c", 3), new Object[] {"d", 4}));
 
+		// the message of index 1 is not sent, the one of index 2 fails in the producer
+		assertEquals(3, producer.history().size());
+		RuntimeException error = new RuntimeException("broken");
+		assertTrue(producer.completeNext());
+		assertTrue(producer.errorNext(error));
+		assertTrue(producer.completeNext());
+
+		ShoverBatchResult result = future.get(5, TimeUnit.SECONDS);
+		assertEquals(4, result.getSize());
+		assertEquals(2, result.getNumberOfCompletedMessages());
+		assertEquals(Arrays.asList(1, 2), Arrays.asList(result.getFailures().keySet().toArray()));
+		assertTrue(result.getFailures().get(1) instanceof ShoverMessageException);
+		assertSame(error, result.getFailures().get(2));
+
+		assertEquals(2, shover.getStats().getNumberOfCompletedMessages());
+		assertEquals(2, shover.getStats().getNumberOfFailedMessages());
+		assertEquals(0, shover.getStats().getNumberOfPendingMessages());
 	}
 
 	@Test
-	public void send2() throws Exception {
+	public void spilledMessageIsNotPending() throws Exception {
+		Properties config = new Properties();
+		config.setProperty("spill.dir", new File(dir, "spill").getPath());
+		config.setProperty("spill.replay.interval.ms", "600000");
+		build(config, false);
+
+		CompletableFuture<RecordMetadata> future = shover.sendAsync(TOPIC, new Object[] {"a", 1});
+		assertEquals(1, shover.getStats().getNumberOfPendingMessages());
+
+		// a retriable error, the message is written to the spill log
+		assertTrue(producer.errorNext(new TimeoutException("broker is unreachable")));
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("not failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ShoverSpilledException);
+		}
+
+		assertEquals(1, shover.getStats().getNumberOfSpilledMessages());
+		assertEquals(0, shover.getStats().getNumberOfFailedMessages());
+		assertEquals(0, shover.getStats().getNumberOfPendingMessages());
+	}
+
+	private void build(Properties overrides, boolean autoComplete) throws Exception {
+		Properties config = TestShovers.config(TOPIC);
+		config.putAll(overrides);
+		registry = TestShovers.registry(TOPIC, schema);
+		producer = TestShovers.producer(autoComplete);
+		shover = TestShovers.build(config, producer, registry);
+	}
+
+	private GenericRecord decode(int idx) {
+		return (GenericRecord) new KafkaAvroDeserializer(registry).deserialize(TOPIC, producer.history().get(idx).value());
+	}
+
+	private void assertDecoded(int idx, String name, int count) {
+		GenericRecord record = decode(idx);
+		assertEquals(name, record.get("name").toString());
+		assertEquals(count, record.get("count"));
+	}
 
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) delete(child);
+		}
+		file.delete();
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,74 @@
+package org.conquernos.shover;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import org.apache.avro.Schema;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.conquernos.shover.config.ShoverConfig;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+
+/**
+ * Shovers for the tests, built with a mock producer and a mock schema registry (no Kafka cluster, no schema registry).
+ */
+public class TestShovers {
+
+	private TestShovers() {
+	}
+
+	/**
+	 * Get the settings of a shover of the topics, the flusher does nothing (the mock producer completes the sends).
+	 */
+	public static Properties config(String... topics) {
+		Properties properties = new Properties();
+		properties.setProperty("brokers", "localhost:9092");
+		properties.setProperty("schema.registry.url", "http://localhost:8081");
+		properties.setProperty("topics", String.join(",", topics));
+		properties.setProperty("message.flush.size", "0");
+		properties.setProperty("flush.interval.ms", "0");
+
+		return properties;
+	}
+
+	public static MockSchemaRegistryClient registry(String topic, Schema schema) throws Exception {
+		MockSchemaRegistryClient client = new MockSchemaRegistryClient();
+		client.register(topic, schema);
+
+		return client;
+	}
+
+	/**
+	 * @param autoComplete Whether a send is completed at once (otherwise by completeNext() or errorNext())
+	 */
+	public static MockProducer<byte[], byte[]> producer(boolean autoComplete) {
+		return new MockProducer<>(autoComplete, new ByteArraySerializer(), new ByteArraySerializer());
+	}
+
+	/**
+	 * Build a shover without a shutdown hook, it has to be closed by the test.
+	 */
+	public static Shover build(Properties config, MockProducer<byte[], byte[]> producer, MockSchemaRegistryClient client)
+		throws IOException {
+		return Shover.builder().config(shoverConfig(config)).shutdownHook(false)
+			.producer(producer).schemaRegistryClient(client).build();
+	}
+
+	public static ShoverConfig shoverConfig(Properties config) throws IOException {
+		File file = File.createTempFile("shover-test", ".conf");
+		try {
+			try (OutputStream out = new FileOutputStream(file)) {
+				config.store(out, null);
+			}
+
+			return new ShoverConfig(file.getPath());
+		} finally {
+			file.delete();
+		}
+	}
+
+}
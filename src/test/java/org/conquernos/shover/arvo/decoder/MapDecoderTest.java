@@ -0,0 +1,250 @@
+package org.conquernos.shover.arvo.decoder;
+
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+public class MapDecoderTest {
+
+	private static final Schema schema = new Schema.Parser().parse("{" +
+		"\"type\": \"record\", \"name\": \"log\", \"fields\": [" +
+		" { \"name\": \"name\", \"type\": \"string\" }" +
+		", { \"name\": \"count\", \"type\": \"int\" }" +
+		", { \"name\": \"valid\", \"type\": \"boolean\" }" +
+		", { \"name\": \"inner\", \"type\": { \"type\": \"record\", \"name\": \"inner\", \"fields\": [" +
+		"   { \"name\": \"id\", \"type\": \"long\" }, { \"name\": \"score\", \"type\": \"double\" } ] } }" +
+		", { \"name\": \"tags\", \"type\": { \"type\": \"array\", \"items\": \"string\" } }" +
+		", { \"name\": \"points\", \"type\": { \"type\": \"array\", \"items\": { \"type\": \"record\", \"name\": \"point\", \"fields\": [" +
+		"   { \"name\": \"x\", \"type\": \"int\" }, { \"name\": \"y\", \"type\": \"float\" } ] } } }" +
+		", { \"name\": \"attrs\", \"type\": { \"type\": \"map\", \"values\": \"string\" } }" +
+		", { \"name\": \"level\", \"type\": { \"type\": \"enum\", \"name\": \"level\", \"symbols\": [\"INFO\", \"WARN\"] } }" +
+		", { \"name\": \"payload\", \"type\": \"bytes\" }" +
+		", { \"name\": \"code\", \"type\": { \"type\": \"fixed\", \"name\": \"code\", \"size\": 2 } }" +
+		", { \"name\": \"memo\", \"type\": [\"null\", \"string\"] }" +
+		", { \"name\": \"note\", \"type\": [\"null\", \"string\"] }" +
+		"] }");
+
+	private static final String JSON = "{\"name\": \"name-가\", \"count\": 7, \"valid\": true" +
+		", \"inner\": {\"id\": 123456789012, \"score\": 2.25}" +
+		", \"tags\": [\"a\", \"b\"]" +
+		", \"points\": [{\"x\": 1, \"y\": 1.5}, {\"x\": 2, \"y\": -0.5}]" +
+		", \"attrs\": {\"k1\": \"v1\", \"k2\": \"v2\"}" +
+		", \"level\": \"WARN\"" +
+		", \"payload\": \"\\u0000\\u00ff\"" +
+		", \"code\": \"ab\"" +
+		", \"memo\": {\"string\": \"memo\"}" +
+		", \"note\": null}";
+
+	private static Map<String, Object> flattened() {
+		Map<String, Object> map = new HashMap<>();
+		map.put("name", "name-가");
+		map.put("count", 7);
+		map.put("valid", true);
+		map.put("inner|id", 123456789012L);
+		map.put("inner|score", 2.25);
+		map.put("tags|0", "a");
+		map.put("tags|1", "b");
+		map.put("points|0|x", 1);
+		map.put("points|0|y", 1.5f);
+		map.put("points|1|x", "2");
+		map.put("points|1|y", "-0.5");
+		map.put("attrs|k1", "v1");
+		map.put("attrs|k2", "v2");
+		map.put("level", "WARN");
+		map.put("payload", new byte[] {0, (byte) 0xff});
+		map.put("code", "ab");
+		map.put("memo|string", "memo");
+		map.put("note", null);
+
+		return map;
+	}
+
+	@Test
+	public void readSameRecordAsJsonDecoder() throws Exception {
+		assertEquals(readJson(JSON), readMap(flattened()));
+	}
+
+	@Test
+	public void readUnionValueWithoutBranch() throws Exception {
+		Map<String, Object> map = flattened();
+		map.remove("memo|string");
+		map.put("memo", "memo");
+
+		assertEquals(readJson(JSON), readMap(map));
+	}
+
+	@Test
+	public void readEmptyAndMissingContainers() throws Exception {
+		Map<String, Object> map = flattened();
+		map.remove("tags|0");
+		map.remove("tags|1");
+		map.remove("attrs|k1");
+		map.remove("attrs|k2");
+		map.remove("memo|string");
+
+		String json = JSON.replace("[\"a\", \"b\"]", "[]").replace("{\"k1\": \"v1\", \"k2\": \"v2\"}", "{}")
+			.replace("{\"string\": \"memo\"}", "null");
+		assertEquals(readJson(json), readMap(map));
+	}
+
+	@Test
+	public void reuseDecoderForNextMap() throws Exception {
+		GenericDatumReader<Object> reader = new GenericDatumReader<>(schema);
+		Map<String, Object> other = flattened();
+		other.remove("tags|1");
+		other.put("count", 8);
+
+		MapDecoder decoder = new MapDecoder(schema, flattened());
+		assertEquals(readJson(JSON), reader.read(null, decoder));
+		assertEquals(readJson(JSON.replace("\"count\": 7", "\"count\": 8").replace("[\"a\", \"b\"]", "[\"a\"]"))
+			, reader.read(null, decoder.configure(other)));
+		assertEquals(readJson(JSON), reader.read(null, decoder.configure(flattened())));
+	}
+
+	@Test
+	public void readArrayItemsInOrderOfIndexes() throws Exception {
+		// the trie keeps the order of the keys, the items are ordered by their indexes
+		Map<String, Object> map = new LinkedHashMap<>(flattened());
+		map.remove("tags|0");
+		map.put("tags|0", "a");
+
+		assertEquals(readJson(JSON), readMap(map));
+	}
+
+	@Test(expected = AvroTypeException.class)
+	public void readArrayWithMissingIndex() throws Exception {
+		Map<String, Object> map = flattened();
+		map.remove("tags|1");
+		map.put("tags|2", "b");
+		readMap(map);
+	}
+
+	@Test
+	public void readDeeplyNestedRecords() throws Exception {
+		// deeper than the initial stacks of the key path and the records
+		int levels = 40;
+		StringBuilder schemaJson = new StringBuilder();
+		StringBuilder json = new StringBuilder();
+		StringBuilder key = new StringBuilder();
+		for (int level = 0; level < levels; level++) {
+			schemaJson.append("{\"type\": \"record\", \"name\": \"r").append(level).append("\", \"fields\": [")
+				.append("{\"name\": \"n\", \"type\": \"int\"}, {\"name\": \"f\", \"type\": ");
+			json.append("{\"n\": ").append(level).append(", \"f\": ");
+		}
+		schemaJson.append("\"string\"");
+		json.append("\"leaf\"");
+
+		Map<String, Object> map = new HashMap<>();
+		for (int level = 0; level < levels; level++) {
+			schemaJson.append("}]}");
+			json.append("}");
+			map.put(key + "n", level);
+			key.append("f|");
+		}
+		map.put(key.substring(0, key.length() - 1), "leaf");
+
+		Schema nested = new Schema.Parser().parse(schemaJson.toString());
+		assertEquals(new GenericDatumReader<>(nested).read(null, DecoderFactory.get().jsonDecoder(nested, json.toString()))
+			, new GenericDatumReader<>(nested).read(null, new MapDecoder(nested, map)));
+	}
+
+	@Test
+	public void readIntegralOfOtherTypes() throws Exception {
+		Map<String, Object> map = flattened();
+		map.put("count", 7L);
+		map.put("inner|id", 123456789012L);
+		map.put("points|0|x", (short) 1);
+		map.put("points|1|x", (byte) 2);
+
+		assertEquals(readJson(JSON), readMap(map));
+	}
+
+	@Test(expected = AvroTypeException.class)
+	public void readLongOutOfIntRange() throws Exception {
+		Map<String, Object> map = flattened();
+		map.put("count", 1L << 32);
+		readMap(map);
+	}
+
+	@Test(expected = AvroTypeException.class)
+	public void readFractionalAsInt() throws Exception {
+		Map<String, Object> map = flattened();
+		map.put("count", 7.5);
+		readMap(map);
+	}
+
+	@Test(expected = AvroTypeException.class)
+	public void readFractionalAsLong() throws Exception {
+		Map<String, Object> map = flattened();
+		map.put("inner|id", 1.0);
+		readMap(map);
+	}
+
+	@Test
+	public void releaseMapAfterRead() throws Exception {
+		GenericDatumReader<Object> reader = new GenericDatumReader<>(schema);
+		MapDecoder decoder = new MapDecoder(schema, flattened());
+		assertEquals(readJson(JSON), reader.read(null, decoder));
+
+		// a released decoder reads the next map
+		decoder.release();
+		assertEquals(readJson(JSON), reader.read(null, decoder.configure(flattened())));
+
+		// released after a failed read too
+		Map<String, Object> wrong = flattened();
+		wrong.put("count", "not a number");
+		try {
+			reader.read(null, decoder.configure(wrong));
+			fail("read a wrong map");
+		} catch (AvroTypeException expected) {
+		}
+		decoder.release();
+		assertEquals(readJson(JSON), reader.read(null, decoder.configure(flattened())));
+	}
+
+	@Test(expected = AvroTypeException.class)
+	public void readUnknownField() throws Exception {
+		Map<String, Object> map = flattened();
+		map.put("inner|unknown", 1);
+		readMap(map);
+	}
+
+	@Test(expected = AvroTypeException.class)
+	public void readUnknownEnumSymbol() throws Exception {
+		Map<String, Object> map = flattened();
+		map.put("level", "DEBUG");
+		readMap(map);
+	}
+
+	@Test(expected = AvroTypeException.class)
+	public void readMissingField() throws Exception {
+		Map<String, Object> map = flattened();
+		map.remove("count");
+		readMap(map);
+	}
+
+	@Test(expected = AvroTypeException.class)
+	public void readWrongFixedSize() throws Exception {
+		Map<String, Object> map = flattened();
+		map.put("code", "abc");
+		readMap(map);
+	}
+
+	private static Object readMap(Map<String, Object> map) throws Exception {
+		return new GenericDatumReader<>(schema).read(null, new MapDecoder(schema, map));
+	}
+
+	private static Object readJson(String json) throws Exception {
+		return new GenericDatumReader<>(schema).read(null, DecoderFactory.get().jsonDecoder(schema, json));
+	}
+
+}
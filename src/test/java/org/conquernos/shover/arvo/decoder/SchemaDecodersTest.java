@@ -0,0 +1,86 @@
+package org.conquernos.shover.arvo.decoder;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+public class SchemaDecodersTest {
+
+	private static final Schema userSchema = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"user\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}, {\"name\": \"age\", \"type\": \"int\"}]}");
+
+	private static final Schema eventSchema = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"event\", \"fields\": ["
+		+ "{\"name\": \"time\", \"type\": \"long\"}, {\"name\": \"tags\", \"type\": {\"type\": \"array\", \"items\": \"string\"}}]}");
+
+	@Test
+	public void cacheDecodersBySchema() {
+		assertSame(SchemaDecoders.of(userSchema), SchemaDecoders.of(new Schema.Parser().parse(userSchema.toString())));
+		assertNotSame(SchemaDecoders.of(userSchema), SchemaDecoders.of(eventSchema));
+	}
+
+	@Test
+	public void readJsonOfTwoSchemasOnOneThread() throws Exception {
+		SchemaDecoders users = SchemaDecoders.of(userSchema);
+		SchemaDecoders events = SchemaDecoders.of(eventSchema);
+
+		// each schema keeps its own decoder of this thread, so interleaved reads do not mix the grammars
+		for (int idx = 0; idx < 3; idx++) {
+			GenericRecord user = (GenericRecord) users.readJson("{\"name\": \"user" + idx + "\", \"age\": " + idx + "}");
+			GenericRecord event = (GenericRecord) events.readJson("{\"time\": " + idx + ", \"tags\": [\"tag" + idx + "\"]}");
+
+			assertEquals(userSchema, user.getSchema());
+			assertEquals("user" + idx, user.get("name").toString());
+			assertEquals(idx, user.get("age"));
+			assertEquals(eventSchema, event.getSchema());
+			assertEquals((long) idx, event.get("time"));
+			assertEquals("[tag" + idx + "]", event.get("tags").toString());
+		}
+	}
+
+	@Test
+	public void readMapsOfTwoSchemasOnOneThread() throws Exception {
+		SchemaDecoders users = SchemaDecoders.of(userSchema);
+		SchemaDecoders events = SchemaDecoders.of(eventSchema);
+
+		for (int idx = 0; idx < 3; idx++) {
+			Map<String, Object> userMap = new HashMap<>();
+			userMap.put("name", "user" + idx);
+			userMap.put("age", idx);
+			Map<String, Object> eventMap = new HashMap<>();
+			eventMap.put("time", (long) idx);
+			eventMap.put("tags|0", "tag" + idx);
+
+			assertEquals(users.readJson("{\"name\": \"user" + idx + "\", \"age\": " + idx + "}"), users.readMap(userMap));
+			assertEquals(events.readJson("{\"time\": " + idx + ", \"tags\": [\"tag" + idx + "\"]}"), events.readMap(eventMap));
+		}
+	}
+
+	@Test
+	public void readMoreSchemasThanThreadKeeps() throws Exception {
+		// the decoders of the least recently used schemas are evicted from the cache of the thread and created again
+		Schema[] schemas = new Schema[100];
+		for (int idx = 0; idx < schemas.length; idx++) {
+			schemas[idx] = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"record" + idx + "\", \"fields\": ["
+				+ "{\"name\": \"value" + idx + "\", \"type\": \"int\"}]}");
+		}
+
+		for (int round = 0; round < 2; round++) {
+			for (int idx = 0; idx < schemas.length; idx++) {
+				Map<String, Object> map = new HashMap<>();
+				map.put("value" + idx, round);
+				GenericRecord record = (GenericRecord) SchemaDecoders.of(schemas[idx]).readMap(map);
+				assertEquals(round, record.get("value" + idx));
+
+				record = (GenericRecord) SchemaDecoders.of(schemas[idx]).readJson("{\"value" + idx + "\": " + round + "}");
+				assertEquals(round, record.get("value" + idx));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.conquernos.shover.converter;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+public class MapRecordConverterTest {
+
+	private static final Schema schema = new Schema.Parser().parse("{" +
+		"\"type\": \"record\", \"name\": \"event\", \"fields\": [" +
+		" { \"name\": \"name\", \"type\": \"string\" }" +
+		", { \"name\": \"value\", \"type\": [\"null\", \"long\", \"int\", \"string\", \"double\"] }" +
+		", { \"name\": \"amount\", \"type\": [\"string\", \"long\"] }" +
+		", { \"name\": \"count\", \"type\": \"int\", \"default\": 3 }" +
+		", { \"name\": \"tags\", \"type\": { \"type\": \"array\", \"items\": \"string\" }, \"default\": [\"x\"] }" +
+		", { \"name\": \"memo\", \"type\": [\"null\", \"string\"] }" +
+		", { \"name\": \"inner\", \"type\": [\"null\", { \"type\": \"record\", \"name\": \"inner\", \"fields\": [" +
+		"   { \"name\": \"id\", \"type\": \"long\" } ] }], \"default\": null }" +
+		"] }");
+
+	private static Map<String, Object> message() {
+		Map<String, Object> message = new HashMap<>();
+		message.put("name", "event");
+		message.put("value", 1);
+		message.put("amount", 2L);
+		message.put("memo", null);
+
+		return message;
+	}
+
+	@Test
+	public void pickUnionBranchByType() {
+		MapRecordConverter converter = MapRecordConverter.get(schema, false);
+		Map<String, Object> message = message();
+
+		// the exact type first, even if another branch comes before it
+		message.put("value", 1);
+		assertEquals(1, converter.convert(message).get("value"));
+		message.put("value", 1L);
+		assertEquals(1L, converter.convert(message).get("value"));
+		message.put("value", "one");
+		assertEquals("one", converter.convert(message).get("value"));
+		message.put("value", 1.5);
+		assertEquals(1.5, converter.convert(message).get("value"));
+
+		// else the first branch it converts to
+		message.put("value", (short) 1);
+		assertEquals(1L, converter.convert(message).get("value"));
+		message.put("amount", 2);
+		assertEquals(2L, converter.convert(message).get("amount"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectValueOfNoBranch() {
+		Map<String, Object> message = message();
+		message.put("amount", true);
+		MapRecordConverter.get(schema, false).convert(message);
+	}
+
+	@Test
+	public void fillMissingFieldsWithDefaults() {
+		MapRecordConverter converter = MapRecordConverter.get(schema, false);
+
+		GenericRecord first = converter.convert(message());
+		GenericRecord second = converter.convert(message());
+		assertEquals(3, first.get("count"));
+		assertEquals(Collections.singletonList("x"), toList(first.get("tags")));
+		assertNull(first.get("inner"));
+
+		// the default is not shared between the records
+		assertNotSame(first.get("tags"), second.get("tags"));
+
+		// a given value is not replaced by the default
+		Map<String, Object> message = message();
+		message.put("count", 4);
+		message.put("tags", Arrays.asList("a", "b"));
+		message.put("inner", Collections.singletonMap("id", 5L));
+		GenericRecord record = converter.convert(message);
+		assertEquals(4, record.get("count"));
+		assertEquals(Arrays.asList("a", "b"), toList(record.get("tags")));
+		assertEquals(5L, ((GenericRecord) record.get("inner")).get("id"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectMissingRequiredField() {
+		Map<String, Object> message = message();
+		message.remove("name");
+		MapRecordConverter.get(schema, false).convert(message);
+	}
+
+	@Test
+	public void missingNullableFieldIsNull() {
+		Map<String, Object> message = message();
+		message.remove("memo");
+		assertNull(MapRecordConverter.get(schema, false).convert(message).get("memo"));
+	}
+
+	@Test
+	public void rejectUnknownField() {
+		Map<String, Object> message = message();
+		message.put("unknown", 1);
+		assertUnknownField(message, "unknown");
+
+		// also in a nested record
+		message = message();
+		Map<String, Object> inner = new HashMap<>();
+		inner.put("id", 5L);
+		inner.put("other", 6L);
+		message.put("inner", inner);
+		assertUnknownField(message, "other");
+	}
+
+	private static void assertUnknownField(Map<String, Object> message, String key) {
+		try {
+			MapRecordConverter.get(schema, false).convert(message);
+			fail("not rejected : " + key);
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(key));
+		}
+	}
+
+	// the strings of a default are Utf8
+	private static List<String> toList(Object array) {
+		List<String> list = new ArrayList<>();
+		for (Object item : (GenericData.Array<?>) array) list.add(item.toString());
+
+		return list;
+	}
+
+}
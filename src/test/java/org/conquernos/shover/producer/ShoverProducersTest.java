@@ -0,0 +1,188 @@
+package org.conquernos.shover.producer;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class ShoverProducersTest {
+
+	private static final String TOPIC = "routed";
+
+	private static final int PARTITIONS = 4;
+
+	// counts its closes
+	private static class ClosingProducer extends MockProducer<byte[], byte[]> {
+
+		final AtomicInteger closes = new AtomicInteger(0);
+
+		ClosingProducer(boolean autoComplete) {
+			super(cluster(), autoComplete, new DefaultPartitioner(), new ByteArraySerializer(), new ByteArraySerializer());
+		}
+
+		@Override
+		public void close() {
+			closes.incrementAndGet();
+		}
+
+		@Override
+		public void close(long timeout, TimeUnit unit) {
+			closes.incrementAndGet();
+		}
+
+	}
+
+	private static Cluster cluster() {
+		Node node = new Node(0, "localhost", 9092);
+		List<PartitionInfo> partitions = new ArrayList<>();
+		for (int partition = 0; partition < PARTITIONS; partition++) {
+			partitions.add(new PartitionInfo(TOPIC, partition, node, new Node[] {node}, new Node[] {node}));
+		}
+
+		return new Cluster(Collections.singletonList(node), partitions, Collections.<String>emptySet());
+	}
+
+	@Test
+	public void routeOneTopicByPartition() {
+		List<ClosingProducer> created = new ArrayList<>();
+		ShoverProducers producers = producers(2, ProducerRouting.TOPIC, created, -1);
+
+		for (int idx = 0; idx < PARTITIONS * 2; idx++) {
+			producers.send(new ProducerRecord<>(TOPIC, new byte[] {(byte) idx}));
+		}
+
+		// the partitions are given in turn, and a partition is sent by only one instance
+		Map<Integer, Integer> instanceOfPartition = new HashMap<>();
+		int[] recordsOfPartition = new int[PARTITIONS];
+		for (int instance = 0; instance < created.size(); instance++) {
+			assertFalse(created.get(instance).history().isEmpty());
+			for (ProducerRecord<byte[], byte[]> record : created.get(instance).history()) {
+				assertNotNull(record.partition());
+				recordsOfPartition[record.partition()]++;
+				Integer prev = instanceOfPartition.put(record.partition(), instance);
+				assertTrue(prev == null || prev == instance);
+			}
+		}
+		for (int records : recordsOfPartition) assertEquals(2, records);
+	}
+
+	@Test
+	public void keepGivenPartitionAndKey() {
+		List<ClosingProducer> created = new ArrayList<>();
+		ShoverProducers producers = producers(2, ProducerRouting.TOPIC, created, -1);
+
+		producers.send(new ProducerRecord<>(TOPIC, 3, null, new byte[] {1}));
+		producers.send(new ProducerRecord<>(TOPIC, new byte[] {1}, new byte[] {2}));
+
+		List<ProducerRecord<byte[], byte[]>> sent = new ArrayList<>();
+		for (ClosingProducer producer : created) sent.addAll(producer.history());
+		assertEquals(2, sent.size());
+		for (ProducerRecord<byte[], byte[]> record : sent) {
+			if (record.key() == null) {
+				assertEquals(Integer.valueOf(3), record.partition());
+			} else {
+				assertNull(record.partition());
+			}
+		}
+	}
+
+	@Test
+	public void routeByThread() throws Exception {
+		List<ClosingProducer> created = new ArrayList<>();
+		ShoverProducers producers = producers(3, ProducerRouting.THREAD, created, -1);
+
+		for (int idx = 0; idx < 10; idx++) {
+			producers.send(new ProducerRecord<>(TOPIC, new byte[] {(byte) idx}));
+		}
+
+		// the records of a thread are sent by one instance, in their order
+		Set<Integer> instances = new HashSet<>();
+		for (int instance = 0; instance < created.size(); instance++) {
+			List<ProducerRecord<byte[], byte[]>> history = created.get(instance).history();
+			if (history.isEmpty()) continue;
+			instances.add(instance);
+			assertEquals(10, history.size());
+			for (int idx = 0; idx < 10; idx++) assertEquals(idx, history.get(idx).value()[0]);
+			assertNull(history.get(0).partition());
+		}
+		assertEquals(1, instances.size());
+	}
+
+	@Test
+	public void flushAndCloseAllInstances() {
+		List<ClosingProducer> created = new ArrayList<>();
+		ShoverProducers producers = producers(2, ProducerRouting.TOPIC, created, -1);
+
+		AtomicInteger completed = new AtomicInteger(0);
+		for (int idx = 0; idx < PARTITIONS; idx++) {
+			producers.send(new ProducerRecord<>(TOPIC, new byte[] {(byte) idx}), (metadata, exception) -> completed.incrementAndGet());
+		}
+		assertEquals(0, completed.get());
+
+		producers.flush();
+		assertEquals(PARTITIONS, completed.get());
+
+		producers.close(1, TimeUnit.SECONDS);
+		for (ClosingProducer producer : created) assertEquals(1, producer.closes.get());
+	}
+
+	@Test
+	public void closeCreatedInstancesIfOneFails() {
+		List<ClosingProducer> created = new ArrayList<>();
+		try {
+			producers(3, ProducerRouting.TOPIC, created, 2);
+			fail("created");
+		} catch (IllegalStateException e) {
+			assertEquals("instance 2", e.getMessage());
+		}
+
+		assertEquals(2, created.size());
+		for (ClosingProducer producer : created) assertEquals(1, producer.closes.get());
+	}
+
+	@Test
+	public void nameInstancesByClientId() {
+		List<String> clientIds = new ArrayList<>();
+		Properties properties = new Properties();
+		properties.setProperty("client.id", "shover");
+		new ShoverProducers(properties, 2, ProducerRouting.THREAD, instanceProperties -> {
+			clientIds.add(instanceProperties.getProperty("client.id"));
+			return new ClosingProducer(true);
+		});
+
+		assertEquals(2, clientIds.size());
+		assertEquals("shover-0", clientIds.get(0));
+		assertEquals("shover-1", clientIds.get(1));
+	}
+
+	/**
+	 * @param failingInstance The instance whose creation fails (-1 : none)
+	 */
+	private static ShoverProducers producers(int instances, ProducerRouting routing, List<ClosingProducer> created, int failingInstance) {
+		return new ShoverProducers(new Properties(), instances, routing, properties -> {
+			if (created.size() == failingInstance) throw new IllegalStateException("instance " + failingInstance);
+			ClosingProducer producer = new ClosingProducer(false);
+			created.add(producer);
+			return producer;
+		});
+	}
+
+}
@@ -0,0 +1,99 @@
+package org.conquernos.shover.schema;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import org.apache.avro.Schema;
+import org.conquernos.shover.TestShovers;
+import org.conquernos.shover.config.ShoverConfig;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class CachedSchemasTest {
+
+	private static final Schema first = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"cached\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}]}");
+
+	private static final Schema second = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"cached\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}, {\"name\": \"count\", \"type\": \"int\", \"default\": 0}]}");
+
+	private static class CountingRegistry extends MockSchemaRegistryClient {
+
+		final AtomicInteger latestFetches = new AtomicInteger(0);
+		final AtomicInteger versionFetches = new AtomicInteger(0);
+
+		@Override
+		public SchemaMetadata getLatestSchemaMetadata(String subject) throws IOException, RestClientException {
+			latestFetches.incrementAndGet();
+			return super.getLatestSchemaMetadata(subject);
+		}
+
+		@Override
+		public SchemaMetadata getSchemaMetadata(String subject, int version) throws IOException, RestClientException {
+			versionFetches.incrementAndGet();
+			return super.getSchemaMetadata(subject, version);
+		}
+
+	}
+
+	@Test
+	public void updateOnlyLatestVersions() throws Exception {
+		CountingRegistry registry = new CountingRegistry();
+		registry.register("latest", first);
+		registry.register("fixed", first);
+		CachedSchemas cached = new CachedSchemas(config("latest,fixed:1", null), registry, null);
+		registry.latestFetches.set(0);
+		registry.versionFetches.set(0);
+
+		assertEquals(0, cached.update());
+		assertEquals(1, registry.latestFetches.get());
+		assertEquals(0, registry.versionFetches.get());
+
+		registry.register("latest", second);
+		registry.register("fixed", second);
+		Schema unchanged = cached.getCachedSchema(new Subject("fixed", 1));
+
+		assertEquals(1, cached.update());
+		assertEquals(second, cached.getCachedSchema(new Subject("latest")));
+		assertSame(unchanged, cached.getCachedSchema(new Subject("fixed", 1)));
+		assertEquals(0, registry.versionFetches.get());
+	}
+
+	@Test
+	public void writeSnapshotInBackground() throws Exception {
+		File dir = Files.createTempDirectory("cached-schemas-test").toFile();
+		File snapshotFile = new File(dir, "snapshot");
+		try {
+			MockSchemaRegistryClient registry = new MockSchemaRegistryClient();
+			int id = registry.register("latest", first);
+
+			CachedSchemas cached = new CachedSchemas(config("latest", snapshotFile), registry, snapshotFile);
+			// the last requested write is done before close returns
+			cached.close(5000);
+
+			RegisteredSchema saved = SchemaSnapshot.read(snapshotFile).get(new Subject("latest"));
+			assertNotNull(saved);
+			assertEquals(id, saved.getId());
+			assertEquals(first, saved.getSchema());
+		} finally {
+			snapshotFile.delete();
+			dir.delete();
+		}
+	}
+
+	private static ShoverConfig config(String topics, File snapshotFile) throws IOException {
+		Properties properties = TestShovers.config(topics);
+		if (snapshotFile != null) properties.setProperty("schema.snapshot.file", snapshotFile.getPath());
+
+		return TestShovers.shoverConfig(properties);
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.conquernos.shover.schema;
+
+import org.apache.avro.Schema;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class SchemaInternerTest {
+
+	private static final String SCHEMA = "{\"type\": \"record\", \"name\": \"interned\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}, {\"name\": \"count\", \"type\": \"int\", \"default\": 0}]}";
+
+	@Test
+	public void internEqualSchemas() {
+		Schema first = SchemaInterner.intern(new Schema.Parser().parse(SCHEMA));
+		Schema second = SchemaInterner.intern(new Schema.Parser().parse(SCHEMA));
+
+		assertSame(first, second);
+		assertSame(first, SchemaInterner.parse(SCHEMA));
+		assertSame(first, SchemaInterner.parse(SCHEMA.replace(", ", ",")));
+	}
+
+	@Test
+	public void internSchemasOfSameFingerprint() {
+		// the parsing fingerprint ignores defaults
+		Schema schema = SchemaInterner.parse(SCHEMA);
+		Schema otherDefault = SchemaInterner.parse(SCHEMA.replace("\"default\": 0", "\"default\": 1"));
+
+		assertNotSame(schema, otherDefault);
+		assertFalse(schema.equals(otherDefault));
+		assertSame(otherDefault, SchemaInterner.intern(new Schema.Parser().parse(SCHEMA.replace("\"default\": 0", "\"default\": 1"))));
+	}
+
+	@Test
+	public void internSchemasOfOtherDocs() {
+		// Schema.equals and the parsing fingerprint ignore docs
+		Schema schema = SchemaInterner.parse(SCHEMA.replace("\"name\": \"interned\"", "\"name\": \"interned\", \"doc\": \"first\""));
+		Schema otherDoc = SchemaInterner.parse(SCHEMA.replace("\"name\": \"interned\"", "\"name\": \"interned\", \"doc\": \"second\""));
+
+		assertNotSame(schema, otherDoc);
+		assertEquals("first", schema.getDoc());
+		assertEquals("second", otherDoc.getDoc());
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.conquernos.shover.schema;
+
+import org.apache.avro.Schema;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+public class SchemaSnapshotTest {
+
+	private static final Schema schema = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"snapshot\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}]}");
+
+	private static final long MAX_AGE_MS = 60000;
+
+	@Test
+	public void freshnessOfEachSchema() throws Exception {
+		File dir = Files.createTempDirectory("schema-snapshot-test").toFile();
+		File file = new File(dir, "snapshot");
+		try {
+			long now = System.currentTimeMillis();
+			Map<Subject, RegisteredSchema> schemas = new HashMap<>();
+			schemas.put(new Subject("fetched"), new RegisteredSchema(1, 1, schema, now));
+			schemas.put(new Subject("carried"), new RegisteredSchema(2, 1, schema, now - 2 * MAX_AGE_MS));
+			schemas.put(new Subject("fixed", 1), new RegisteredSchema(3, 1, schema, now - 2 * MAX_AGE_MS));
+			SchemaSnapshot.write(file, schemas);
+
+			// written again, as the schemas which were read from it
+			SchemaSnapshot snapshot = SchemaSnapshot.read(file);
+			Map<Subject, RegisteredSchema> read = new HashMap<>();
+			for (Subject subject : schemas.keySet()) read.put(subject, snapshot.get(subject));
+			SchemaSnapshot.write(file, read);
+			snapshot = SchemaSnapshot.read(file);
+
+			assertTrue(snapshot.isFresh(new Subject("fetched"), MAX_AGE_MS));
+			// an old latest version does not become fresh by the rewrite
+			assertFalse(snapshot.isFresh(new Subject("carried"), MAX_AGE_MS));
+			assertEquals(now - 2 * MAX_AGE_MS, snapshot.get(new Subject("carried")).getFetchedAt());
+			// a fixed version never changes
+			assertTrue(snapshot.isFresh(new Subject("fixed", 1), MAX_AGE_MS));
+			assertFalse(snapshot.isFresh(new Subject("unknown"), MAX_AGE_MS));
+			assertEquals(2, snapshot.get(new Subject("carried")).getId());
+		} finally {
+			file.delete();
+			dir.delete();
+		}
+	}
+
+}
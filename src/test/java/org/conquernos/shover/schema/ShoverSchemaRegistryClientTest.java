@@ -0,0 +1,236 @@
+package org.conquernos.shover.schema;
+
+import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
+import io.confluent.kafka.schemaregistry.client.rest.RestService;
+import io.confluent.kafka.schemaregistry.client.rest.entities.SchemaString;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import org.apache.avro.Schema;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class ShoverSchemaRegistryClientTest {
+
+	private static final String SUBJECT = "registry-value";
+
+	private static final String SCHEMA = "{\"type\": \"record\", \"name\": \"registry\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}]}";
+
+	/*
+	A schema registry in memory, whose requests can be held until released
+	 */
+	private static class FakeRestService extends RestService {
+
+		final AtomicInteger idRequests = new AtomicInteger(0);
+		final AtomicInteger latestRequests = new AtomicInteger(0);
+
+		// counted down when a request is held
+		final CountDownLatch held = new CountDownLatch(1);
+		volatile CountDownLatch release = new CountDownLatch(0);
+		volatile RestClientException error;
+		volatile int latestVersion = 1;
+
+		FakeRestService() {
+			super("http://localhost:8081");
+		}
+
+		@Override
+		public SchemaString getId(int id) throws IOException, RestClientException {
+			idRequests.incrementAndGet();
+			hold();
+			if (error != null) throw error;
+
+			return new SchemaString(SCHEMA);
+		}
+
+		@Override
+		public io.confluent.kafka.schemaregistry.client.rest.entities.Schema getLatestVersion(String subject)
+			throws IOException, RestClientException {
+			latestRequests.incrementAndGet();
+			int version = latestVersion;
+			hold();
+
+			return new io.confluent.kafka.schemaregistry.client.rest.entities.Schema(subject, version, version, SCHEMA);
+		}
+
+		@Override
+		public int registerSchema(String schema, String subject) throws IOException, RestClientException {
+			return ++latestVersion;
+		}
+
+		private void hold() throws IOException {
+			held.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+
+	}
+
+	private interface Call<T> {
+		T call() throws Exception;
+	}
+
+	/*
+	A call on its own thread
+	 */
+	private static class Caller<T> extends Thread {
+
+		private final Call<T> call;
+		private volatile T result;
+		private volatile Exception error;
+
+		Caller(Call<T> call) {
+			this.call = call;
+			setDaemon(true);
+			start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				result = call.call();
+			} catch (Exception e) {
+				error = e;
+			}
+		}
+
+		// waits until the call waits (for a request in flight)
+		void awaitWaiting() throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (getState() != State.WAITING) {
+				if (System.currentTimeMillis() > deadline) fail("not waiting");
+				Thread.sleep(5);
+			}
+		}
+
+		T result() throws Exception {
+			join(5000);
+			assertFalse("not completed", isAlive());
+			if (error != null) throw error;
+			return result;
+		}
+
+	}
+
+	private final List<Caller<?>> callers = new ArrayList<>();
+
+	@After
+	public void tearDown() {
+		for (Caller<?> caller : callers) caller.interrupt();
+	}
+
+	@Test
+	public void coalesceConcurrentLookups() throws Exception {
+		FakeRestService rest = new FakeRestService();
+		rest.release = new CountDownLatch(1);
+		ShoverSchemaRegistryClient client = new ShoverSchemaRegistryClient(rest, 10, 1000);
+
+		Caller<Schema> first = call(() -> client.getByID(1));
+		assertTrue(rest.held.await(5, TimeUnit.SECONDS));
+		Caller<Schema> second = call(() -> client.getByID(1));
+		second.awaitWaiting();
+		rest.release.countDown();
+
+		assertSame(first.result(), second.result());
+		assertEquals(1, rest.idRequests.get());
+
+		// cached
+		assertSame(first.result(), client.getByID(1));
+		assertEquals(1, rest.idRequests.get());
+	}
+
+	@Test
+	public void failAllWaitersAndRetry() throws Exception {
+		FakeRestService rest = new FakeRestService();
+		rest.release = new CountDownLatch(1);
+		rest.error = new RestClientException("not found", 404, 40403);
+		ShoverSchemaRegistryClient client = new ShoverSchemaRegistryClient(rest, 10, 1000);
+
+		Caller<Schema> first = call(() -> client.getByID(1));
+		assertTrue(rest.held.await(5, TimeUnit.SECONDS));
+		Caller<Schema> second = call(() -> client.getByID(1));
+		second.awaitWaiting();
+		rest.release.countDown();
+
+		assertFailed(first, rest.error);
+		assertFailed(second, rest.error);
+		assertEquals(1, rest.idRequests.get());
+
+		// a failure is not cached
+		rest.error = null;
+		assertNotNull(client.getByID(1));
+		assertEquals(2, rest.idRequests.get());
+	}
+
+	@Test
+	public void expireLatestVersion() throws Exception {
+		FakeRestService rest = new FakeRestService();
+		ShoverSchemaRegistryClient client = new ShoverSchemaRegistryClient(rest, 10, 100);
+
+		assertEquals(1, client.getLatestSchemaMetadata(SUBJECT).getVersion());
+		assertEquals(1, client.getLatestSchemaMetadata(SUBJECT).getVersion());
+		assertEquals(1, rest.latestRequests.get());
+
+		rest.latestVersion = 2;
+		Thread.sleep(200);
+		assertEquals(2, client.getLatestSchemaMetadata(SUBJECT).getVersion());
+		assertEquals(2, rest.latestRequests.get());
+	}
+
+	@Test
+	public void invalidateLatestVersionOnRegister() throws Exception {
+		FakeRestService rest = new FakeRestService();
+		ShoverSchemaRegistryClient client = new ShoverSchemaRegistryClient(rest, 10, 60000);
+
+		assertEquals(1, client.getLatestSchemaMetadata(SUBJECT).getVersion());
+		client.register(SUBJECT, new Schema.Parser().parse(SCHEMA));
+		assertEquals(2, client.getLatestSchemaMetadata(SUBJECT).getVersion());
+		assertEquals(2, rest.latestRequests.get());
+	}
+
+	@Test
+	public void invalidateLatestVersionFetchedAcrossRegister() throws Exception {
+		FakeRestService rest = new FakeRestService();
+		rest.release = new CountDownLatch(1);
+		ShoverSchemaRegistryClient client = new ShoverSchemaRegistryClient(rest, 10, 60000);
+
+		// the version before the registration is fetched, and completed after it
+		Caller<SchemaMetadata> fetching = call(() -> client.getLatestSchemaMetadata(SUBJECT));
+		assertTrue(rest.held.await(5, TimeUnit.SECONDS));
+		client.register(SUBJECT, new Schema.Parser().parse(SCHEMA));
+		rest.release.countDown();
+		assertEquals(1, fetching.result().getVersion());
+
+		assertEquals(2, client.getLatestSchemaMetadata(SUBJECT).getVersion());
+		assertEquals(2, rest.latestRequests.get());
+	}
+
+	private <T> Caller<T> call(Call<T> call) {
+		Caller<T> caller = new Caller<>(call);
+		callers.add(caller);
+
+		return caller;
+	}
+
+	private static void assertFailed(Caller<?> caller, Exception error) throws Exception {
+		try {
+			caller.result();
+			fail("not failed");
+		} catch (RestClientException e) {
+			assertSame(error, e);
+		}
+	}
+
+}
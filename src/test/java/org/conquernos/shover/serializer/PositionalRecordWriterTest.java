@@ -0,0 +1,102 @@
+package org.conquernos.shover.serializer;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+
+public class PositionalRecordWriterTest {
+
+	private static final Schema schema = new Schema.Parser().parse("{" +
+		"\"type\": \"record\", \"name\": \"log\", \"fields\": [" +
+		" { \"name\": \"name\", \"type\": \"string\" }" +
+		", { \"name\": \"count\", \"type\": \"int\" }" +
+		", { \"name\": \"time\", \"type\": \"long\" }" +
+		", { \"name\": \"rate\", \"type\": \"float\" }" +
+		", { \"name\": \"score\", \"type\": \"double\" }" +
+		", { \"name\": \"valid\", \"type\": \"boolean\" }" +
+		", { \"name\": \"memo\", \"type\": [\"null\", \"string\"] }" +
+		", { \"name\": \"level\", \"type\": { \"type\": \"enum\", \"name\": \"level\", \"symbols\": [\"INFO\", \"WARN\"] } }" +
+		", { \"name\": \"tags\", \"type\": { \"type\": \"array\", \"items\": \"string\" } }" +
+		"] }");
+
+	@Test
+	public void writeSameBytesAsGenericDatumWriter() throws Exception {
+		Object[] values = new Object[] {"name-가😀", 7, 123456789012L, 1.5f, 2.25, true, null, "WARN", Arrays.asList("a", "b")};
+		assertTrue(Arrays.equals(genericBytes(values), positionalBytes(values)));
+
+		values[6] = "memo";
+		assertTrue(Arrays.equals(genericBytes(values), positionalBytes(values)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void writeNullToNotNullField() throws Exception {
+		positionalBytes(new Object[] {null, 7, 1L, 1.5f, 2.25, true, null, "WARN", Arrays.asList("a")});
+	}
+
+	@Test
+	public void writeNumbersOfNarrowerTypes() throws Exception {
+		Object[] values = new Object[] {"name", (short) 7, 123, 3, 4L, true, null, "INFO", Arrays.asList("a")};
+		Object[] widened = new Object[] {"name", 7, 123L, 3f, 4.0, true, null, "INFO", Arrays.asList("a")};
+		assertTrue(Arrays.equals(genericBytes(widened), positionalBytes(values)));
+
+		// a long in the int range, a double that is exactly a float
+		values[1] = 7L;
+		values[3] = 3.0;
+		assertTrue(Arrays.equals(genericBytes(widened), positionalBytes(values)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void writeLongOutOfIntRange() throws Exception {
+		positionalBytes(new Object[] {"name", 1L << 32, 1L, 1.5f, 2.25, true, null, "WARN", Arrays.asList("a")});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void writeDoubleToLongField() throws Exception {
+		positionalBytes(new Object[] {"name", 7, 1.9, 1.5f, 2.25, true, null, "WARN", Arrays.asList("a")});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void writeInexactDoubleToFloatField() throws Exception {
+		positionalBytes(new Object[] {"name", 7, 1L, 0.1, 2.25, true, null, "WARN", Arrays.asList("a")});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void writeTooFewValues() throws Exception {
+		positionalBytes(new Object[] {"name", 7});
+	}
+
+	private static byte[] positionalBytes(Object[] values) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		new PositionalRecordWriter(schema).write(values, encoder, new PositionalRecordWriter.Scratch());
+		encoder.flush();
+
+		return out.toByteArray();
+	}
+
+	private static byte[] genericBytes(Object[] values) throws Exception {
+		GenericData.Record record = new GenericData.Record(schema);
+		for (int pos = 0; pos < values.length; pos++) {
+			Object value = values[pos];
+			if (pos == 7) value = new GenericData.EnumSymbol(schema.getFields().get(pos).schema(), (String) value);
+			record.put(pos, value);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		new GenericDatumWriter<Object>(schema).write(record, encoder);
+		encoder.flush();
+
+		return out.toByteArray();
+	}
+
+}
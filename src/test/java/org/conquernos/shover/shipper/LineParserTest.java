@@ -0,0 +1,136 @@
+package org.conquernos.shover.shipper;
+
+import org.apache.avro.Schema;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+
+public class LineParserTest {
+
+	private static final Schema schema = new Schema.Parser().parse("{" +
+		"\"type\": \"record\", \"name\": \"line\", \"fields\": [" +
+		" { \"name\": \"name\", \"type\": \"string\" }" +
+		", { \"name\": \"count\", \"type\": \"int\" }" +
+		", { \"name\": \"time\", \"type\": \"long\" }" +
+		", { \"name\": \"score\", \"type\": \"double\" }" +
+		", { \"name\": \"valid\", \"type\": \"boolean\" }" +
+		", { \"name\": \"memo\", \"type\": [\"null\", \"string\"] }" +
+		"] }");
+
+	private static final LineParser parser = new LineParser(schema, (byte) ',');
+
+	@Test
+	public void parseLine() {
+		Object[] values = parse("name-가,-7,1234567890123,2.5,true,memo");
+
+		assertEquals("name-가", values[0]);
+		assertEquals(-7, values[1]);
+		assertEquals(1234567890123L, values[2]);
+		assertEquals(2.5, values[3]);
+		assertEquals(Boolean.TRUE, values[4]);
+		assertEquals("memo", values[5]);
+	}
+
+	@Test
+	public void parseLongBounds() {
+		assertEquals(Long.MAX_VALUE, parse("n,0," + Long.MAX_VALUE + ",0,true,")[2]);
+		assertEquals(Long.MIN_VALUE, parse("n,0," + Long.MIN_VALUE + ",0,true,")[2]);
+		assertEquals(Integer.MIN_VALUE, parse("n," + Integer.MIN_VALUE + ",0,0,true,")[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parseLongOverflow() {
+		parse("n,0,9223372036854775808,0,true,");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parseLongUnderflow() {
+		parse("n,0,-9223372036854775809,0,true,");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parseIntOverflow() {
+		parse("n,2147483648,0,0,true,");
+	}
+
+	@Test
+	public void parseEmptyFields() {
+		Object[] values = parse(",1,2,3,false,");
+
+		// an empty string is a string, and an empty nullable field is null
+		assertEquals("", values[0]);
+		assertNull(values[5]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parseEmptyNumber() {
+		parse("n,,2,3,false,memo");
+	}
+
+	@Test
+	public void parseLineOfCarriageReturn() {
+		ByteBuffer buffer = buffer("a,1,2,3,true,memo\r\nb,4,5,6,false,\r\n");
+		int first = indexOf(buffer, 0, '\n');
+		int second = indexOf(buffer, first + 1, '\n');
+
+		Object[] values = parser.parse(buffer, 0, LineParser.lineEnd(buffer, 0, first));
+		assertEquals("a", values[0]);
+		assertEquals("memo", values[5]);
+
+		values = parser.parse(buffer, first + 1, LineParser.lineEnd(buffer, first + 1, second));
+		assertEquals("b", values[0]);
+		assertNull(values[5]);
+
+		assertEquals(3, LineParser.lineEnd(buffer("abc"), 0, 3));
+		assertEquals(0, LineParser.lineEnd(buffer("\r"), 0, 1));
+	}
+
+	@Test
+	public void parseFewerFields() {
+		Object[] values = parse("name,1");
+
+		assertEquals(6, values.length);
+		assertEquals("name", values[0]);
+		assertEquals(1, values[1]);
+		for (int pos = 2; pos < values.length; pos++) assertNull(values[pos]);
+	}
+
+	@Test
+	public void parseExtraFields() {
+		Object[] values = parse("name,1,2,3.5,true,memo,extra,fields");
+
+		assertEquals(6, values.length);
+		assertEquals("memo", values[5]);
+	}
+
+	@Test
+	public void parseInMiddleOfBuffer() {
+		ByteBuffer buffer = buffer("skipped|name,1,2,3,true,memo|skipped");
+
+		Object[] values = parser.parse(buffer, 8, 8 + "name,1,2,3,true,memo".length());
+		assertEquals("name", values[0]);
+		assertEquals("memo", values[5]);
+	}
+
+	private static Object[] parse(String line) {
+		ByteBuffer buffer = buffer(line);
+		return parser.parse(buffer, 0, buffer.limit());
+	}
+
+	private static ByteBuffer buffer(String str) {
+		return ByteBuffer.wrap(str.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static int indexOf(ByteBuffer buffer, int start, char ch) {
+		for (int idx = start; idx < buffer.limit(); idx++) {
+			if (buffer.get(idx) == ch) return idx;
+		}
+
+		return buffer.limit();
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.conquernos.shover.shipper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+public class OffsetCheckpointTest {
+
+	private File dir;
+
+	private File file;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("offset-checkpoint-test").toFile();
+		file = new File(new File(dir, "sub"), "checkpoint");
+	}
+
+	@After
+	public void deleteDir() {
+		File sub = new File(dir, "sub");
+		File[] files = sub.listFiles();
+		if (files != null) {
+			for (File child : files) child.delete();
+		}
+		sub.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void getNotCommittedOffset() throws Exception {
+		OffsetCheckpoint checkpoint = new OffsetCheckpoint(file);
+
+		assertEquals(0, checkpoint.get("unknown"));
+		assertTrue(checkpoint.getAll().isEmpty());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void reloadCommittedOffsets() throws Exception {
+		OffsetCheckpoint checkpoint = new OffsetCheckpoint(file);
+		checkpoint.commit("/var/log/a.log:1", 100);
+		checkpoint.commit("/var/log/b.log:2", Long.MAX_VALUE);
+		checkpoint.commit("/var/log/a.log:1", 200);
+
+		OffsetCheckpoint reloaded = new OffsetCheckpoint(file);
+		assertEquals(200, reloaded.get("/var/log/a.log:1"));
+		assertEquals(Long.MAX_VALUE, reloaded.get("/var/log/b.log:2"));
+		assertEquals(checkpoint.getAll(), reloaded.getAll());
+
+		// only the checkpoint file, the temporary file was moved
+		String[] names = file.getParentFile().list();
+		assertEquals(1, names.length);
+		assertEquals("checkpoint", names[0]);
+	}
+
+	@Test
+	public void removeOffset() throws Exception {
+		OffsetCheckpoint checkpoint = new OffsetCheckpoint(file);
+		checkpoint.commit("a", 1);
+		checkpoint.commit("b", 2);
+		checkpoint.remove("a");
+		checkpoint.remove("unknown");
+
+		OffsetCheckpoint reloaded = new OffsetCheckpoint(file);
+		assertEquals(0, reloaded.get("a"));
+		assertEquals(2, reloaded.get("b"));
+	}
+
+	@Test
+	public void getAllIsCopy() throws Exception {
+		OffsetCheckpoint checkpoint = new OffsetCheckpoint(file);
+		checkpoint.commit("a", 1);
+
+		Map<String, Long> offsets = checkpoint.getAll();
+		offsets.put("a", 10L);
+		assertEquals(1, checkpoint.get("a"));
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.conquernos.shover.shipper;
+
+import org.apache.avro.Schema;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.conquernos.shover.Shover;
+import org.conquernos.shover.TestShovers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+
+public class ShoverFileShipperTest {
+
+	private static final String TOPIC = "lines";
+
+	private static final Schema schema = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"line\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}, {\"name\": \"count\", \"type\": \"int\"}]}");
+
+	private File dir;
+
+	private MockProducer<byte[], byte[]> producer;
+
+	private Shover shover;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("shover-file-shipper-test").toFile();
+		producer = TestShovers.producer(true);
+		shover = TestShovers.build(TestShovers.config(TOPIC), producer, TestShovers.registry(TOPIC, schema));
+	}
+
+	@After
+	public void tearDown() {
+		shover.close();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void skipBadLine() throws Exception {
+		File file = write("lines.log", "a|1\nb|not a number\nc|3\r\nd|4");
+		OffsetCheckpoint checkpoint = new OffsetCheckpoint(new File(dir, "checkpoint"));
+		ShoverFileShipper shipper = shipper(checkpoint, 2);
+
+		assertEquals(file.length(), shipper.ship(file));
+
+		// the bad line takes no slot of a batch, so it is neither sent nor failed
+		assertEquals(3, shipper.getNumberOfShippedLines());
+		assertEquals(1, shipper.getNumberOfSkippedLines());
+		assertEquals(3, producer.history().size());
+		assertEquals(3, shover.getStats().getNumberOfMessages());
+		assertEquals(3, shover.getStats().getNumberOfCompletedMessages());
+		assertEquals(0, shover.getStats().getNumberOfFailedMessages());
+		assertEquals(file.length(), checkpoint.get(file.getCanonicalPath()));
+	}
+
+	@Test
+	public void resumeFromCommittedOffset() throws Exception {
+		File file = write("lines.log", "a|1\nb|2\n");
+		OffsetCheckpoint checkpoint = new OffsetCheckpoint(new File(dir, "checkpoint"));
+		assertEquals(file.length(), shipper(checkpoint, 10).ship(file));
+
+		Files.write(file.toPath(), "c|3\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		ShoverFileShipper restarted = shipper(new OffsetCheckpoint(new File(dir, "checkpoint")), 10);
+
+		assertEquals(file.length(), restarted.ship(file));
+		assertEquals(1, restarted.getNumberOfShippedLines());
+		assertEquals(3, producer.history().size());
+	}
+
+	private ShoverFileShipper shipper(OffsetCheckpoint checkpoint, int batchSize) throws Exception {
+		return new ShoverFileShipper(shover, TOPIC, 0, ShoverFileShipper.DEFAULT_DELIMITER, checkpoint
+			, 1024, batchSize, ShoverFileShipper.DEFAULT_MAX_PENDING_BATCHES);
+	}
+
+	private File write(String name, String content) throws Exception {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+		return file;
+	}
+
+}
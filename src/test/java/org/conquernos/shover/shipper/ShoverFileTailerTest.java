@@ -0,0 +1,202 @@
+package org.conquernos.shover.shipper;
+
+import org.apache.avro.Schema;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.conquernos.shover.Shover;
+import org.conquernos.shover.TestShovers;
+import org.conquernos.shover.exceptions.send.ShoverSendException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.Assert.*;
+
+
+public class ShoverFileTailerTest {
+
+	private static final String TOPIC = "tailed";
+
+	private static final Schema schema = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"line\", \"fields\": ["
+		+ "{\"name\": \"name\", \"type\": \"string\"}, {\"name\": \"count\", \"type\": \"int\"}]}");
+
+	private File dir;
+
+	private File logDir;
+
+	private MockProducer<byte[], byte[]> producer;
+
+	private Shover shover;
+
+	private OffsetCheckpoint checkpoint;
+
+	private ShoverFileShipper shipper;
+
+	private ShoverFileTailer tailer;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("shover-file-tailer-test").toFile();
+		logDir = new File(dir, "logs");
+		assertTrue(logDir.mkdir());
+	}
+
+	@After
+	public void tearDown() {
+		if (shover != null) shover.close();
+		delete(dir);
+	}
+
+	@Test
+	public void shipCompleteLinesOnly() throws Exception {
+		start(true);
+		File file = write("app.log", "a|1\nb|");
+
+		tail();
+		assertEquals(1, producer.history().size());
+		assertEquals(4, checkpoint.get(key(file)));
+
+		// the rest of the line is shipped when it is completed
+		append(file, "2\n");
+		tail();
+		assertEquals(2, producer.history().size());
+		assertEquals(file.length(), checkpoint.get(key(file)));
+	}
+
+	@Test
+	public void shipRotatedFileToEnd() throws Exception {
+		start(true);
+		File file = write("app.log", "a|1\n");
+		String oldKey = key(file);
+		tail();
+
+		// renamed, still written, and a new file of the name
+		File rotated = new File(logDir, "app.log.1");
+		assertTrue(file.renameTo(rotated));
+		append(rotated, "b|2\n");
+		File created = write("app.log", "c|3\n");
+		tail();
+
+		assertEquals(3, producer.history().size());
+		assertEquals(rotated.length(), checkpoint.get(oldKey));
+		assertEquals(created.length(), checkpoint.get(key(created)));
+
+		// moved out of the directory, the rest (a line without the separator) is shipped and the file is forgotten
+		append(rotated, "d|4");
+		assertTrue(rotated.renameTo(new File(dir, "app.log.1")));
+		tail();
+
+		assertEquals(4, producer.history().size());
+		assertEquals(0, checkpoint.get(oldKey));
+		assertNull(checkpoint.getFingerprint(oldKey));
+	}
+
+	@Test
+	public void shipTruncatedFileFromStart() throws Exception {
+		start(true);
+		File file = write("app.log", "a|1\nb|2\n");
+		tail();
+
+		// truncated in place (copytruncate), the same file key
+		Files.write(file.toPath(), "c|3\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+		tail();
+
+		assertEquals(3, producer.history().size());
+		assertEquals(file.length(), checkpoint.get(key(file)));
+	}
+
+	@Test
+	public void shipAgainFromCommittedOffsetAfterFailure() throws Exception {
+		start(false);
+		File file = write("app.log", "a|1\nb|2\n");
+		tailer.tail();
+		assertTrue(producer.errorNext(new IllegalStateException("broken")));
+		assertTrue(producer.completeNext());
+
+		try {
+			shipper.awaitPendingBatches(0);
+			fail("not failed");
+		} catch (ShoverSendException expected) {
+		}
+		assertEquals(0, checkpoint.get(key(file)));
+
+		tailer.recover();
+		tailer.tail();
+		assertEquals(4, producer.history().size());
+		assertTrue(producer.completeNext());
+		assertTrue(producer.completeNext());
+		shipper.awaitPendingBatches(0);
+
+		assertEquals(file.length(), checkpoint.get(key(file)));
+	}
+
+	@Test
+	public void resumeOnlySameFile() throws Exception {
+		start(true);
+		File file = write("app.log", "a|1\n");
+		tail();
+		assertNotNull(checkpoint.getFingerprint(key(file)));
+
+		// restarted, the same file is resumed from the committed offset
+		append(file, "b|2\n");
+		restart();
+		tail();
+		assertEquals(2, producer.history().size());
+
+		// restarted, another file of the same file key (ex. an inode reused after the rotation) is shipped from the start
+		Files.write(file.toPath(), "x|7\ny|8\nz|9\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+		restart();
+		tail();
+		assertEquals(5, producer.history().size());
+		assertEquals(file.length(), checkpoint.get(key(file)));
+	}
+
+	private void start(boolean autoComplete) throws Exception {
+		producer = TestShovers.producer(autoComplete);
+		shover = TestShovers.build(TestShovers.config(TOPIC), producer, TestShovers.registry(TOPIC, schema));
+		restart();
+	}
+
+	// a new tailer of the checkpoint file, with the same producer
+	private void restart() throws Exception {
+		checkpoint = new OffsetCheckpoint(new File(dir, "checkpoint"));
+		shipper = new ShoverFileShipper(shover, TOPIC, 0, ShoverFileShipper.DEFAULT_DELIMITER, checkpoint
+			, 1024, 10, ShoverFileShipper.DEFAULT_MAX_PENDING_BATCHES);
+		tailer = new ShoverFileTailer(shipper, logDir, "app.log*", 1000);
+	}
+
+	// tail once and wait for the acknowledgements
+	private void tail() throws Exception {
+		tailer.tail();
+		shipper.awaitPendingBatches(0);
+	}
+
+	private String key(File file) throws Exception {
+		return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey().toString();
+	}
+
+	private File write(String name, String content) throws Exception {
+		File file = new File(logDir, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+		return file;
+	}
+
+	private static void append(File file, String content) throws Exception {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) delete(child);
+		}
+		file.delete();
+	}
+
+}
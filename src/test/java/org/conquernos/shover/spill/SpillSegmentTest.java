@@ -0,0 +1,138 @@
+package org.conquernos.shover.spill;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class SpillSegmentTest {
+
+	private static final int CAPACITY = 4096;
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("spill-segment-test").toFile();
+	}
+
+	@After
+	public void deleteDir() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void readAppendedRecords() throws Exception {
+		SpillSegment segment = SpillSegment.create(dir, 1, CAPACITY);
+		assertTrue(segment.isEmpty());
+		assertTrue(segment.append(record("topic-가", "key1", "value1")));
+		assertTrue(segment.append(record("topic", "key2", "")));
+		assertFalse(segment.isEmpty());
+		segment.force();
+
+		SpillSegment opened = SpillSegment.open(segment.getFile());
+		assertEquals(1, opened.getSequence());
+		List<ProducerRecord<byte[], byte[]>> records = opened.read();
+		assertEquals(2, records.size());
+		assertRecord(record("topic-가", "key1", "value1"), records.get(0));
+		assertRecord(record("topic", "key2", ""), records.get(1));
+	}
+
+	@Test
+	public void readNullKeyAndValue() throws Exception {
+		SpillSegment segment = SpillSegment.create(dir, 2, CAPACITY);
+		assertTrue(segment.append(record("topic", null, "value")));
+		assertTrue(segment.append(record("topic", "key", null)));
+		assertTrue(segment.append(record("topic", null, null)));
+
+		List<ProducerRecord<byte[], byte[]>> records = SpillSegment.open(segment.getFile()).read();
+		assertEquals(3, records.size());
+		assertRecord(record("topic", null, "value"), records.get(0));
+		assertRecord(record("topic", "key", null), records.get(1));
+		assertRecord(record("topic", null, null), records.get(2));
+	}
+
+	@Test
+	public void appendUntilFull() throws Exception {
+		SpillSegment segment = SpillSegment.create(dir, 3, 64);
+		// 8 (header) + 2 + 5 + 4 + 3 + 4 + 10 = 36 bytes and a zero length after it
+		assertTrue(segment.append(record("topic", "key", "0123456789")));
+		assertFalse(segment.append(record("topic", "key", "0123456789")));
+
+		assertEquals(1, SpillSegment.open(segment.getFile()).read().size());
+	}
+
+	@Test
+	public void stopAtTruncatedRecord() throws Exception {
+		byte[] bytes = writeThreeRecords();
+		// in the middle of the third record
+		File truncated = segmentFile(10, Arrays.copyOf(bytes, 2 * recordSize() + 12));
+
+		List<ProducerRecord<byte[], byte[]>> records = SpillSegment.open(truncated).read();
+		assertEquals(2, records.size());
+		assertRecord(record("topic", "key1", "value1"), records.get(0));
+		assertRecord(record("topic", "key2", "value2"), records.get(1));
+	}
+
+	@Test
+	public void stopAtCorruptedRecord() throws Exception {
+		byte[] bytes = writeThreeRecords();
+		// the last byte of the value of the second record
+		bytes[2 * recordSize() - 1] ^= 1;
+		File corrupted = segmentFile(11, bytes);
+
+		List<ProducerRecord<byte[], byte[]>> records = SpillSegment.open(corrupted).read();
+		assertEquals(1, records.size());
+		assertRecord(record("topic", "key1", "value1"), records.get(0));
+	}
+
+	// 8 (header) + 2 + "topic" + 4 + "keyN" + 4 + "valueN"
+	private static int recordSize() {
+		return 8 + 2 + 5 + 4 + 4 + 4 + 6;
+	}
+
+	private byte[] writeThreeRecords() throws Exception {
+		SpillSegment segment = SpillSegment.create(dir, 4, CAPACITY);
+		for (int idx = 1; idx <= 3; idx++) {
+			assertTrue(segment.append(record("topic", "key" + idx, "value" + idx)));
+		}
+		segment.force();
+
+		return Files.readAllBytes(segment.getFile().toPath());
+	}
+
+	private File segmentFile(long sequence, byte[] bytes) throws Exception {
+		File file = new File(dir, SpillSegment.fileName(sequence));
+		Files.write(file.toPath(), bytes);
+
+		return file;
+	}
+
+	private static ProducerRecord<byte[], byte[]> record(String topic, String key, String value) {
+		return new ProducerRecord<>(topic, bytes(key), bytes(value));
+	}
+
+	private static byte[] bytes(String str) {
+		return (str == null)? null : str.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void assertRecord(ProducerRecord<byte[], byte[]> expected, ProducerRecord<byte[], byte[]> actual) {
+		assertEquals(expected.topic(), actual.topic());
+		assertTrue(Arrays.equals(expected.key(), actual.key()));
+		assertTrue(Arrays.equals(expected.value(), actual.value()));
+	}
+
+}
@@ -0,0 +1,45 @@
+package org.conquernos.shover.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsCoverValuesWithinPrecision() {
+		for (long value = 0; value < 1000000; value++) {
+			int index = LatencyHistogram.indexOf(value);
+			long highest = LatencyHistogram.highestValueOf(index);
+			assertTrue(highest >= value);
+			assertTrue(index == 0 || LatencyHistogram.highestValueOf(index - 1) < value);
+			assertTrue(highest - value <= Math.max(1, value) * 0.035);
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long micros = 1; micros <= 1000; micros++) {
+			histogram.recordNanos(micros * 1000);
+		}
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500.5, snapshot.getMean(), 0.001);
+		assertEquals(1000, snapshot.getMax());
+		assertEquals(500, snapshot.getPercentile(50), 500 * 0.035);
+		assertEquals(990, snapshot.getPercentile(99), 990 * 0.035);
+		assertEquals(1000, snapshot.getPercentile(100));
+	}
+
+	@Test
+	public void emptySnapshot() {
+		LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getPercentile(99));
+	}
+
+}
@@ -0,0 +1,50 @@
+package org.conquernos.shover.stats;
+
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+public class ShoverStatsTest {
+
+	@Test
+	public void producerRetryRateOfTopic() {
+		Map<MetricName, Metric> metrics = new HashMap<>();
+		put(metrics, "producer-metrics", Collections.<String, String>emptyMap(), 3.0);
+		put(metrics, "producer-topic-metrics", Collections.singletonMap("topic", "a"), 1.0);
+		put(metrics, "producer-topic-metrics", Collections.singletonMap("topic", "b"), 2.0);
+
+		ShoverStats stats = new ShoverStats();
+		stats.addNumberOfMessages("a", 1);
+		stats.addNumberOfMessages("c", 1);
+		assertTrue(Double.isNaN(stats.getTopicStats("a").getProducerRetryRate()));
+
+		stats.setProducerMetrics(() -> metrics);
+		assertEquals(3.0, stats.getProducerRetryRate(), 0);
+		assertEquals(1.0, stats.getTopicStats("a").getProducerRetryRate(), 0);
+		// the producer has not sent a record of the topic
+		assertTrue(Double.isNaN(stats.getTopicStats("c").getProducerRetryRate()));
+	}
+
+	private static void put(Map<MetricName, Metric> metrics, String group, Map<String, String> tags, double value) {
+		MetricName name = new MetricName("record-retry-rate", group, "", tags);
+		metrics.put(name, new Metric() {
+			@Override
+			public MetricName metricName() {
+				return name;
+			}
+
+			@Override
+			public double value() {
+				return value;
+			}
+		});
+	}
+
+}